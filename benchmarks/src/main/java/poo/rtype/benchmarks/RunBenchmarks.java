@@ -0,0 +1,38 @@
+package poo.rtype.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Punto de entrada del jar de benchmarks. Acepta las mismas opciones que
+ * el lanzador de JMH (filtro de benchmarks, -f, -wi, -i, -rf csv...) y
+ * añade siempre el profiler gc, de modo que cada resultado de throughput
+ * va acompañado de la tasa de asignación de memoria (gc.alloc.rate.norm,
+ * bytes por operación).
+ * <pre>
+ * java -jar benchmarks/target/benchmarks.jar
+ * java -jar benchmarks/target/benchmarks.jar PixelCollision -rf csv -rff antes.csv
+ * </pre>
+ * @author José Luis Pérez González
+ */
+public class RunBenchmarks {
+
+    /**
+     * @param args Opciones de JMH.
+     * @throws RunnerException Si falla la ejecución de algún benchmark.
+     * @throws CommandLineOptionException Si las opciones no son válidas.
+     */
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .jvmArgsAppend("-Djava.awt.headless=true")
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,78 @@
+package poo.rtype.controlador;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import poo.rtype.modelo.Enemy;
+import poo.rtype.modelo.Player;
+
+/**
+ * Un paso completo de CollisionsController.checkCollisions con el jugador y
+ * un número variable de naves enemigas.
+ * <p>
+ * Las naves se reparten con densidad constante (unas 9 por cada 360x360
+ * píxels) a la derecha del jugador, que nunca es alcanzado: el almacén no se
+ * vacía entre iteraciones y todas miden lo mismo. Las naves no se mueven,
+ * así que las que se tocan chocan en cada iteración (cambio de dirección,
+ * aceleración o recolocación), igual que en una partida muy poblada.
+ * </p>
+ * <p>
+ * Con 'parallel' las filas se reparten entre los hilos del ForkJoinPool
+ * (ver {@link ParallelSweep}).
+ * </p>
+ * @author José Luis Pérez González
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class CollisionsBenchmark {
+
+    @Param({"10", "100", "1000", "10000"})
+    public int entities;
+
+    @Param({"false", "true"})
+    public boolean parallel;
+
+    private CollisionsController collisions;
+    private EntityStore store;
+
+    @Setup
+    public void setup() {
+        System.setProperty("java.awt.headless", "true");
+        World world = new World();
+        collisions = new CollisionsController(world);
+        store = new EntityStore(entities);
+        store.add(new Player(150, null, null));
+
+        Random random = new Random(42);
+        for(int i = 1; i < entities; i++) {
+            int x = 200 + random.nextInt(entities * 40);
+            int y = 30 + random.nextInt(Game.P_HEIGHT - 60);
+            byte type = (byte) random.nextInt(2);
+            store.add(new Enemy(x, y, type == 0 ? "/poo/rtype/enemyB.png" : "/poo/rtype/enemyA.png",
+                    "/poo/rtype/enemy_mask.png", type, 150, random));
+        }
+        world.getState().setRemainingEnemies(entities - 1);
+    }
+
+    @Benchmark
+    public int checkCollisions() {
+        collisions.checkCollisions(store, parallel);
+        return store.size();
+    }
+}
@@ -0,0 +1,55 @@
+package poo.rtype.controlador;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Colocación inicial de las naves enemigas de una partida
+ * (World.makeEnemyPositions, antes Game.makeEnemyPositions) en cada nivel
+ * de dificultad, y de un nivel personalizado de 200 naves en una zona de 6000 píxels
+ * de ancho.
+ * @author José Luis Pérez González
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class EnemyPlacementBenchmark {
+
+    @Param({"1", "2", "3", "4"})
+    public int gameMode;
+
+    private World world;
+    private Random random = new Random(42);
+
+    @Setup
+    public void setup() {
+        System.setProperty("java.awt.headless", "true");
+        world = new World();
+        world.start(gameMode, 42);
+    }
+
+    @Benchmark
+    public int[][] makeEnemyPositions() {
+        return world.makeEnemyPositions();
+    }
+
+    @Benchmark
+    public int[][] place200() {
+        return EnemyPlacer.place(200, Game.P_WIDTH, 30, 6000, Game.P_HEIGHT - 60, 100, random);
+    }
+}
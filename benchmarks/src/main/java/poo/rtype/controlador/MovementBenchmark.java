@@ -0,0 +1,83 @@
+package poo.rtype.controlador;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import poo.rtype.modelo.Enemy;
+import poo.rtype.modelo.Player;
+
+/**
+ * Un paso de MovementController.moveEntities con el jugador y un número
+ * variable de naves enemigas repartidas por la pantalla, y sólo la
+ * integración de las posiciones (el bucle sin ramas sobre las columnas del
+ * {@link EntityStore}).
+ * <p>
+ * Las naves nunca se retiran: las que salen por la izquierda reaparecen por
+ * la derecha, así que el número de filas es el mismo en todas las iteraciones.
+ * Con 'parallel' moveEntities reparte las filas entre los hilos del
+ * ForkJoinPool (ver {@link ParallelSweep}).
+ * </p>
+ * @author José Luis Pérez González
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class MovementBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int entities;
+
+    @Param({"false", "true"})
+    public boolean parallel;
+
+    private MovementController movement;
+    private EntityStore store;
+    private FrameClock clock;
+    private Random random;
+
+    @Setup
+    public void setup() {
+        System.setProperty("java.awt.headless", "true");
+        movement = new MovementController(null, new GameState());
+        store = new EntityStore(entities);
+        store.add(new Player(150, null, null));
+
+        random = new Random(42);
+        for(int i = 1; i < entities; i++) {
+            int x = random.nextInt(Game.P_WIDTH);
+            int y = 30 + random.nextInt(Game.P_HEIGHT - 60);
+            byte type = (byte) random.nextInt(2);
+            store.add(new Enemy(x, y, type == 0 ? "/poo/rtype/enemyB.png" : "/poo/rtype/enemyA.png",
+                    "/poo/rtype/enemy_mask.png", type, 150, random));
+        }
+        clock = new FrameClock(FrameClock.fixed(Game.getPeriod()));
+    }
+
+    @Benchmark
+    public int moveEntities() {
+        clock.advance(clock.sample());
+        movement.moveEntities(store, clock, random, parallel);
+        return store.size();
+    }
+
+    @Benchmark
+    public int integrate() {
+        MovementController.integrate(store, 0, store.size());
+        return store.size();
+    }
+}
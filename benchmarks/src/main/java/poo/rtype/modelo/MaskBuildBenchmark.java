@@ -0,0 +1,49 @@
+package poo.rtype.modelo;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Construcción de la máscara de colisión de una imagen (Entity.makeMaskArray),
+ * desde las máscaras pequeñas del juego hasta una tira de 900x100 píxels.
+ * @author José Luis Pérez González
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class MaskBuildBenchmark {
+
+    @Param({"/poo/rtype/missile_mask.png", "/poo/rtype/enemy_mask.png",
+            "/poo/rtype/player_mask.png", "/poo/rtype/explosionPlayer.png"})
+    public String image;
+
+    private BufferedImage source;
+
+    @Setup
+    public void setup() throws IOException {
+        source = ImageIO.read(MaskBuildBenchmark.class.getResource(image));
+    }
+
+    @Benchmark
+    public PixelMask makeMaskArray() {
+        return Entity.makeMaskArray(source);
+    }
+}
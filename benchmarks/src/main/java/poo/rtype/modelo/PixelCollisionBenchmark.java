@@ -0,0 +1,75 @@
+package poo.rtype.modelo;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Colisión 'pixel-perfect' entre entidades (Entity.checkPixelCollisions, a
+ * través de collidesWith con los límites ya solapados) y entre máscaras
+ * grandes que ocupan varias palabras por fila (PixelMask.intersects).
+ * @author José Luis Pérez González
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class PixelCollisionBenchmark {
+
+    private Player player;
+    private Enemy enemyOverPlayer;
+    private Enemy enemy;
+    private Missile missileInside;
+    private Missile missileAtCorner;
+    private PixelMask bigMask;
+
+    @Setup
+    public void setup() throws IOException {
+        System.setProperty("java.awt.headless", "true");
+        player = new Player(150, null, null);
+        // Los límites se solapan en todos los casos: se mide sólo la comprobación por píxels.
+        enemyOverPlayer = new Enemy(player.getX() + 16, player.getY() + 8,
+                "/poo/rtype/enemyA.png", "/poo/rtype/enemy_mask.png", (byte) 0, 0, new Random(42));
+        enemy = new Enemy(400, 200, "/poo/rtype/enemyB.png", "/poo/rtype/enemy_mask.png", (byte) 0, 0, new Random(42));
+        missileInside = new Missile(404, 206, 0);
+        missileAtCorner = new Missile(enemy.getX() - missileInside.getWidth() + 2, enemy.getY() - missileInside.getHeight() + 1, 0);
+        BufferedImage big = ImageIO.read(PixelCollisionBenchmark.class.getResource("/poo/rtype/explosionPlayer.png"));
+        bigMask = Entity.makeMaskArray(big);
+    }
+
+    @Benchmark
+    public boolean playerVsEnemy() {
+        return player.collidesWith(enemyOverPlayer);
+    }
+
+    @Benchmark
+    public boolean missileVsEnemyHit() {
+        return missileInside.collidesWith(enemy);
+    }
+
+    @Benchmark
+    public boolean missileVsEnemyCorner() {
+        return missileAtCorner.collidesWith(enemy);
+    }
+
+    @Benchmark
+    public boolean bigMaskUnaligned() {
+        return bigMask.intersects(bigMask, 437, 51);
+    }
+}
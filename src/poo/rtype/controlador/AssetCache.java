@@ -0,0 +1,203 @@
+package poo.rtype.controlador;
+
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+
+import poo.rtype.modelo.Entity;
+import poo.rtype.modelo.PixelMask;
+
+/**
+ * Caché de imágenes y máscaras compartida por todo el juego.
+ * <p>
+ * Cada archivo (identificado por su ruta dentro del classpath) se lee y se
+ * acelera una única vez; todas las entidades del mismo tipo reciben después
+ * el mismo objeto Image y la misma máscara. Así, por ejemplo,
+ * disparar un misil ya no vuelve a leer missile.png y missile_mask.png ni
+ * crea otra VolatileImage.
+ * </p>
+ * <p>
+ * Lo que se dibuja en la pantalla de juego no se pide como imagen suelta
+ * sino como región del atlas de texturas compartido ({@link #getSprite(String)},
+ * ver {@link TextureAtlas}).
+ * </p>
+ * <p>
+ * Quien necesite tener una imagen disponible durante un tiempo (el juego
+ * durante la partida, el Renderer con el fondo) la reserva con
+ * {@link #acquireImage(String)} / {@link #acquireMask(String)}, lo que
+ * además la carga por adelantado, y la libera con {@link #release(String)}.
+ * Las entidades se limitan a pedirla con {@link #getImage(String)} o
+ * {@link #getMask(String)}, que la cargan si aún no estaba en la caché
+ * pero no la reservan. {@link #evictUnused()} descarta todo lo que no está
+ * reservado por nadie.
+ * </p>
+ * <pre>
+ * AssetCache.acquireImage("/poo/rtype/missile.png"); // Fase de precarga.
+ * Image img = AssetCache.getImage("/poo/rtype/missile.png");
+ * </pre>
+ * @author José Luis Pérez González
+ */
+public final class AssetCache {
+
+    /** Imágenes aceleradas, indexadas por la ruta del archivo */
+    private static final Map<String, Image> images = new HashMap<String, Image>();
+    /** Máscaras de colisión, indexadas por la ruta del archivo de la máscara */
+    private static final Map<String, PixelMask> masks = new HashMap<String, PixelMask>();
+    /** Número de reservas activas de cada ruta */
+    private static final Map<String, Integer> references = new HashMap<String, Integer>();
+    /** Cargador de imágenes, se crea la primera vez que hace falta */
+    private static ImageLoader loader;
+    /** Atlas con las imágenes que se dibujan, se crea la primera vez que hace falta */
+    private static TextureAtlas atlas;
+
+    /**
+     * No se instancia, todos los métodos son estáticos.
+     */
+    private AssetCache() {}
+
+    /**
+     * Devuelve la imagen acelerada del archivo indicado, leyéndola
+     * sólo si no estaba ya en la caché.
+     * @param imageSource La ruta hasta el archivo con la imagen.
+     * @return La imagen compartida, o null si no se ha podido leer.
+     */
+    public static synchronized Image getImage(String imageSource) {
+        Image image = images.get(imageSource);
+        if(image == null) {
+            if(loader == null)
+                loader = new ImageLoader();
+            image = loader.LoadImage(imageSource);
+            if(image != null)
+                images.put(imageSource, image);
+        }
+        return image;
+    }
+
+    /**
+     * Devuelve el atlas de texturas compartido, del que se dibujan las
+     * entidades, los efectos y el fondo.
+     * <p>
+     * Sus regiones no se descartan nunca con {@link #evictUnused()}: están
+     * todas juntas en las mismas páginas y ocupan muy poco.
+     * </p>
+     * @return El atlas.
+     */
+    public static synchronized TextureAtlas getAtlas() {
+        if(atlas == null) {
+            if(loader == null)
+                loader = new ImageLoader();
+            atlas = new TextureAtlas(loader);
+        }
+        return atlas;
+    }
+
+    /**
+     * Devuelve la región del atlas con la imagen indicada, añadiéndola al
+     * atlas sólo si no estaba ya.
+     * @param imageSource La ruta hasta el archivo con la imagen.
+     * @return El número de la región en {@link #getAtlas()}, o -1 si no se ha podido leer.
+     */
+    public static synchronized int getSprite(String imageSource) {
+        int region = getAtlas().getRegion(imageSource);
+        return region >= 0 ? region : atlas.add(imageSource);
+    }
+
+    /**
+     * Devuelve la máscara de colisión construida a partir del archivo indicado,
+     * construyéndola sólo si no estaba ya en la caché.
+     * <p>
+     * La máscara es inmutable y se comparte entre todas las entidades que la usan.
+     * </p>
+     * @param maskSource La ruta hasta el archivo con la máscara.
+     * @return La máscara compartida, o null si no se ha podido leer.
+     * @see Entity#makeMaskArray(BufferedImage)
+     */
+    public static synchronized PixelMask getMask(String maskSource) {
+        PixelMask mask = masks.get(maskSource);
+        if(mask == null) {
+            try {
+                BufferedImage imageMask = ImageIO.read(AssetCache.class.getResource(maskSource));
+                mask = Entity.makeMaskArray(imageMask);
+                masks.put(maskSource, mask);
+            } catch (IOException ex) {
+                System.out.println("Error: no se ha podido leer el archivo de máscara indicado: " + maskSource);
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Reserva (y carga si es necesario) una imagen. Mientras tenga alguna
+     * reserva no se descartará al llamar a {@link #evictUnused()}.
+     * @param imageSource La ruta hasta el archivo con la imagen.
+     */
+    public static synchronized void acquireImage(String imageSource) {
+        getImage(imageSource);
+        reference(imageSource, 1);
+    }
+
+    /**
+     * Reserva (y construye si es necesario) una máscara de colisión.
+     * @param maskSource La ruta hasta el archivo con la máscara.
+     */
+    public static synchronized void acquireMask(String maskSource) {
+        getMask(maskSource);
+        reference(maskSource, 1);
+    }
+
+    /**
+     * Libera una reserva hecha con acquireImage() o acquireMask().
+     * La imagen sigue en la caché hasta la próxima llamada a {@link #evictUnused()}.
+     * @param source La ruta del archivo que ya no se necesita.
+     */
+    public static synchronized void release(String source) {
+        reference(source, -1);
+    }
+
+    /**
+     * Descarta de la caché todas las imágenes y máscaras que no tengan
+     * ninguna reserva activa.
+     * @return El número de elementos descartados.
+     */
+    public static synchronized int evictUnused() {
+        int evicted = 0;
+        evicted += evictUnused(images.keySet().iterator());
+        evicted += evictUnused(masks.keySet().iterator());
+        return evicted;
+    }
+
+    /**
+     * Descarta las rutas sin reservas de uno de los mapas de la caché.
+     * @param sources Iterador sobre las rutas del mapa.
+     * @return El número de elementos descartados.
+     */
+    private static int evictUnused(Iterator<String> sources) {
+        int evicted = 0;
+        while(sources.hasNext()) {
+            if(!references.containsKey(sources.next())) {
+                sources.remove();
+                evicted++;
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * Actualiza el contador de reservas de una ruta.
+     * @param source La ruta del archivo.
+     * @param increment +1 para reservar, -1 para liberar.
+     */
+    private static void reference(String source, int increment) {
+        Integer count = references.get(source);
+        int refs = (count == null ? 0 : count) + increment;
+        if(refs > 0)
+            references.put(source, refs);
+        else
+            references.remove(source);
+    }
+}
@@ -0,0 +1,42 @@
+package poo.rtype.controlador;
+
+import poo.rtype.modelo.Entity;
+import poo.rtype.modelo.Player;
+
+/**
+ * Piloto automático muy sencillo: dispara siempre y se mueve verticalmente
+ * hacia la nave enemiga más cercana que ya está en pantalla por delante del
+ * jugador. Lo usan el modo sin pantalla ({@link poo.rtype.start.HeadlessLauncher})
+ * y las partidas de bots del {@link SessionHost}.
+ * <p>
+ * No guarda ningún estado, así que una misma instancia sirve para cualquier
+ * número de partidas y de hilos.
+ * </p>
+ * @author José Luis Pérez González
+ */
+public class Autopilot implements SessionHost.Pilot {
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int keys(World world) {
+        Player player = world.getPlayer();
+        EntityStore store = world.getStore();
+        Entity target = null;
+        for(int i = 0; i < store.size(); i++) {
+            Entity entity = store.getHandle(i);
+            if(store.getKind(i) == EntityStore.ENEMY && entity.getX() > player.getX() && entity.getX() < Game.P_WIDTH
+                    && (target == null || entity.getX() < target.getX()))
+                target = entity;
+        }
+        int aim = player.getY() + player.getHeight() / 2;
+        int goal = target == null ? aim : target.getY() + target.getHeight() / 2;
+        int keys = InputController.KEY_FIRE;
+        if(goal < aim - 4)
+            keys |= InputController.KEY_UP;
+        if(goal > aim + 4)
+            keys |= InputController.KEY_DOWN;
+        return keys;
+    }
+}
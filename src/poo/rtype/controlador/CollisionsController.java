@@ -1,10 +1,6 @@
 package poo.rtype.controlador;
 
-import poo.rtype.modelo.Enemy;
-import poo.rtype.modelo.Player;
-import poo.rtype.modelo.interfaces.EntityIF;
-
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Random;
 
 /**
@@ -14,121 +10,301 @@ import java.util.Random;
  */
 public class CollisionsController {
 
-    /** Generador de números aleatorios (para que las naves enemigas y la estrellas no salgan siempre en las mismas posiciones) */
-    private Random randGenerator = new Random();
-    /** Instancia del controlador principal del juego. */
-    private Game game;
-    /** Contenedor con las naves que se deben eliminar */
-    private ArrayList<EntityIF> shipsToRemove = new ArrayList<EntityIF>();
-    /** Contenedor con los misiles que se deben eliminar */
-    private ArrayList<EntityIF> missilesToRemove = new ArrayList<EntityIF>();
+    /** Generador de números aleatorios de la partida, para recolocar las naves enemigas */
+    private Random randGenerator;
+    /** La simulación a la que pertenecen las entidades. */
+    private World world;
+    /** El reloj de la simulación, para acelerar y frenar las naves enemigas */
+    private FrameClock clock;
+    /** Rejilla con las naves enemigas, para no comprobar cada entidad contra todas las demás */
+    private SpatialGrid grid = new SpatialGrid(6, 1024);
+    /** Las naves enemigas amplían sus límites en este margen al comprobar colisiones entre ellas */
+    private static final int ENEMY_MARGIN = 8;
+    /** Recorre las filas del almacén, en uno o varios hilos */
+    private final ParallelSweep sweep = new ParallelSweep();
+    /** Impactos encontrados en cada tramo: pares (jugador o misil, nave enemiga) */
+    private ParallelSweep.IntList[] hits = new ParallelSweep.IntList[0];
+    /** Naves de tipo 0 que deben recolocarse, por tramo */
+    private ParallelSweep.IntList[] relocations = new ParallelSweep.IntList[0];
+    /** Cursor de la rejilla de cada tramo */
+    private SpatialGrid.Cursor[] cursors = new SpatialGrid.Cursor[0];
+
+    /** Almacén de las entidades del paso actual */
+    private EntityStore store;
+    /** Hora de la simulación en el paso actual */
+    private long now;
+
+    /** Búsqueda de colisiones en un tramo de filas */
+    private final ParallelSweep.Body detection = new ParallelSweep.Body() {
+        @Override
+        public void sweep(int chunk, int from, int to) {
+            detect(store, from, to, now, cursors[chunk], hits[chunk], relocations[chunk]);
+        }
+    };
 
     /**
      * Constructor de la clase.
-     * @param game Instancia del controlador principal.
+     * @param world La simulación a la que pertenecen las entidades.
      */
-    public CollisionsController(Game game) {
-        this.game = game;
+    public CollisionsController(World world) {
+        this.world = world;
+        this.randGenerator = world.getRandom();
+        this.clock = world.getClock();
     }
 
     /**
-     * Comprobar si hay colisiones entre las diferentes entidades contenidas
-     * en una lista y llevar a cabo las acciones necesarias en caso de que
+     * Comprobar si hay colisiones entre las diferentes entidades de un
+     * almacén y llevar a cabo las acciones necesarias en caso de que
      * efectivamente se produzca.
      * <p>
-     * Devuelve la lista de entrada con el estado de las entidades modificado
-     * en función de si están involucradas en una colisión o no.
+     * Las naves y misiles destruidos se marcan como no visibles; quien llama
+     * los retira del almacén después (ver {@link World}).
+     * </p>
+     * <p>
+     * Antes de las comprobaciones se registran las naves enemigas en una
+     * rejilla ({@link SpatialGrid}), de modo que cada nave, misil o el jugador
+     * sólo se compara con las naves que comparten celda con él. Los límites
+     * se comparan directamente sobre las columnas del almacén, sin crear
+     * ningún objeto.
      * </p>
-     * @param entities La lista que contiene las entidades a comprobar.
-     * @return La lista con el estado modificado de las diferentes entidades.
+     * @param store El almacén que contiene las entidades a comprobar.
      */
-    public ArrayList<EntityIF> checkCollisions(ArrayList<EntityIF> entities) {
-        for(EntityIF entity: entities) {
-            if(entity instanceof Player) {
-                checkPlayerCollisions(entity, entities);
-                ArrayList<EntityIF> missiles = ((Player) entity).getMissiles();
-                checkMissilesCollisions(missiles, entities);
-                missiles.removeAll(missilesToRemove);
-            } else {
-                checkEnemiesCollisions(entity, entities);
+    public void checkCollisions(EntityStore store) {
+        checkCollisions(store, false);
+    }
+
+    /**
+     * Como {@link #checkCollisions(EntityStore)}, repartiendo las filas entre
+     * varios hilos si se pide. El resultado es el mismo.
+     * <p>
+     * La comprobación se hace en dos fases. En la primera, que puede
+     * repartirse entre hilos, cada entidad busca con qué naves choca: las
+     * naves de tipo 1 cambian su propia dirección y velocidad, y lo demás
+     * (los impactos del jugador y los misiles, y las naves de tipo 0 que hay
+     * que recolocar) se apunta. En la segunda se aplica lo apuntado en orden
+     * de fila: un impacto sólo cuenta si la nave no ha sido ya destruida por
+     * otro anterior, y sólo aquí se restan naves, se suman puntos y se piden
+     * números aleatorios.
+     * </p>
+     * @param store El almacén que contiene las entidades a comprobar.
+     * @param parallel True para usar varios hilos.
+     */
+    public void checkCollisions(EntityStore store, boolean parallel) {
+        int size = store.size();
+        grid.clear(size);
+        for(int i = 0; i < size; i++) {
+            // Las naves dormidas no pueden chocar con nada (ver EntityStore.isDormant).
+            if(store.kind[i] == EntityStore.ENEMY && !store.isDormant(i))
+                grid.insert(i, roundX(store, i), roundY(store, i), store.width[i], store.height[i], ENEMY_MARGIN);
+        }
+
+        int chunks = ParallelSweep.chunks(size);
+        hits = ParallelSweep.IntList.forChunks(hits, chunks);
+        relocations = ParallelSweep.IntList.forChunks(relocations, chunks);
+        if(cursors.length < chunks) {
+            int old = cursors.length;
+            cursors = Arrays.copyOf(cursors, Math.max(chunks, old * 2));
+            for(int c = old; c < cursors.length; c++)
+                cursors[c] = new SpatialGrid.Cursor();
+        }
+        this.store = store;
+        this.now = clock.getTime();
+        try {
+            sweep.run(size, detection, parallel);
+        } finally {
+            this.store = null;
+        }
+
+        for(int c = 0; c < chunks; c++) {
+            ParallelSweep.IntList list = hits[c];
+            for(int h = 0; h < list.size(); h += 2)
+                applyHit(store, list.get(h), list.get(h + 1));
+        }
+        for(int c = 0; c < chunks; c++) {
+            ParallelSweep.IntList list = relocations[c];
+            for(int r = 0; r < list.size(); r++) {
+                int me = list.get(r);
+                store.setX(me, randGenerator.nextInt(1500 + Game.P_WIDTH) + Game.P_WIDTH + 80); // Colocar la nave entre WIDTH+80 y WIDTH+1500
+                store.setY(me, randGenerator.nextInt(Game.P_HEIGHT - 60) + 30); // Colocar la nave entre 30 y HEIGHT-30
             }
         }
-        entities.removeAll(shipsToRemove);
-        return entities;
     }
 
     /**
-     * Comprobar si la nave del jugador colisiona con alguna de las
-     * naves enemigas restantes.
-     * @param player La entidad que representa al jugador.
-     * @param entities Lista con las entidades sobre las que comprobar la colisión.
+     * Primera fase: busca las colisiones de las entidades de un tramo. Sólo
+     * modifica las filas del tramo; lo demás lo apunta.
+     * @param store El almacén de las entidades.
+     * @param from Primera fila del tramo.
+     * @param to Fila siguiente a la última del tramo.
+     * @param now La hora de la simulación.
+     * @param cursor Cursor de la rejilla para las consultas de este tramo.
+     * @param hits Donde apuntar los impactos del jugador y los misiles.
+     * @param relocations Donde apuntar las naves de tipo 0 que hay que recolocar.
      */
-    private void checkPlayerCollisions(EntityIF player, ArrayList<EntityIF> entities) {
-        for(EntityIF entity: entities) {
-            if(entity instanceof Enemy && player.collidesWith(entity)) {
-                player.setVisible(false);
-                shipsToRemove.add(player);
-                entity.setVisible(false);
-                shipsToRemove.add(player);
-                Game.TOTAL_ENEMIES--;
-                game.addExplosion(player.getX() + player.getWidth() / 2 - 50,
-                        player.getY() + player.getHeight() / 2 - 50, "/poo/rtype/explosionPlayer.png",
-                        100, 100, 9, 100);
+    private void detect(EntityStore store, int from, int to, long now, SpatialGrid.Cursor cursor,
+            ParallelSweep.IntList hits, ParallelSweep.IntList relocations) {
+        for(int i = from; i < to; i++) {
+            switch(store.kind[i]) {
+                case EntityStore.PLAYER:
+                    if(store.isVisible(i))
+                        findHits(store, i, cursor, hits, true);
+                    break;
+                case EntityStore.MISSILE:
+                    // Un misil que ya no es visible (ha salido de la pantalla) no puede impactar.
+                    if(store.isVisible(i))
+                        findHits(store, i, cursor, hits, false);
+                    break;
+                case EntityStore.ENEMY:
+                    if(!store.isDormant(i))
+                        checkEnemiesCollisions(store, i, now, cursor, relocations);
+                    break;
             }
         }
     }
 
     /**
-     * Comprobar si alguno de los misiles colisiona con alguna de las
-     * naves enemigas restantes.
-     * @param missiles Lista que contiene los misiles.
-     * @param entities Lista con las entidades sobre las que comprobar la colisión.
+     * Busca las naves enemigas cercanas que alcanza el jugador o un misil.
+     * @param store El almacén de las entidades.
+     * @param row La fila del jugador o el misil.
+     * @param cursor Cursor de la rejilla.
+     * @param hits Donde apuntar los impactos.
+     * @param all True para apuntar todas las naves alcanzadas (el jugador);
+     *            false para sólo la primera (cada misil sólo destruye una nave).
      */
-    private void checkMissilesCollisions(ArrayList<EntityIF> missiles, ArrayList<EntityIF> entities) {
-        for(EntityIF ms: missiles) {
-            // Comprobar primero si hay que eliminar alguno de los misiles que han salido de la pantalla.
-            // No es una colisión como tal pero es el mejor sitio donde hacerlo.
-            if(!ms.isVisible())
-                missilesToRemove.add(ms);
-            for(EntityIF entity: entities) {
-                if(entity instanceof Enemy && ms.collidesWith(entity)) {
-                    ms.setVisible(false);
-                    missilesToRemove.add(ms);
-                    entity.setVisible(false);
-                    shipsToRemove.add(entity);
-                    Game.TOTAL_ENEMIES--;
-                    if(((Enemy) entity).getEnemyType() == 1)
-                        game.partialScore += 1500;
-                    else
-                        game.partialScore += 1000;
-                    game.addExplosion(ms.getX() + ms.getWidth() - 16, ms.getY() + ms.getHeight() / 2 - 16, "/poo/rtype/explosion.png", 32, 32, 5, 100);
-                }
+    private void findHits(EntityStore store, int row, SpatialGrid.Cursor cursor, ParallelSweep.IntList hits,
+            boolean all) {
+        int candidates = grid.query(cursor, roundX(store, row), roundY(store, row),
+                store.width[row], store.height[row], 0);
+        for(int c = 0; c < candidates; c++) {
+            int enemy = cursor.get(c);
+            if(store.isVisible(enemy) && collide(store, row, enemy)) {
+                hits.add(row);
+                hits.add(enemy);
+                if(!all)
+                    return;
             }
         }
     }
 
     /**
-     * Comprobar colisiones entre dos naves enemigas diferentes.
-     * @param me Nave enemiga sobre la que se están comprobando colisiones.
-     * @param entities Lista con las entidades sobre las que comprobar la colisión.
+     * Segunda fase: aplica un impacto del jugador o de un misil, si la nave
+     * sigue en juego.
+     * @param store El almacén de las entidades.
+     * @param row La fila del jugador o el misil.
+     * @param enemy La fila de la nave alcanzada.
      */
-    private void checkEnemiesCollisions(EntityIF me, ArrayList<EntityIF> entities) {
-        for(EntityIF entity: entities) {
+    private void applyHit(EntityStore store, int row, int enemy) {
+        if(!store.isVisible(enemy))
+            return;
+        store.setVisible(row, false);
+        store.setVisible(enemy, false);
+        world.getState().enemyDestroyed();
+        if(store.kind[row] == EntityStore.PLAYER) {
+            world.addExplosion(roundX(store, row) + store.width[row] / 2 - 50,
+                    roundY(store, row) + store.height[row] / 2 - 50, "/poo/rtype/explosionPlayer.png",
+                    100, 100, 9, 100);
+        } else {
+            if(store.enemyType[enemy] == 1)
+                world.addScore(1500);
+            else
+                world.addScore(1000);
+            world.addExplosion(roundX(store, row) + store.width[row] - 16,
+                    roundY(store, row) + store.height[row] / 2 - 16, "/poo/rtype/explosion.png",
+                    32, 32, 5, 100);
+        }
+    }
+
+    /**
+     * Comprobar colisiones entre dos naves enemigas diferentes. Sus límites
+     * se amplían {@link #ENEMY_MARGIN} píxels por cada lado, así no se quedan
+     * bloqueadas en ciertos casos, que sucedería si no lo estuvieran.
+     * <p>
+     * Las naves de tipo 1 cambian de dirección y velocidad en el momento (sólo
+     * modifican su fila); las de tipo 0 que hay que recolocar se apuntan y se
+     * recolocan al terminar la primera fase. Otros hilos pueden estar leyendo
+     * a la vez la fila de la nave, pero sólo su posición, su tamaño y la marca
+     * de visibilidad, que no cambian en esta fase.
+     * </p>
+     * @param store El almacén de las entidades.
+     * @param me Fila de la nave enemiga sobre la que se están comprobando colisiones.
+     * @param now La hora de la simulación.
+     * @param cursor Cursor de la rejilla.
+     * @param relocations Donde apuntar la nave si hay que recolocarla.
+     */
+    private void checkEnemiesCollisions(EntityStore store, int me, long now, SpatialGrid.Cursor cursor,
+            ParallelSweep.IntList relocations) {
+        int candidates = grid.query(cursor, roundX(store, me), roundY(store, me), store.width[me], store.height[me],
+                ENEMY_MARGIN);
+        for(int c = 0; c < candidates; c++) {
+            int other = cursor.get(c);
+            if(other == me || !overlap(store, me, other, ENEMY_MARGIN))
+                continue;
             // Cambio de la velocidad vertical de las naves de tipo 1 si colisionan con cualquier otra nave.
-            if(((Enemy) me).getEnemyType() == 1 && entity instanceof Enemy && !me.equals(entity) && me.collidesWith(entity)) {
-                ((Enemy) me).changeDirection();
+            if(store.enemyType[me] == 1) {
+                store.changeDirection(me);
                 // También aceleramos o frenamos su velocidad horizontal para que 'escapen'.
-                if(me.getX() < entity.getX())
-                    ((Enemy) me).boost();
+                if(roundX(store, me) < roundX(store, other))
+                    store.boost(me, now);
                 else
-                    ((Enemy) me).brake();
+                    store.brake(me, now);
             }
             // Al reaparecer por la derecha de la pantalla, las naves de tipo 0 pueden superponerse unas con otras,
             // así que si detectamos una colisión en éste momento, las recolocamos aleatoriamente.
-            if(((Enemy) me).getEnemyType() == 0 && me.getX() >= Game.P_WIDTH && entity instanceof Enemy && !me.equals(entity) && me.collidesWith(entity)) {
-                me.setX(randGenerator.nextInt(1500 + Game.P_WIDTH) + Game.P_WIDTH + 80); // Colocar la nave entre WIDTH+80 y WIDTH+1500
-                me.setY(randGenerator.nextInt(Game.P_HEIGHT - 60) + 30); // Colocar la nave entre 30 y HEIGHT-30
+            else if(roundX(store, me) >= Game.P_WIDTH) {
+                relocations.add(me);
+                return;
             }
         }
     }
+
+    /**
+     * Comprobar de forma precisa si dos entidades colisionan: primero sus
+     * límites y, si se cortan, los píxels de sus máscaras (pueden existir
+     * píxels trasparentes y queda "feo" decir que dos entidades colisionan
+     * cuando visualmente no es así).
+     * @param store El almacén de las entidades.
+     * @param a Fila de la primera entidad.
+     * @param b Fila de la segunda entidad.
+     * @return True si se produce una colisión entre las entidades.
+     */
+    private static boolean collide(EntityStore store, int a, int b) {
+        if(!overlap(store, a, b, 0))
+            return false;
+        // Posición de la entidad b respecto a la a; la máscara se encarga de
+        // desplazar sus filas para que coincidan las columnas de ambas.
+        return store.handle[a].getMask().intersects(store.handle[b].getMask(),
+                roundX(store, b) - roundX(store, a), roundY(store, b) - roundY(store, a));
+    }
+
+    /**
+     * Comprobar si se cortan los límites de dos entidades, ampliados en
+     * 'margin' píxels por cada lado. Las posiciones se redondean igual que
+     * para comparar las máscaras, para que ambas pruebas coincidan.
+     * @param store El almacén de las entidades.
+     * @param a Fila de la primera entidad.
+     * @param b Fila de la segunda entidad.
+     * @param margin Píxels extra alrededor de los límites de cada entidad.
+     * @return True si se cortan.
+     */
+    private static boolean overlap(EntityStore store, int a, int b, int margin) {
+        int ax = roundX(store, a) - margin, ay = roundY(store, a) - margin;
+        int bx = roundX(store, b) - margin, by = roundY(store, b) - margin;
+        int m2 = margin * 2;
+        return ax < bx + store.width[b] + m2 && bx < ax + store.width[a] + m2
+                && ay < by + store.height[b] + m2 && by < ay + store.height[a] + m2;
+    }
+
+    /**
+     * @return La posición horizontal de una fila redondeada al píxel, como la de {@link poo.rtype.modelo.Entity#getX()}.
+     */
+    private static int roundX(EntityStore store, int row) {
+        return (int)Math.round(store.x[row]);
+    }
+
+    /**
+     * @return La posición vertical de una fila redondeada al píxel.
+     */
+    private static int roundY(EntityStore store, int row) {
+        return (int)Math.round(store.y[row]);
+    }
 }
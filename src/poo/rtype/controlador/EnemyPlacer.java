@@ -0,0 +1,199 @@
+package poo.rtype.controlador;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Coloca las naves enemigas en una zona rectangular sin que se superpongan
+ * sus 'zonas de seguridad', con un coste acotado y sin reintentos.
+ * <p>
+ * Como antes, cada nave va a una posición al azar de toda la zona y se
+ * descarta si queda a menos de {@code spacing} píxels (a la vez en
+ * horizontal y en vertical) de una ya colocada. Para no comparar con todas
+ * las anteriores ni repetir indefinidamente, la zona se divide en una
+ * rejilla fina de celdas de {@code spacing}/4 píxels de lado: las celdas se
+ * prueban en orden aleatorio (barajándolas), una sola vez cada una y con
+ * una posición al azar dentro de ella, y sólo se compara con las naves de
+ * las celdas vecinas. El coste es lineal en el número de celdas y termina
+ * siempre.
+ * </p>
+ * <p>
+ * Si la zona está tan llena que se agotan las celdas sin colocar todas las
+ * naves, se recurre a una rejilla de huecos de {@code spacing} píxels de
+ * lado, una nave por hueco, en la que caben siempre que la zona tenga el
+ * ancho de {@link #minWidth(int, int, int)}. Si ni así caben se lanza una
+ * IllegalArgumentException, en lugar de buscar indefinidamente una posición
+ * libre; quien llama puede alargar antes la zona lo necesario.
+ * </p>
+ * @author José Luis Pérez González
+ */
+public final class EnemyPlacer {
+
+    /** Celdas de la rejilla fina por cada 'spacing' píxels */
+    private static final int CELLS_PER_SPACING = 4;
+
+    /**
+     * No se instancia, todos los métodos son estáticos.
+     */
+    private EnemyPlacer() {}
+
+    /**
+     * Ancho mínimo de una zona para que quepan las naves indicadas.
+     * @param count Número de naves a colocar.
+     * @param height Alto de la zona.
+     * @param spacing Lado de la zona de seguridad de cada nave.
+     * @return El ancho mínimo en píxels.
+     */
+    public static int minWidth(int count, int height, int spacing) {
+        int rows = Math.max(1, (height + spacing - 1) / spacing);
+        int needed = Math.max(1, (count + rows - 1) / rows);
+        return needed * spacing - spacing + 1;
+    }
+
+    /**
+     * Calcula las posiciones de las naves.
+     * @param count Número de naves a colocar.
+     * @param left Posición horizontal mínima.
+     * @param top Posición vertical mínima.
+     * @param width Ancho de la zona: las posiciones horizontales van de left a left + width - 1.
+     * @param height Alto de la zona: las posiciones verticales van de top a top + height - 1.
+     * @param spacing Lado de la zona de seguridad de cada nave; dos naves nunca están a menos
+     *                de esta distancia a la vez en horizontal y en vertical.
+     * @param random Generador de números aleatorios.
+     * @return La matriz con las coordenadas (x, y) de cada nave.
+     * @throws IllegalArgumentException Si no caben todas las naves en la zona
+     *         (ver {@link #minWidth(int, int, int)}).
+     */
+    public static int[][] place(int count, int left, int top, int width, int height, int spacing, Random random) {
+        // Una posición más cada 'spacing' píxels: con n huecos, la última nave puede quedar en (n-1)*spacing.
+        int rows = Math.max(1, (height + spacing - 1) / spacing);
+        int columns = Math.max(1, (width + spacing - 1) / spacing);
+        if(count > rows * columns)
+            throw new IllegalArgumentException("No caben " + count + " naves en " + width + "x" + height
+                    + " píxels (hacen falta " + minWidth(count, height, spacing) + " de ancho)");
+        int[][] pos = scatter(count, width, height, spacing, random);
+        if(pos == null)
+            pos = slots(count, rows, columns, width, height, spacing, random);
+        for(int[] p : pos) {
+            p[0] += left;
+            p[1] += top;
+        }
+        return pos;
+    }
+
+    /**
+     * Coloca las naves en posiciones al azar de toda la zona, probando cada
+     * celda de la rejilla fina una vez.
+     * @param count Número de naves a colocar.
+     * @param width Ancho de la zona.
+     * @param height Alto de la zona.
+     * @param spacing Lado de la zona de seguridad de cada nave.
+     * @param random Generador de números aleatorios.
+     * @return Las coordenadas de cada nave relativas a la zona, o null si no han cabido todas.
+     */
+    private static int[][] scatter(int count, int width, int height, int spacing, Random random) {
+        int cell = Math.max(1, spacing / CELLS_PER_SPACING);
+        // Dos naves a menos de 'spacing' píxels están como mucho a 'reach' celdas de distancia.
+        int reach = (spacing + cell - 1) / cell;
+        int rows = (height + cell - 1) / cell;
+        int columns = (width + cell - 1) / cell;
+        int cells = rows * columns;
+        int[] order = new int[cells];
+        for(int i = 0; i < cells; i++)
+            order[i] = i;
+        // Nave colocada en cada celda, o -1; una celda es menor que 'spacing', así que no caben dos.
+        int[] owner = new int[cells];
+        Arrays.fill(owner, -1);
+
+        int[][] pos = new int[count][2];
+        int placed = 0;
+        for(int i = 0; i < cells && placed < count; i++) {
+            // Fisher-Yates parcial: sólo se barajan las celdas que se llegan a probar.
+            int j = i + random.nextInt(cells - i);
+            int chosen = order[j];
+            order[j] = order[i];
+            order[i] = chosen;
+
+            int column = chosen / rows;
+            int row = chosen % rows;
+            int x = column * cell + random.nextInt(Math.min(cell, width - column * cell));
+            int y = row * cell + random.nextInt(Math.min(cell, height - row * cell));
+            if(isFree(x, y, column, row, columns, rows, reach, spacing, owner, pos)) {
+                owner[chosen] = placed;
+                pos[placed][0] = x;
+                pos[placed][1] = y;
+                placed++;
+            }
+        }
+        return placed == count ? pos : null;
+    }
+
+    /**
+     * Comprueba si una posición está libre, comparándola con las naves de las celdas vecinas.
+     * @param x Posición horizontal relativa a la zona.
+     * @param y Posición vertical relativa a la zona.
+     * @param column Columna de su celda.
+     * @param row Fila de su celda.
+     * @param columns Columnas de la rejilla.
+     * @param rows Filas de la rejilla.
+     * @param reach Celdas que hay que mirar a cada lado.
+     * @param spacing Lado de la zona de seguridad de cada nave.
+     * @param owner Nave colocada en cada celda, o -1.
+     * @param pos Posiciones de las naves colocadas.
+     * @return True si no hay ninguna nave a menos de 'spacing' píxels a la vez en horizontal y en vertical.
+     */
+    private static boolean isFree(int x, int y, int column, int row, int columns, int rows, int reach,
+            int spacing, int[] owner, int[][] pos) {
+        int lastColumn = Math.min(columns - 1, column + reach);
+        int lastRow = Math.min(rows - 1, row + reach);
+        for(int c = Math.max(0, column - reach); c <= lastColumn; c++) {
+            for(int r = Math.max(0, row - reach); r <= lastRow; r++) {
+                int other = owner[c * rows + r];
+                if(other >= 0 && Math.abs(pos[other][0] - x) < spacing && Math.abs(pos[other][1] - y) < spacing)
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Coloca cada nave en un hueco distinto de 'spacing' píxels de lado,
+     * con un pequeño desplazamiento que nunca la acerca a menos de
+     * 'spacing' píxels de sus vecinas. Caben tantas naves como huecos.
+     * @param count Número de naves a colocar.
+     * @param rows Filas de huecos.
+     * @param columns Columnas de huecos.
+     * @param width Ancho de la zona.
+     * @param height Alto de la zona.
+     * @param spacing Lado de la zona de seguridad de cada nave.
+     * @param random Generador de números aleatorios.
+     * @return Las coordenadas de cada nave relativas a la zona.
+     */
+    private static int[][] slots(int count, int rows, int columns, int width, int height, int spacing,
+            Random random) {
+        // Tamaño de cada hueco; lo que sobra de 'spacing' es el margen para desplazar la nave dentro de él.
+        int cellWidth = (width + spacing - 1) / columns;
+        int cellHeight = (height + spacing - 1) / rows;
+        int jitterX = cellWidth - spacing + 1;
+        int jitterY = cellHeight - spacing + 1;
+
+        // Barajar sólo los primeros 'count' huecos (Fisher-Yates parcial).
+        int slots = rows * columns;
+        int[] slot = new int[slots];
+        for(int i = 0; i < slots; i++)
+            slot[i] = i;
+        int[][] pos = new int[count][2];
+        for(int i = 0; i < count; i++) {
+            int j = i + random.nextInt(slots - i);
+            int chosen = slot[j];
+            slot[j] = slot[i];
+            slot[i] = chosen;
+
+            int column = chosen / rows;
+            int row = chosen % rows;
+            pos[i][0] = column * cellWidth + random.nextInt(jitterX);
+            pos[i][1] = row * cellHeight + random.nextInt(jitterY);
+        }
+        return pos;
+    }
+}
@@ -0,0 +1,467 @@
+package poo.rtype.controlador;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import poo.rtype.modelo.Entity;
+
+/**
+ * Almacén de las entidades de una partida (jugador, naves enemigas y
+ * misiles) organizado por columnas (structure of arrays): cada dato de las
+ * entidades es un array de primitivos y cada entidad una fila, el mismo
+ * índice en todos ellos.
+ * <p>
+ * Así los controladores recorren las entidades en bucles sobre arrays
+ * contiguos ({@link MovementController}, {@link CollisionsController}), sin
+ * saltar de objeto en objeto ni preguntar a cada uno de qué clase es: el
+ * tipo de entidad es una columna más. El bucle que integra las posiciones no
+ * tiene ramas y el compilador JIT puede vectorizarlo.
+ * </p>
+ * <p>
+ * Cada fila tiene además su objeto {@link Entity}, que sigue siendo lo que se
+ * dibuja y lo que tiene la imagen y la máscara de colisión, pero no guarda su
+ * posición ni su estado: mientras está en el almacén los lee y escribe en su
+ * fila. Fuera de él (al crearlo, o un misil en su {@link ObjectPool}) los
+ * guarda en un almacén propio de una sola fila.
+ * </p>
+ * <p>
+ * Retirar una fila la sustituye por la última, así que el orden de las filas
+ * cambia, pero siempre de la misma forma: la simulación sigue siendo
+ * determinista.
+ * </p>
+ * @author José Luis Pérez González
+ */
+public class EntityStore {
+
+    /** Tipo de entidad: la nave del jugador */
+    public static final byte PLAYER = 0;
+    /** Tipo de entidad: una nave enemiga */
+    public static final byte ENEMY = 1;
+    /** Tipo de entidad: un misil del jugador */
+    public static final byte MISSILE = 2;
+
+    /**
+     * Píxels a la derecha de la pantalla a partir de los cuales una nave
+     * enemiga está 'dormida' (ver {@link #isDormant(int)}). Mayor que la
+     * distancia a la que aparecen las naves nuevas, para que éstas empiecen despiertas.
+     */
+    public static final int DORMANT_MARGIN = 128;
+
+    /** Marca: la entidad es visible (no ha sido destruida ni ha salido de la pantalla) */
+    static final int VISIBLE = 1;
+    /** Marca: la nave enemiga está acelerando */
+    static final int BOOSTING = 2;
+    /** Marca: la nave enemiga está frenando */
+    static final int BRAKING = 4;
+
+    /** Posición horizontal */
+    double[] x;
+    /** Posición vertical */
+    double[] y;
+    /** Posición horizontal antes del último paso, para interpolar al dibujar */
+    double[] prevX;
+    /** Posición vertical antes del último paso */
+    double[] prevY;
+    /** Velocidad horizontal en píxels/s */
+    double[] dx;
+    /** Velocidad vertical en píxels/s */
+    double[] dy;
+    /** Ms que debe avanzar cada entidad en el paso actual (0 si no se mueve en él) */
+    double[] step;
+    /** Distancia vertical recorrida por la nave enemiga desde su último cambio de dirección */
+    double[] verticalDistance;
+    /** Ancho en píxels */
+    int[] width;
+    /** Alto en píxels */
+    int[] height;
+    /** Marcas ({@link #VISIBLE}, {@link #BOOSTING}, {@link #BRAKING}) */
+    int[] flags;
+    /** Tipo de entidad ({@link #PLAYER}, {@link #ENEMY} o {@link #MISSILE}) */
+    byte[] kind;
+    /** Tipo de nave enemiga: 1 (se mueve verticalmente) ó 0 */
+    byte[] enemyType;
+    /** Momento en que la nave enemiga empezó a acelerar */
+    long[] boostTime;
+    /** Momento en que la nave enemiga empezó a frenar */
+    long[] brakeTime;
+    /** El objeto de cada fila */
+    Entity[] handle;
+    /** Número de filas ocupadas */
+    int size;
+
+    /**
+     * Constructor de la clase.
+     * @param capacity Filas para las que se reserva sitio; luego se duplica cuando hace falta.
+     */
+    public EntityStore(int capacity) {
+        capacity = Math.max(capacity, 1);
+        x = new double[capacity];
+        y = new double[capacity];
+        prevX = new double[capacity];
+        prevY = new double[capacity];
+        dx = new double[capacity];
+        dy = new double[capacity];
+        step = new double[capacity];
+        verticalDistance = new double[capacity];
+        width = new int[capacity];
+        height = new int[capacity];
+        flags = new int[capacity];
+        kind = new byte[capacity];
+        enemyType = new byte[capacity];
+        boostTime = new long[capacity];
+        brakeTime = new long[capacity];
+        handle = new Entity[capacity];
+    }
+
+    /**
+     * Crea una fila nueva, visible y sin velocidad. Lo usa {@link Entity}
+     * para crear la fila de su almacén propio.
+     * @param entity El objeto de la fila.
+     * @param type Tipo de entidad.
+     * @param x Posición horizontal.
+     * @param y Posición vertical.
+     * @param width Ancho en píxels.
+     * @param height Alto en píxels.
+     * @return La fila.
+     */
+    public int create(Entity entity, byte type, double x, double y, int width, int height) {
+        int row = grow();
+        this.x[row] = x;
+        this.y[row] = y;
+        this.prevX[row] = x;
+        this.prevY[row] = y;
+        this.dx[row] = 0;
+        this.dy[row] = 0;
+        this.step[row] = 0;
+        this.verticalDistance[row] = 0;
+        this.width[row] = width;
+        this.height[row] = height;
+        this.flags[row] = VISIBLE;
+        this.kind[row] = type;
+        this.enemyType[row] = 0;
+        this.boostTime[row] = 0;
+        this.brakeTime[row] = 0;
+        this.handle[row] = entity;
+        return row;
+    }
+
+    /**
+     * Añade una entidad al almacén, con su estado actual. A partir de ahora
+     * la entidad lee y escribe su estado en la nueva fila.
+     * @param entity La entidad; no debe estar ya en este almacén.
+     * @return La fila.
+     */
+    public int add(Entity entity) {
+        int row = grow();
+        copy(entity.getStore(), entity.getRow(), this, row);
+        handle[row] = entity;
+        entity.bind(this, row);
+        return row;
+    }
+
+    /**
+     * Retira una fila: su entidad vuelve a guardar el estado en su almacén
+     * propio, y la última fila pasa a ocupar su lugar.
+     * @param row La fila.
+     * @return La entidad retirada.
+     */
+    public Entity remove(int row) {
+        Entity entity = handle[row];
+        EntityStore home = entity.getHome();
+        copy(this, row, home, 0);
+        entity.bind(home, 0);
+
+        int last = --size;
+        if(row != last) {
+            copy(this, last, this, row);
+            handle[row] = handle[last];
+            handle[row].bind(this, row);
+        }
+        handle[last] = null;
+        return entity;
+    }
+
+    /**
+     * Retira todas las filas (ver {@link #remove(int)}).
+     */
+    public void clear() {
+        while(size > 0)
+            remove(size - 1);
+    }
+
+    /**
+     * @return El número de filas.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Copia todas las columnas de una fila a otra, de este almacén o de otro.
+     */
+    private static void copy(EntityStore from, int i, EntityStore to, int j) {
+        to.x[j] = from.x[i];
+        to.y[j] = from.y[i];
+        to.prevX[j] = from.prevX[i];
+        to.prevY[j] = from.prevY[i];
+        to.dx[j] = from.dx[i];
+        to.dy[j] = from.dy[i];
+        to.step[j] = from.step[i];
+        to.verticalDistance[j] = from.verticalDistance[i];
+        to.width[j] = from.width[i];
+        to.height[j] = from.height[i];
+        to.flags[j] = from.flags[i];
+        to.kind[j] = from.kind[i];
+        to.enemyType[j] = from.enemyType[i];
+        to.boostTime[j] = from.boostTime[i];
+        to.brakeTime[j] = from.brakeTime[i];
+    }
+
+    /**
+     * Reserva una fila más al final, ampliando las columnas si hace falta.
+     * @return La fila reservada.
+     */
+    private int grow() {
+        if(size == x.length) {
+            int capacity = x.length * 2;
+            x = Arrays.copyOf(x, capacity);
+            y = Arrays.copyOf(y, capacity);
+            prevX = Arrays.copyOf(prevX, capacity);
+            prevY = Arrays.copyOf(prevY, capacity);
+            dx = Arrays.copyOf(dx, capacity);
+            dy = Arrays.copyOf(dy, capacity);
+            step = Arrays.copyOf(step, capacity);
+            verticalDistance = Arrays.copyOf(verticalDistance, capacity);
+            width = Arrays.copyOf(width, capacity);
+            height = Arrays.copyOf(height, capacity);
+            flags = Arrays.copyOf(flags, capacity);
+            kind = Arrays.copyOf(kind, capacity);
+            enemyType = Arrays.copyOf(enemyType, capacity);
+            boostTime = Arrays.copyOf(boostTime, capacity);
+            brakeTime = Arrays.copyOf(brakeTime, capacity);
+            handle = Arrays.copyOf(handle, capacity);
+        }
+        return size++;
+    }
+
+    // Acceso a una fila, para los objetos Entity y los controladores de otros paquetes.
+
+    /**
+     * @param row La fila.
+     * @return El objeto de la fila.
+     */
+    public Entity getHandle(int row) {
+        return handle[row];
+    }
+
+    /**
+     * @param row La fila.
+     * @return El tipo de entidad ({@link #PLAYER}, {@link #ENEMY} o {@link #MISSILE}).
+     */
+    public byte getKind(int row) {
+        return kind[row];
+    }
+
+    /**
+     * @param row La fila.
+     * @return La posición horizontal.
+     */
+    public double getX(int row) {
+        return x[row];
+    }
+
+    /**
+     * @param row La fila.
+     * @return La posición vertical.
+     */
+    public double getY(int row) {
+        return y[row];
+    }
+
+    /**
+     * @param row La fila.
+     * @return La posición horizontal antes del último paso.
+     */
+    public double getPrevX(int row) {
+        return prevX[row];
+    }
+
+    /**
+     * @param row La fila.
+     * @return La posición vertical antes del último paso.
+     */
+    public double getPrevY(int row) {
+        return prevY[row];
+    }
+
+    /**
+     * Recoloca la entidad en horizontal. Una recolocación no se interpola al dibujar.
+     * @param row La fila.
+     * @param x La nueva posición horizontal.
+     */
+    public void setX(int row, double x) {
+        this.x[row] = x;
+        prevX[row] = x;
+        prevY[row] = y[row];
+    }
+
+    /**
+     * Recoloca la entidad en vertical. Una recolocación no se interpola al dibujar.
+     * @param row La fila.
+     * @param y La nueva posición vertical.
+     */
+    public void setY(int row, double y) {
+        this.y[row] = y;
+        prevX[row] = x[row];
+        prevY[row] = y;
+    }
+
+    /**
+     * @param row La fila.
+     * @return La velocidad horizontal en píxels/s.
+     */
+    public double getDx(int row) {
+        return dx[row];
+    }
+
+    /**
+     * @param row La fila.
+     * @param dx La nueva velocidad horizontal en píxels/s.
+     */
+    public void setDx(int row, double dx) {
+        this.dx[row] = dx;
+    }
+
+    /**
+     * @param row La fila.
+     * @return La velocidad vertical en píxels/s.
+     */
+    public double getDy(int row) {
+        return dy[row];
+    }
+
+    /**
+     * @param row La fila.
+     * @param dy La nueva velocidad vertical en píxels/s.
+     */
+    public void setDy(int row, double dy) {
+        this.dy[row] = dy;
+    }
+
+    /**
+     * @param row La fila.
+     * @return True si la entidad es visible (no ha sido destruida ni ha salido de la pantalla).
+     */
+    public boolean isVisible(int row) {
+        return (flags[row] & VISIBLE) != 0;
+    }
+
+    /**
+     * @param row La fila.
+     * @param visible True si la entidad es visible.
+     */
+    public void setVisible(int row, boolean visible) {
+        if(visible)
+            flags[row] |= VISIBLE;
+        else
+            flags[row] &= ~VISIBLE;
+    }
+
+    /**
+     * Una nave enemiga muy a la derecha de la pantalla, esperando a entrar,
+     * está dormida: sólo avanza en horizontal, sin reglas de movimiento ni
+     * colisiones (ver {@link MovementController} y {@link CollisionsController}).
+     * Ni el jugador ni sus misiles pueden llegar hasta ella, y despierta antes
+     * de entrar en la pantalla.
+     * @param row La fila.
+     * @return True si la fila es una nave enemiga dormida.
+     */
+    public boolean isDormant(int row) {
+        return kind[row] == ENEMY && x[row] > Game.P_WIDTH + DORMANT_MARGIN;
+    }
+
+    /**
+     * @param row La fila.
+     * @return El tipo de nave enemiga: 1 (se mueve verticalmente) ó 0.
+     */
+    public byte getEnemyType(int row) {
+        return enemyType[row];
+    }
+
+    /**
+     * @param row La fila.
+     * @param type El tipo de nave enemiga: 1 (se mueve verticalmente) ó 0.
+     */
+    public void setEnemyType(int row, byte type) {
+        enemyType[row] = type;
+    }
+
+    /**
+     * Avanza la posición de una sola fila. Los controladores avanzan todas a
+     * la vez (ver {@link MovementController}).
+     * @param row La fila.
+     * @param delta Los ms que debe avanzar.
+     */
+    public void integrate(int row, long delta) {
+        prevX[row] = x[row];
+        prevY[row] = y[row];
+        x[row] += (delta * dx[row]) / 1000;
+        y[row] += (delta * dy[row]) / 1000;
+    }
+
+    /**
+     * Cambia aleatoriamente la dirección vertical de una nave enemiga.
+     * @param row La fila.
+     * @param random Generador de números aleatorios de la partida.
+     */
+    public void setRandomDirection(int row, Random random) {
+        verticalDistance[row] = 0;
+        if(random.nextInt(2) == 0)
+            dy[row] = -dy[row];
+    }
+
+    /**
+     * Invierte la dirección vertical de una nave enemiga.
+     * @param row La fila.
+     */
+    public void changeDirection(int row) {
+        verticalDistance[row] = 0;
+        dy[row] = -dy[row];
+    }
+
+    /**
+     * Acelera una nave enemiga durante un tiempo; si ya estaba acelerando,
+     * vuelve a empezar a contar.
+     * @param row La fila.
+     * @param now La hora de la simulación.
+     */
+    public void boost(int row, long now) {
+        if((flags[row] & BOOSTING) == 0) {
+            flags[row] |= BOOSTING;
+            boostTime[row] = now;
+            dx[row] = dx[row] / 0.8;
+        } else {
+            boostTime[row] = now;
+        }
+    }
+
+    /**
+     * Frena una nave enemiga durante un tiempo. Si estaba acelerando, primero
+     * recupera su velocidad normal; si ya estaba frenando, vuelve a empezar a contar.
+     * @param row La fila.
+     * @param now La hora de la simulación.
+     */
+    public void brake(int row, long now) {
+        if((flags[row] & BOOSTING) != 0) {
+            flags[row] &= ~BOOSTING;
+            dx[row] = dx[row] * 0.8;
+        }
+        if((flags[row] & BRAKING) == 0) {
+            flags[row] |= BRAKING;
+            brakeTime[row] = now;
+            dx[row] = dx[row] * 0.7;
+        } else {
+            brakeTime[row] = now;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package poo.rtype.controlador;
+
+/**
+ * Reloj de la simulación: la hora (en ms) y el tiempo simulado en el paso
+ * actual, que se fijan una sola vez al empezar cada paso y se pasan a todo
+ * lo que depende del tiempo (el movimiento, la cadencia de disparo del
+ * jugador, la aceleración y el frenado de las naves enemigas y las
+ * animaciones). Nadie más consulta el reloj del sistema durante el paso.
+ * <p>
+ * Cuánto avanza en cada paso lo decide su fuente ({@link Source}), que se
+ * puede cambiar en cualquier momento:
+ * </p>
+ * <ul>
+ * <li>{@link #real()}: el tiempo real transcurrido desde el paso anterior.</li>
+ * <li>{@link #fixed(long)}: siempre lo mismo, sea cual sea el tiempo real (el
+ * bucle de paso fijo y el modo sin pantalla).</li>
+ * <li>{@link #scaled(Source, double)}: otra fuente multiplicada por un factor
+ * (cámara lenta o rápida).</li>
+ * <li>{@link #paused()}: nada, la partida queda en pausa.</li>
+ * </ul>
+ * @author José Luis Pérez González
+ */
+public class FrameClock {
+
+    /**
+     * Fuente de la que el reloj obtiene los ms a avanzar en cada paso.
+     * @author José Luis Pérez González
+     */
+    public interface Source {
+        /**
+         * @return Los ms que debe avanzar el reloj en este paso.
+         */
+        long nextDelta();
+
+        /**
+         * Vuelve a empezar a medir, olvidando el tiempo transcurrido hasta ahora.
+         */
+        void reset();
+    }
+
+    /** La fuente actual */
+    private volatile Source source;
+    /** Hora actual de la simulación en ms */
+    private long time;
+    /** Ms simulados en el paso actual */
+    private long delta;
+
+    /**
+     * Constructor de la clase. El reloj empieza en 0.
+     * @param source La fuente inicial.
+     */
+    public FrameClock(Source source) {
+        this.source = source;
+    }
+
+    /**
+     * Pregunta a la fuente cuánto debe avanzar el reloj en el siguiente paso,
+     * sin avanzarlo todavía. Debe llamarse una sola vez por paso.
+     * @return Los ms a simular.
+     */
+    public long sample() {
+        return source.nextDelta();
+    }
+
+    /**
+     * Empieza un paso: avanza la hora y fija el tiempo simulado en él.
+     * Sólo debe llamarlo el hilo de la simulación.
+     * @param delta Los ms que se simulan en el paso.
+     */
+    public void advance(long delta) {
+        this.delta = delta;
+        time += delta;
+    }
+
+    /**
+     * Vuelve a poner el reloj en 0 y la fuente a medir desde ahora.
+     */
+    public void reset() {
+        time = 0;
+        delta = 0;
+        source.reset();
+    }
+
+    /**
+     * @return La hora de la simulación en ms, la misma durante todo el paso.
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * @return Los ms simulados en el paso actual.
+     */
+    public long getDelta() {
+        return delta;
+    }
+
+    /**
+     * @return La fuente actual.
+     */
+    public Source getSource() {
+        return source;
+    }
+
+    /**
+     * Cambia la fuente a partir del siguiente paso.
+     * @param source La nueva fuente.
+     */
+    public void setSource(Source source) {
+        source.reset();
+        this.source = source;
+    }
+
+    /**
+     * @return Una fuente que avanza el tiempo real transcurrido desde el paso anterior.
+     */
+    public static Source real() {
+        return new Source() {
+            /** Instante (System.nanoTime) hasta el que ya se ha avanzado, o -1 */
+            private long last = -1;
+
+            @Override
+            public long nextDelta() {
+                long now = System.nanoTime();
+                if(last < 0) {
+                    last = now;
+                    return 0;
+                }
+                // Sólo ms enteros; lo que sobra se queda para el paso siguiente.
+                long millis = (now - last) / 1000000;
+                last += millis * 1000000;
+                return millis;
+            }
+
+            @Override
+            public void reset() {
+                last = -1;
+            }
+        };
+    }
+
+    /**
+     * @param step Los ms que avanza cada paso.
+     * @return Una fuente que avanza siempre lo mismo.
+     */
+    public static Source fixed(final long step) {
+        return new Source() {
+            @Override
+            public long nextDelta() {
+                return step;
+            }
+
+            @Override
+            public void reset() {
+            }
+        };
+    }
+
+    /**
+     * @param source La fuente original.
+     * @param scale El factor (menor que 1 para cámara lenta).
+     * @return Una fuente que avanza lo que la original multiplicado por el factor.
+     */
+    public static Source scaled(final Source source, final double scale) {
+        return new Source() {
+            /** Fracción de ms acumulada que aún no se ha avanzado */
+            private double remainder;
+
+            @Override
+            public long nextDelta() {
+                remainder += source.nextDelta() * scale;
+                long millis = (long) remainder;
+                remainder -= millis;
+                return millis;
+            }
+
+            @Override
+            public void reset() {
+                remainder = 0;
+                source.reset();
+            }
+        };
+    }
+
+    /**
+     * @return Una fuente que no avanza nunca.
+     */
+    public static Source paused() {
+        return fixed(0);
+    }
+}
@@ -0,0 +1,116 @@
+package poo.rtype.controlador;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histograma de duraciones (en ns) sin bloqueos ni asignación de memoria.
+ * <p>
+ * Los valores se agrupan en intervalos log-lineales: cada potencia de dos se
+ * divide en 16 intervalos iguales, así que el error al leer un percentil es
+ * como mucho de un 6% del valor, desde 1 ns hasta varios segundos, con un
+ * array de tamaño fijo. Registrar un valor es un incremento atómico, de modo
+ * que pueden hacerlo varios hilos a la vez (la simulación y el pintado) sin
+ * esperar a nadie.
+ * </p>
+ * <p>
+ * Quien publica los resultados vacía periódicamente el histograma con
+ * {@link #drainTo(long[])} y {@link #drainMax()}; lo que se registre mientras
+ * tanto cuenta para el intervalo siguiente, no se pierde.
+ * </p>
+ * @author José Luis Pérez González
+ */
+public final class FrameHistogram {
+
+    /** Bits de cada potencia de dos que se usan para subdividirla */
+    private static final int SUB_BITS = 4;
+    /** Intervalos en que se divide cada potencia de dos */
+    private static final int SUB = 1 << SUB_BITS;
+    /** Número total de intervalos, suficiente para cualquier long positivo */
+    public static final int BUCKETS = (64 - SUB_BITS) * SUB;
+
+    /** Número de valores registrados en cada intervalo */
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    /** Valor máximo registrado */
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Registra una duración.
+     * @param nanos La duración en ns.
+     */
+    public void record(long nanos) {
+        if(nanos < 0)
+            nanos = 0;
+        counts.incrementAndGet(bucket(nanos));
+        long current = max.get();
+        while(nanos > current && !max.compareAndSet(current, nanos))
+            current = max.get();
+    }
+
+    /**
+     * Copia los contadores de cada intervalo en un array y los pone a cero.
+     * @param into Array de al menos {@link #BUCKETS} posiciones.
+     * @return El número total de valores copiados.
+     */
+    public long drainTo(long[] into) {
+        long total = 0;
+        for(int i = 0; i < BUCKETS; i++) {
+            into[i] = counts.getAndSet(i, 0);
+            total += into[i];
+        }
+        return total;
+    }
+
+    /**
+     * Devuelve el valor máximo registrado y lo pone a cero.
+     * @return El máximo en ns.
+     */
+    public long drainMax() {
+        return max.getAndSet(0);
+    }
+
+    /**
+     * Calcula un percentil a partir de los contadores vaciados con drainTo().
+     * @param counts Los contadores de cada intervalo.
+     * @param total La suma de todos los contadores.
+     * @param percentile El percentil, entre 0 y 100.
+     * @return El límite superior del intervalo en el que cae el percentil (en ns), o 0 si no hay valores.
+     */
+    public static long percentile(long[] counts, long total, double percentile) {
+        if(total == 0)
+            return 0;
+        long rank = (long)Math.ceil(total * percentile / 100);
+        if(rank < 1)
+            rank = 1;
+        long seen = 0;
+        for(int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if(seen >= rank)
+                return highestValue(i);
+        }
+        return highestValue(BUCKETS - 1);
+    }
+
+    /**
+     * @param value Un valor no negativo.
+     * @return El intervalo en el que cae.
+     */
+    private static int bucket(long value) {
+        if(value < SUB)
+            return (int)value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return (shift + 1) * SUB + (int)((value >>> shift) & (SUB - 1));
+    }
+
+    /**
+     * @param bucket Un intervalo.
+     * @return El mayor valor que cae en él.
+     */
+    private static long highestValue(int bucket) {
+        if(bucket < SUB)
+            return bucket;
+        int shift = bucket / SUB - 1;
+        long low = (long)(SUB + bucket % SUB) << shift;
+        return low + (1L << shift) - 1;
+    }
+}
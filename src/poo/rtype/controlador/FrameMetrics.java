@@ -0,0 +1,293 @@
+package poo.rtype.controlador;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.ObjectName;
+
+/**
+ * Tiempos de cada fase de un frame: colisiones y movimiento (en cada paso
+ * de la simulación), y pintado y presentación en pantalla (en cada frame).
+ * <p>
+ * Cada fase tiene su {@link FrameHistogram}, así que registrar un tiempo no
+ * bloquea ni crea objetos. Una vez por intervalo (lo programa {@link Game}),
+ * {@link #publish()} vacía los histogramas, calcula p50, p99 y máximo de cada
+ * fase y los deja disponibles por JMX ({@link FrameMetricsMBean}) y,
+ * si se ha indicado, añade una línea a un archivo CSV.
+ * </p>
+ * <p>
+ * Además guarda la duración de los últimos frames para que el Renderer pueda
+ * dibujar una gráfica de tiempos en la pantalla de juego, y cuenta las veces
+ * que se han tenido que volver a acelerar imágenes ({@link ManagedImage}):
+ * si no deja de crecer, el juego está perdiendo la aceleración gráfica.
+ * </p>
+ * <pre>
+ * long t0 = System.nanoTime();
+ * ...
+ * metrics.record(FrameMetrics.COLLISION, System.nanoTime() - t0);
+ * </pre>
+ * @author José Luis Pérez González
+ */
+public class FrameMetrics implements FrameMetricsMBean {
+
+    /** Fase de comprobación de colisiones */
+    public static final int COLLISION = 0;
+    /** Fase de movimiento de entidades y efectos */
+    public static final int MOVEMENT = 1;
+    /** Fase de pintado en el búfer */
+    public static final int RENDER = 2;
+    /** Fase de presentación del búfer en pantalla (show y sync) */
+    public static final int PRESENT = 3;
+    /** Nombre de cada fase, en el orden de las constantes anteriores */
+    private static final String[] PHASES = {"collision", "movement", "render", "present"};
+    /** Número de frames que se guardan para la gráfica de tiempos */
+    public static final int GRAPH_SIZE = 128;
+
+    /** Histograma de cada fase */
+    private final FrameHistogram[] histograms = new FrameHistogram[PHASES.length];
+    /** Resultados del último intervalo, cuatro por fase: número de valores, p50, p99 y máximo (ns) */
+    private final AtomicLongArray results = new AtomicLongArray(PHASES.length * 4);
+    /** Duración en ns del último intervalo publicado */
+    private volatile long intervalNanos = 1;
+    /** Momento (System.nanoTime) de la última publicación */
+    private long lastPublish = System.nanoTime();
+    /** Array donde se vacían los histogramas al publicar, para no crear uno cada vez */
+    private final long[] drained = new long[FrameHistogram.BUCKETS];
+
+    /** Veces que se han vuelto a acelerar imágenes cuya superficie se había perdido, desde el principio */
+    private final AtomicLong reaccelerations = new AtomicLong();
+
+    /** Entidades movidas con todas sus reglas y naves dormidas en el último paso */
+    private volatile int updated, dormant;
+    /** Objetos añadidos a la última instantánea y descartados por estar fuera de la pantalla */
+    private volatile int drawn, culled;
+
+    /** Archivo CSV en el que se escribe cada intervalo, o null */
+    private Writer csv;
+    /** Línea del CSV en construcción, se reutiliza */
+    private final StringBuilder line = new StringBuilder(256);
+    /** Caracteres de la línea, para escribirla sin crear un String */
+    private char[] chars = new char[256];
+
+    /** Duración en ns de los últimos frames (pintado + presentación), como búfer circular */
+    private final long[] recentFrames = new long[GRAPH_SIZE];
+    /** Posición del búfer circular en la que se escribirá el siguiente frame */
+    private int recentIndex;
+
+    /**
+     * Constructor de la clase.
+     */
+    public FrameMetrics() {
+        for(int i = 0; i < histograms.length; i++)
+            histograms[i] = new FrameHistogram();
+    }
+
+    /**
+     * Registra la duración de una fase. Puede llamarse desde cualquier hilo.
+     * @param phase La fase (COLLISION, MOVEMENT, RENDER o PRESENT).
+     * @param nanos La duración en ns.
+     */
+    public void record(int phase, long nanos) {
+        histograms[phase].record(nanos);
+    }
+
+    /**
+     * Guarda la duración total de un frame para la gráfica de tiempos.
+     * Sólo debe llamarlo el hilo de pintado, que es también el que la lee.
+     * @param nanos La duración en ns.
+     */
+    public void recordFrame(long nanos) {
+        recentFrames[recentIndex] = nanos;
+        recentIndex = (recentIndex + 1) % GRAPH_SIZE;
+    }
+
+    /**
+     * Cuenta imágenes que se han vuelto a acelerar. Puede llamarse desde cualquier hilo.
+     * @param count El número de imágenes.
+     */
+    public void recordReaccelerations(int count) {
+        reaccelerations.addAndGet(count);
+    }
+
+    /**
+     * Guarda cuántas entidades se han movido en el último paso. Lo llama el hilo de la simulación.
+     * @param updated Entidades movidas con todas sus reglas.
+     * @param dormant Naves dormidas, que sólo han avanzado (ver {@link EntityStore#isDormant(int)}).
+     */
+    public void recordUpdates(int updated, int dormant) {
+        this.updated = updated;
+        this.dormant = dormant;
+    }
+
+    /**
+     * Guarda cuántos objetos se pintan en la última instantánea. Lo llama el hilo de la simulación.
+     * @param drawn Objetos a pintar.
+     * @param culled Objetos descartados por estar fuera de la pantalla.
+     */
+    public void recordDraws(int drawn, int culled) {
+        this.drawn = drawn;
+        this.culled = culled;
+    }
+
+    /**
+     * Duración de uno de los últimos frames. Sólo debe llamarlo el hilo de pintado.
+     * @param age 0 para el frame más reciente, 1 para el anterior... hasta GRAPH_SIZE - 1.
+     * @return La duración en ns.
+     */
+    public long getRecentFrame(int age) {
+        return recentFrames[(recentIndex - 1 - age + 2 * GRAPH_SIZE) % GRAPH_SIZE];
+    }
+
+    /**
+     * Indica un archivo en el que escribir una línea CSV con los resultados
+     * de cada intervalo. Escribe la cabecera inmediatamente.
+     * @param csv El archivo, o null para dejar de escribir.
+     */
+    public synchronized void setCsvOutput(Writer csv) {
+        this.csv = csv;
+        if(csv == null)
+            return;
+        line.setLength(0);
+        line.append("time_ms");
+        for(String phase: PHASES) {
+            line.append(',').append(phase).append("_count");
+            line.append(',').append(phase).append("_p50_us");
+            line.append(',').append(phase).append("_p99_us");
+            line.append(',').append(phase).append("_max_us");
+        }
+        line.append(",reaccelerations,updated,dormant,drawn,culled");
+        writeLine();
+    }
+
+    /**
+     * Registra esta instancia como MBean con el nombre 'poo.rtype:type=FrameMetrics'.
+     */
+    public void registerMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("poo.rtype:type=FrameMetrics"));
+        } catch(Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Cierra el intervalo actual: vacía los histogramas, calcula los
+     * resultados de cada fase y los escribe en el CSV si lo hay.
+     */
+    public synchronized void publish() {
+        long now = System.nanoTime();
+        intervalNanos = Math.max(1, now - lastPublish);
+        lastPublish = now;
+
+        for(int phase = 0; phase < histograms.length; phase++) {
+            long total = histograms[phase].drainTo(drained);
+            long max = histograms[phase].drainMax();
+            results.set(phase * 4, total);
+            // El percentil es el límite superior de su intervalo; nunca puede pasar del máximo real.
+            results.set(phase * 4 + 1, Math.min(max, FrameHistogram.percentile(drained, total, 50)));
+            results.set(phase * 4 + 2, Math.min(max, FrameHistogram.percentile(drained, total, 99)));
+            results.set(phase * 4 + 3, max);
+        }
+
+        if(csv != null) {
+            line.setLength(0);
+            line.append(System.currentTimeMillis());
+            for(int i = 0; i < results.length(); i++) {
+                line.append(',');
+                if(i % 4 == 0)
+                    line.append(results.get(i));
+                else
+                    line.append(results.get(i) / 1000);
+            }
+            line.append(',').append(reaccelerations.get());
+            line.append(',').append(updated).append(',').append(dormant);
+            line.append(',').append(drawn).append(',').append(culled);
+            writeLine();
+        }
+    }
+
+    /**
+     * Escribe la línea en construcción en el CSV.
+     */
+    private void writeLine() {
+        line.append('\n');
+        if(chars.length < line.length())
+            chars = new char[line.length() * 2];
+        line.getChars(0, line.length(), chars, 0);
+        try {
+            csv.write(chars, 0, line.length());
+            csv.flush();
+        } catch(IOException e) {
+            e.printStackTrace();
+            csv = null;
+        }
+    }
+
+    /**
+     * @param phase La fase.
+     * @param result 1 = p50, 2 = p99, 3 = máximo.
+     * @return El resultado del último intervalo en µs.
+     */
+    private double micros(int phase, int result) {
+        return results.get(phase * 4 + result) / 1000d;
+    }
+
+    /**
+     * @param phase La fase.
+     * @return Número de valores por segundo registrados en el último intervalo.
+     */
+    private double perSecond(int phase) {
+        return results.get(phase * 4) * 1e9 / intervalNanos;
+    }
+
+    @Override public double getCollisionP50Micros() { return micros(COLLISION, 1); }
+    @Override public double getCollisionP99Micros() { return micros(COLLISION, 2); }
+    @Override public double getCollisionMaxMicros() { return micros(COLLISION, 3); }
+    @Override public double getMovementP50Micros() { return micros(MOVEMENT, 1); }
+    @Override public double getMovementP99Micros() { return micros(MOVEMENT, 2); }
+    @Override public double getMovementMaxMicros() { return micros(MOVEMENT, 3); }
+    @Override public double getRenderP50Micros() { return micros(RENDER, 1); }
+    @Override public double getRenderP99Micros() { return micros(RENDER, 2); }
+    @Override public double getRenderMaxMicros() { return micros(RENDER, 3); }
+    @Override public double getPresentP50Micros() { return micros(PRESENT, 1); }
+    @Override public double getPresentP99Micros() { return micros(PRESENT, 2); }
+    @Override public double getPresentMaxMicros() { return micros(PRESENT, 3); }
+
+    @Override
+    public double getStepsPerSecond() {
+        return perSecond(COLLISION);
+    }
+
+    @Override
+    public double getFramesPerSecond() {
+        return perSecond(RENDER);
+    }
+
+    @Override
+    public long getReaccelerations() {
+        return reaccelerations.get();
+    }
+
+    @Override
+    public int getEntitiesUpdated() {
+        return updated;
+    }
+
+    @Override
+    public int getEntitiesDormant() {
+        return dormant;
+    }
+
+    @Override
+    public int getSpritesDrawn() {
+        return drawn;
+    }
+
+    @Override
+    public int getSpritesCulled() {
+        return culled;
+    }
+}
@@ -0,0 +1,62 @@
+package poo.rtype.controlador;
+
+/**
+ * Interfaz JMX de {@link FrameMetrics}: los tiempos de cada fase en el
+ * último intervalo publicado (normalmente, el último segundo), en µs.
+ * Se puede consultar con jconsole o VisualVM bajo 'poo.rtype:type=FrameMetrics'.
+ * @author José Luis Pérez González
+ */
+public interface FrameMetricsMBean {
+
+    double getCollisionP50Micros();
+    double getCollisionP99Micros();
+    double getCollisionMaxMicros();
+
+    double getMovementP50Micros();
+    double getMovementP99Micros();
+    double getMovementMaxMicros();
+
+    double getRenderP50Micros();
+    double getRenderP99Micros();
+    double getRenderMaxMicros();
+
+    double getPresentP50Micros();
+    double getPresentP99Micros();
+    double getPresentMaxMicros();
+
+    /**
+     * @return Pasos de la simulación por segundo.
+     */
+    double getStepsPerSecond();
+
+    /**
+     * @return Frames pintados por segundo.
+     */
+    double getFramesPerSecond();
+
+    /**
+     * @return Veces que se han vuelto a acelerar imágenes cuya superficie se
+     *         había perdido, desde que empezó el juego.
+     */
+    long getReaccelerations();
+
+    /**
+     * @return Entidades movidas con todas sus reglas en el último paso.
+     */
+    int getEntitiesUpdated();
+
+    /**
+     * @return Naves enemigas dormidas (lejos de la pantalla, sólo avanzan) en el último paso.
+     */
+    int getEntitiesDormant();
+
+    /**
+     * @return Objetos pintados en el último frame.
+     */
+    int getSpritesDrawn();
+
+    /**
+     * @return Objetos que no se han pintado en el último frame por estar fuera de la pantalla.
+     */
+    int getSpritesCulled();
+}
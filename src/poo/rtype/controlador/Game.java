@@ -3,20 +3,16 @@ package poo.rtype.controlador;
 import java.awt.Canvas;
 import java.awt.Dimension;
 import java.awt.Graphics2D;
-import java.awt.Rectangle;
 import java.awt.Toolkit;
 import java.awt.image.BufferStrategy;
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.text.DecimalFormat;
-import java.util.ArrayList;
+import java.io.IOException;
 import java.util.Random;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.locks.LockSupport;
 
 import javax.swing.JPanel;
 
@@ -34,61 +30,74 @@ public class Game extends Canvas {
     public static final int P_HEIGHT = 420;
     /** Indica si estamos en modo DEBUG o no */
     public static final boolean DEBUG = true;
-    /** El número de frames por segundo que se muestra en pantalla */
-    public static int CURRENT_FPS;
-    /** Indicador del total de naves enemigas restantes */
-    public static int TOTAL_ENEMIES;
-    /** Indicador del total de explosiones activas en este momento */
-    public static int CURRENT_EXPLOSIONS = 0;
-    /** True si estamos en la pantalla de juego propiamente dicha, con las naves etc. */
-    public boolean ingame;
-    /** True si estamos en la pantalla de bienvenida/selección de nivel */
-    public boolean inselection;
-    /** Array con puntuaciones finales que contiene tanto la actual como las que se leen del registro histórico (scores.txt) */
-    public double[] finalScore = new double[11];
 
     /** Tiempo en ms de cada 'tick' del timer. Si todo va bien, el juego tendrá unos FPS de 1000/period */
     private static final int period = 12;
-    /** Velocidad base a la que se mueven las naves en pixels/s */
-    private static final double moveSpeed = 150;
-
-    /** Indicador del modo de juego */
-    private int GAME_MODE;
-    /** La última vez que se actualizón el framerate */
-    private long lastFpsTime;
+    /**
+     * True para usar el bucle de paso fijo ({@link FixedStepLoop}): la lógica avanza siempre
+     * en pasos de 'period' ms y se pinta tan rápido como permita la pantalla, interpolando
+     * las posiciones. False para usar el bucle original basado en el Timer ({@link GameLoop}).
+     */
+    private static final boolean FIXED_TIMESTEP = true;
+    /** Duración en ns de cada paso de la simulación en el bucle de paso fijo */
+    private static final long STEP_NANOS = period * 1000000L;
+    /** Tiempo máximo (ns) que se intenta recuperar tras un frame muy lento, para no entrar en una espiral sin fin */
+    private static final long MAX_FRAME_NANOS = 250 * 1000000L;
+    /** Imágenes que se precargan en la caché al arrancar y se mantienen durante todo el juego */
+    private static final String[] IMAGES = {"/poo/rtype/player.png", "/poo/rtype/enemyA.png", "/poo/rtype/enemyB.png",
+            "/poo/rtype/missile.png", "/poo/rtype/explosion.png", "/poo/rtype/explosionPlayer.png"};
+    /** Estrellas del fondo de la pantalla de juego (propiedad rtype.stars) */
+    private static final int STARS = Integer.getInteger("rtype.stars", 300);
+    /** Máscaras de colisión que se precargan en la caché al arrancar */
+    private static final String[] MASKS = {"/poo/rtype/player_mask.png", "/poo/rtype/enemy_mask.png",
+            "/poo/rtype/missile_mask.png"};
+
+    /** Tiempo en ms transcurrido desde la última vez que se actualizó el framerate */
+    private double lastFpsTime;
     /** El número de frames transcurridos hasta ahora */
     private int framesTillNow;
-    /** En qué momento se pasó por última vez por el 'loop' principal del juego */
-    private long lastLoopTime;
     /** Dibujaremos en el canvas mediante triple búfer */
     private BufferStrategy buffer = null;
-    /** Generador de números aleatorios (para que las naves enemigas y la estrellas no salgan siempre en las mismas posiciones) */
-    private Random randGenerator = new Random();
-    /** Puntuación parcial obtenida que se basa en la cantidad total de enemigos eliminados */
-    public int partialScore;
 
-    /** Instancia de la clase Stats para mostrar diferentes estadísticas mientras corre el juego. */
-    private Stats stats;
+    /** Registro de todas las partidas jugadas, o null si no se ha podido abrir */
+    private Leaderboard leaderboard;
+    /** Tiempos de cada fase de los frames, consultables por JMX o volcados a un CSV */
+    private FrameMetrics metrics = new FrameMetrics();
     /** Representa la Vista del patrón MVC. Dibuja lo que se necesite en cada momento */
     private Renderer render;
     /** Controlador de las entradas del teclado */
     private InputController input;
-    /** Controlador de la posición en la ventana de los diferentes objetos */
-    private MovementController movement;
-    /** Controlador para manejar las colisiones entre objetos */
-    private CollisionsController collisions;
-    /** Contenedor de entidades que pueden 'interaccionar' (jugador, enemigos y misiles */
-    private ArrayList<EntityIF> entities;
-    /** Contenedor de efectos, entidades que no interaccionan con ninguna otra (estrellas del fondo y explosiones) */
-    private ArrayList<EffectIF> effects;
-    /** Instancia del objeto que representa al jugador, estará a su vez contenida en 'entities' pero tenerla accesible
-     * por separado facilitará ciertas operaciones */
-    private Player player;
+    /** La simulación de la partida: entidades, efectos y controladores de colisiones y movimiento */
+    private World world;
+    /** Estado de la sesión (el de 'world'): pantalla, naves restantes, puntuación y FPS */
+    private GameState state;
+    /** Generador de las semillas de cada partida */
+    private Random seeds = new Random();
+    /** Partículas decorativas (las estrellas del fondo); no forman parte de la partida */
+    private ParticleSystem particles = new ParticleSystem(seeds.nextLong());
+    /** Grabación de la partida en curso, o null */
+    private InputRecorder recorder;
+    /** Archivo donde se guarda la grabación de cada partida al terminar */
+    private File recordFile;
+    /** Partida grabada que se está repitiendo en lugar de leer el teclado, o null */
+    private InputReplay replay;
+    /** Pasos de la simulación por cada paso del bucle mientras se repite una partida (avance rápido) */
+    private int replaySpeed = 1;
+    /** Factor de velocidad de la simulación respecto al tiempo real (menor que 1 para cámara lenta) */
+    private double timeScale = 1;
+    /** True si la partida está en pausa */
+    private boolean paused;
 
     /** Timer para actualizaciones del estado del juego */
     private Timer timer;
     /** Clase que contiene el método run() que será invocado en cada 'tic' del Timer */
     private TimerTask gameLoop;
+    /** Bucle de paso fijo, si se usa en lugar del Timer */
+    private FixedStepLoop fixedStepLoop;
+    /** Bucle del hilo de pintado, que acompaña al bucle de paso fijo */
+    private RenderLoop renderLoop;
+    /** Instantáneas del mundo que la simulación publica y el hilo de pintado consume */
+    private SnapshotBuffer snapshots = new SnapshotBuffer();
 
     /**
      * Constructor del juego.
@@ -98,17 +107,28 @@ public class Game extends Canvas {
         // Iniciar el timer.
         timer = new Timer();
 
-        input = new InputController(this);
-        collisions = new CollisionsController(this);
-        movement = new MovementController();
         render = new Renderer(this);
-        if(DEBUG) stats = new Stats(period);
+        initMetrics();
+        try {
+            leaderboard = new Leaderboard(Leaderboard.defaultDirectory());
+            render.setLeaderboard(leaderboard);
+        } catch(IOException e) {
+            e.printStackTrace();
+        }
 
-        entities = new ArrayList<EntityIF>();
-        effects = new ArrayList<EffectIF>();
+        // Fase de precarga: leer todas las imágenes y máscaras antes de empezar y empaquetar
+        // las imágenes en el atlas de texturas de una vez, así crear un misil o una explosión
+        // durante la partida no tiene que tocar el disco ni volver a acelerar el atlas.
+        AssetCache.getAtlas().add(IMAGES);
+        for(String mask: MASKS)
+            AssetCache.acquireMask(mask);
 
-        inselection = true;
-        ingame = false;
+        world = new World(metrics);
+        state = world.getState();
+        particles.addStarfield(STARS);
+        input = new InputController(this);
+        timeScale = Double.parseDouble(System.getProperty("rtype.timescale", "1"));
+        initReplay();
 
         // Obtener el panel de la ventana contenedor (GameLauncher) y añadirle el Canvas,
         // que es esta misma clase y será donde se dibujará.
@@ -125,10 +145,61 @@ public class Game extends Canvas {
         requestFocus();
     }
 
+    /**
+     * Prepara la publicación de los tiempos de cada fase: cada segundo se
+     * cierra un intervalo, que queda disponible por JMX y, si se indica la
+     * propiedad 'rtype.metrics.csv' con la ruta de un archivo, se añade a él.
+     * Con la propiedad 'rtype.metrics.graph' a true se dibuja además una
+     * gráfica con la duración de los últimos frames en la pantalla de juego.
+     */
+    private void initMetrics() {
+        metrics.registerMBean();
+        String csv = System.getProperty("rtype.metrics.csv");
+        if(csv != null) {
+            try {
+                metrics.setCsvOutput(new BufferedWriter(new FileWriter(csv)));
+            } catch(IOException e) {
+                e.printStackTrace();
+            }
+        }
+        if(Boolean.getBoolean("rtype.metrics.graph"))
+            render.setFrameGraph(metrics);
+        timer.scheduleAtFixedRate(new TimerTask() {
+            @Override
+            public void run() {
+                metrics.publish();
+            }
+        }, 1000, 1000);
+    }
+
+    /**
+     * Prepara la grabación y repetición de partidas. Cada partida se graba
+     * en el archivo indicado con la propiedad 'rtype.record' o, si no, en
+     * last.rtr en el directorio del registro de partidas (ver
+     * {@link Leaderboard#defaultDirectory()}). Si se indica con la propiedad
+     * 'rtype.replay' un archivo grabado, la primera partida es su repetición,
+     * sin teclado, y con 'rtype.replay.speed' se puede repetir a varias veces
+     * la velocidad normal.
+     */
+    private void initReplay() {
+        String record = System.getProperty("rtype.record");
+        recordFile = record != null ? new File(record) : new File(Leaderboard.defaultDirectory(), "last.rtr");
+        String file = System.getProperty("rtype.replay");
+        if(file != null) {
+            try {
+                replay = InputReplay.load(new File(file));
+                replaySpeed = Math.max(1, Integer.getInteger("rtype.replay.speed", 1));
+            } catch(IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
     /**
      * Crear la estrategia que tendrá el búfer (doble búfer) e iniciar
-     * el Timer que marcará los tiempos de actualización de la lógica y
-     * el renderizado del juego.
+     * el bucle que marcará los tiempos de actualización de la lógica y
+     * el renderizado del juego: los hilos de simulación y de pintado, o el
+     * Timer, según {@link #FIXED_TIMESTEP}.
      */
     public void createBufferAndStart() {
         this.createBufferStrategy(2);
@@ -136,36 +207,55 @@ public class Game extends Canvas {
 
         if(gameLoop != null)
             gameLoop.cancel();
-
-        gameLoop = new GameLoop();
-        timer.scheduleAtFixedRate(gameLoop, 0, period);
+        if(fixedStepLoop != null)
+            fixedStepLoop.stop();
+        if(renderLoop != null)
+            renderLoop.stop();
+
+        publishSnapshot();
+        updateClockSource();
+        if(FIXED_TIMESTEP) {
+            fixedStepLoop = new FixedStepLoop();
+            renderLoop = new RenderLoop();
+            new Thread(fixedStepLoop, "R-Type game loop").start();
+            new Thread(renderLoop, "R-Type render").start();
+        } else {
+            gameLoop = new GameLoop();
+            timer.scheduleAtFixedRate(gameLoop, 0, period);
+        }
     }
 
     /**
      * Este método es llamado cuando se elije un nivel y empieza
      * el juego propiamente dicho.
-     * Actualiza el nivel del juego seleccionado.
+     * Actualiza el nivel del juego seleccionado y empieza a grabar la
+     * partida o, si hay una repetición pendiente, empieza a repetirla.
      */
     private void startGame() {
-        entities.clear();
-        effects.clear();
+        AssetCache.evictUnused();
+        int gameMode;
+        if(replay != null) {
+            gameMode = replay.getGameMode();
+            world.start(gameMode, replay.getSeed());
+            recorder = null;
+        } else {
+            gameMode = input.gameMode.getGameMode();
+            world.start(gameMode, seeds.nextLong());
+            recorder = new InputRecorder(world.getSeed(), gameMode, period);
+            world.setRecorder(recorder);
+        }
 
-        GAME_MODE = input.gameMode.getGameMode();
-        switch (GAME_MODE) {
+        switch (gameMode) {
             case 1:
-                TOTAL_ENEMIES = 10;
                 render.setGameModeText("Fácil");
                 break;
             case 2:
-                TOTAL_ENEMIES = 15;
                 render.setGameModeText("Normal");
                 break;
             case 3:
-                TOTAL_ENEMIES = 20;
                 render.setGameModeText("Complicado");
                 break;
             case 4:
-                TOTAL_ENEMIES = 30;
                 render.setGameModeText("Imposible");
                 break;
         }
@@ -173,68 +263,33 @@ public class Game extends Canvas {
         input.gameMode.typed(false);
         input.restart.typed(false);
 
-        initObjects();
-        inselection = false;
-        ingame = true;
-        partialScore = 0;
-        lastLoopTime = System.currentTimeMillis();
+        state.moveTo(GameState.Screen.SELECTION, GameState.Screen.INGAME);
+        paused = false;
+        updateClockSource();
     }
 
     /**
-     * Inicializamos diferentes elementos que se mostrarán en la pantalla con su posición
-     * inicial y la velocidad que les corresponda.
-     * <p>
-     * El tipo de nave enemiga, así como sus respectivas coordenadas iniciales
-     * sobre la pantalla, se generan aleatoriamente.
-     * </p>
+     * Elige la fuente del reloj de la simulación (ver {@link FrameClock}):
+     * 'period' ms por paso en el bucle de paso fijo o el tiempo real en el
+     * del Timer, multiplicado por el factor de velocidad ('rtype.timescale'),
+     * o nada si la partida está en pausa.
      */
-    private void initObjects() {
-        // Inicializar Jugador y añadirlo al contenedor de entidades.
-        player = new Player((int)moveSpeed, input);
-        entities.add(player);
-
-        // Inicializar Enemigos y añadirlos al contenedor de entidades.
-        int[][] pos = makeEnemyPositions(); // Posiciones iniciales de las naves enemigas.
-        byte enemyType;
-        for (int i = 0; i<pos.length; i++) {
-            enemyType = (byte)randGenerator.nextInt(2); // ¿De qué tipo es la nave enemiga?
-            if (enemyType == 0) {
-                entities.add(new Enemy(pos[i][0], pos[i][1], "/poo/rtype/enemyB.png", "/poo/rtype/enemy_mask.png", enemyType, (double)(moveSpeed * GAME_MODE)/2));
-            }
-            else {
-                entities.add(new Enemy(pos[i][0], pos[i][1], "/poo/rtype/enemyA.png", "/poo/rtype/enemy_mask.png", enemyType, (double)(moveSpeed * GAME_MODE)/2));
-            }
-        }
-
-        // Añadir estrellas al contenedor de efectos (50 estrellas)
-        for (int i = 0; i<50; i++) {
-            effects.add(new Star(randGenerator.nextInt(P_WIDTH), randGenerator.nextInt(P_HEIGHT), -40));
-        }
+    private void updateClockSource() {
+        FrameClock.Source source = FIXED_TIMESTEP ? FrameClock.fixed(period) : FrameClock.real();
+        if(paused)
+            source = FrameClock.paused();
+        else if(timeScale != 1)
+            source = FrameClock.scaled(source, timeScale);
+        world.getClock().setSource(source);
     }
 
     /**
-     * Crea una matriz con las posiciones iniciales de las naves enemigas
-     * fuera de la pantalla. Las posiciones son aleatorias y se comprueba
-     * que no se superpongan naves entre ellas.
-     * @return La matriz con las coordenadas para cada nave enemiga.
+     * Cambia la velocidad de la simulación respecto al tiempo real.
+     * @param timeScale El factor: 1 es la velocidad normal, 0.5 la mitad (cámara lenta).
      */
-    private int[][] makeEnemyPositions() {
-        int[][] pos = new int[TOTAL_ENEMIES][2];
-        for (int i = 0; i<TOTAL_ENEMIES; i++) {
-            pos[i][0] = randGenerator.nextInt(500 * GAME_MODE + P_WIDTH) + P_WIDTH; // Posición horizontal entre WIDTH y WIDTH+2500
-            pos[i][1] = randGenerator.nextInt(P_HEIGHT - 60) + 30; // Posición vertical entre 30 y HEIGHT-30
-
-            // Comprobar que no se superpongan las naves enemigas al generar sus posiciones.
-            // Cada nave tiene una 'zona de seguridad' a su alrededor en la que no puede posicionarse otra nave.
-            Rectangle sz1 = new Rectangle(pos[i][0], pos[i][1], 100, 100);
-            for (int j = 0; j<(i+1); j++) {
-                Rectangle sz2 = new Rectangle(pos[j][0], pos[j][1], 100, 100);
-                if ((sz1.intersects(sz2)) && (j != i)) {
-                    i = i - 1;
-                }
-            }
-        }
-        return pos;
+    public void setTimeScale(double timeScale) {
+        this.timeScale = timeScale;
+        updateClockSource();
     }
 
     /**
@@ -242,120 +297,222 @@ public class Game extends Canvas {
      * jugador ha colisionado con una nave enemiga (Game Over) o porque
      * hemos destruido todas las naves enemigas (You Win!).
      * <p>
-     * Devuelve cierto si se debe abandonar la pantalla de juego.
+     * Si es así, pasa a la pantalla final.
      * </p>
-     * @return true si se debe abandonar la pantalla del juego.
      */
-    private boolean checkForVictory() {
-        if(!entities.contains(player) && CURRENT_EXPLOSIONS == 0) {
-            render.setNotifyMessage("Game Over");
-            calculateScore();
-            return false;
-        }
-        else if(TOTAL_ENEMIES == 0 && CURRENT_EXPLOSIONS == 0) {
-            render.setNotifyMessage("You Win!");
+    private void checkForVictory() {
+        if(world.isOver()) {
+            render.setNotifyMessage(world.isPlayerAlive() ? "You Win!" : "Game Over");
             calculateScore();
-            return false;
+            if(replay != null)
+                endReplay();
+            else
+                saveRecording();
+            state.moveTo(GameState.Screen.INGAME, GameState.Screen.GAMEOVER);
         }
-        return true;
     }
 
     /**
-     * Calcula la puntuación final obtenida y guarda el resultado
-     * en un archivo con los históricos.
+     * Calcula la puntuación final obtenida y la añade al registro de
+     * partidas (ver {@link Leaderboard}), salvo si es una repetición.
      */
     private void calculateScore() {
-
         // Cálculo de la puntuación final de la partida.
-        finalScore[0] = partialScore * (1 + GAME_MODE / 4);
+        double finalScore = world.getPartialScore() * (1 + world.getGameMode() / 4);
+        state.setFinalScore(finalScore);
 
-        // Leer el archivo con las puntuaciones y actualizar el array finalScore en consecuencia.
-        InputStream input = null;
-        BufferedReader br = null;
-        try {
-            input = Game.class.getResourceAsStream("/poo/rtype/scores.txt");
-            br = new BufferedReader(new InputStreamReader(input));
-
-            String line;
-            int index = 1;
-            while((line = br.readLine()) != null) {
-                finalScore[index] = Double.parseDouble(line);
-                index++;
-            }
+        if(leaderboard != null && replay == null)
+            leaderboard.add(finalScore, world.getGameMode());
+    }
 
-            if(finalScore[0] >= finalScore[10]) {
-                finalScore[10] = finalScore[0];
-                for(int i = 9; i>0; i--) {
-                    if(finalScore[0] >= finalScore[i]) {
-                        finalScore[i+1] = finalScore[i];
-                        finalScore[i] = finalScore[0];
-                    }
+    /**
+     * Termina la grabación de la partida y la guarda en el hilo del Timer,
+     * sin detener el bucle del juego.
+     */
+    private void saveRecording() {
+        if(recorder == null)
+            return;
+        world.setRecorder(null);
+        recorder.finish(world.checksum());
+        final InputRecorder finished = recorder;
+        recorder = null;
+        timer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                try {
+                    recordFile.getAbsoluteFile().getParentFile().mkdirs();
+                    finished.save(recordFile);
+                } catch(IOException e) {
+                    e.printStackTrace();
                 }
             }
-        } catch(Exception e) {
-            e.printStackTrace();
-        } finally {
-            try {
-                if(br != null) br.close();
-                if(input != null) input.close();
-            } catch(Exception e2) {
-                e2.printStackTrace();
+        }, 0);
+    }
+
+    /**
+     * Termina la repetición, indicando si ha llegado exactamente al mismo
+     * estado que la partida grabada. Las siguientes partidas se juegan con
+     * el teclado.
+     */
+    private void endReplay() {
+        if(replay.matches(world))
+            System.out.println("Repetición terminada: " + world.getTicks() + " pasos, idéntica a la grabación.");
+        else
+            System.err.println("La repetición no coincide con la grabación: " + world.getTicks() + " pasos de "
+                    + replay.getTicks() + ".");
+        replay = null;
+    }
+
+    /**
+     * @return El tiempo en ms de cada paso de la simulación.
+     */
+    public static int getPeriod() {
+        return period;
+    }
+
+    /**
+     * Devuelve la simulación de la partida, para consultar sus almacenes y contadores.
+     * @return La simulación.
+     */
+    public World getWorld() {
+        return world;
+    }
+
+    /**
+     * Devuelve el estado de la sesión. Se puede consultar desde cualquier hilo.
+     * @return El estado.
+     */
+    public GameState getState() {
+        return state;
+    }
+
+    /**
+     * Avanza la lógica del juego un paso: cambios de pantalla, pausa,
+     * colisiones, movimiento y disparos.
+     * @return False si en este paso se ha cambiado de pantalla (no hace falta pintar todavía).
+     */
+    private boolean update() {
+        GameState.Screen screen = state.getScreen();
+        if(screen == GameState.Screen.SELECTION && (input.gameMode.wasTyped() || replay != null)) {
+            startGame();
+            return false;
+        }
+        if(screen == GameState.Screen.GAMEOVER && input.restart.wasTyped()) {
+            state.moveTo(GameState.Screen.GAMEOVER, GameState.Screen.SELECTION);
+            return false;
+        }
+        if(screen == GameState.Screen.INGAME && input.pause.wasTyped()) {
+            input.pause.typed(false);
+            paused = !paused;
+            updateClockSource();
+        }
+        if(screen == GameState.Screen.INGAME) {
+            int steps = replay != null ? replaySpeed : 1;
+            for(int i = 0; i < steps; i++) {
+                checkForVictory(); // ¿Seguimos jugando?
+                if(state.getScreen() != GameState.Screen.INGAME)
+                    break;
+                step();
             }
         }
+        return true;
+    }
 
-        // Guardar el array generado con las puntuaciones en el archivo de registro.
-        BufferedWriter bw = null;
-        try {
-            File file = new File(Game.class.getResource("/poo/rtype/scores.txt").toURI().getPath());
-            FileWriter fw = new FileWriter(file);
-            bw = new BufferedWriter(fw);
-
-            for(int i = 1; i < finalScore.length; i++) {
-                String line = Double.toString(finalScore[i]);
-                bw.write(line);
-                bw.newLine();
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-        } finally {
-            try {
-                if(bw != null) {
-                    bw.flush();
-                    bw.close();
-                }
-            } catch (Exception e2) {
-                e2.printStackTrace();
-            }
+    /**
+     * Simula un paso con las teclas pulsadas en este momento y lo que
+     * indique el reloj o, si se está repitiendo una partida, con las teclas
+     * y duración grabadas. Las partículas decorativas avanzan lo mismo que la simulación.
+     */
+    private void step() {
+        if(replay == null) {
+            world.tick(input.getKeyMask());
+        } else if(replay.hasNext()) {
+            replay.next();
+            world.tick(replay.getDelta(), replay.getKeys());
+        } else {
+            world.tick(0);
+        }
+        particles.update(world.getClock().getDelta());
+    }
+
+    /**
+     * Actualiza el contador de frames por segundo.
+     * @param frameTime El tiempo en ms que ha durado el último frame.
+     */
+    private void countFrame(double frameTime) {
+        lastFpsTime += frameTime;
+        framesTillNow++;
+        if (lastFpsTime >= 1000) {
+            state.setFps(framesTillNow);
+            lastFpsTime = 0;
+            framesTillNow = 0;
         }
     }
 
     /**
-     * Añade una explosión como objeto EffectIF al contenedor de efectos.
-     * @param x Posición de la explosión en el eje horizontal.
-     * @param y Posición de la explosión en el eje vertical.
-     * @param imageSource Ubicación del archivo dentro del directorio de la aplicación.
-     * @param frameWidth Anchura de cada frame de la animación de la explosión.
-     * @param frameHeight Altura de cada frame de la animación de la explosión.
-     * @param totalFrames Número total de frames que componen la animación de la explosión.
-     * @param frameTimeStep Cada cuanto tiempo (en milisegundos) debemos actualizar la animación.
+     * Rellena y publica una instantánea con todo lo que hay que pintar
+     * tras el último paso de la simulación (ver {@link WorldSnapshot}).
      */
-    public void addExplosion(int x, int y, String imageSource, int frameWidth, int frameHeight, int totalFrames, int frameTimeStep) {
-        effects.add(new Explosion(x, y, imageSource, frameWidth, frameHeight, totalFrames, frameTimeStep));
-        CURRENT_EXPLOSIONS++;
+    private void publishSnapshot() {
+        WorldSnapshot snapshot = snapshots.beginWrite();
+        int screen;
+        switch(state.getScreen()) {
+            case SELECTION:
+                screen = WorldSnapshot.SCREEN_SELECTION;
+                break;
+            case INGAME:
+                screen = WorldSnapshot.SCREEN_INGAME;
+                break;
+            default:
+                screen = WorldSnapshot.SCREEN_GAMEOVER;
+                break;
+        }
+        snapshot.clear(screen, state.getRemainingEnemies());
+        if(screen == WorldSnapshot.SCREEN_GAMEOVER)
+            snapshot.setScore(state.getFinalScore(), world.getGameMode());
+        if(screen == WorldSnapshot.SCREEN_INGAME) {
+            snapshot.setParticles(particles);
+            for(EffectIF effect: world.getEffects())
+                effect.Draw(snapshot);
+            EntityStore store = world.getStore();
+            for(int i = 0; i < store.size(); i++)
+                store.getHandle(i).Draw(snapshot);
+            metrics.recordDraws(snapshot.getCount(), snapshot.getCulled());
+        }
+        snapshots.publish(System.nanoTime());
     }
 
     /**
-     * Dibujar en pantalla a través del búfer.
-     * @param delta El tiempo que ha pasado desde el último render.
+     * Dibujar en pantalla a través del búfer la última instantánea publicada.
+     * @param delta El tiempo en ms que ha pasado desde el último render.
+     * @param alpha Fracción (entre 0 y 1) del paso de simulación transcurrida desde
+     *              la última actualización, para interpolar las posiciones.
      */
-    private void render(long delta) {
-        Graphics2D g2d = (Graphics2D) buffer.getDrawGraphics();
-        render.render(g2d, entities, effects, delta);
-        g2d.dispose();
-        buffer.show();
-        // Sincronizar pintado con la tasa de refresco ¿?
-        Toolkit.getDefaultToolkit().sync();
-        if(DEBUG) stats.reportStats();
+    private void render(WorldSnapshot snapshot, double delta, double alpha) {
+        TextureAtlas atlas = AssetCache.getAtlas();
+        long t0 = System.nanoTime(), t1, t2;
+        do {
+            // Si la tarjeta gráfica pierde el contenido del búfer o del atlas mientras se
+            // pinta, se restaura y se repite el frame.
+            do {
+                int restored = atlas.validate();
+                if(restored > 0)
+                    metrics.recordReaccelerations(restored);
+                Graphics2D g2d = (Graphics2D) buffer.getDrawGraphics();
+                render.render(g2d, snapshot, delta, alpha);
+                g2d.dispose();
+                // Al repetir el frame el fondo no debe volver a avanzar.
+                delta = 0;
+            } while(buffer.contentsRestored() || atlas.contentsLost());
+            t1 = System.nanoTime();
+            buffer.show();
+            // Sincronizar pintado con la tasa de refresco ¿?
+            Toolkit.getDefaultToolkit().sync();
+            t2 = System.nanoTime();
+        } while(buffer.contentsLost());
+        metrics.record(FrameMetrics.RENDER, t1 - t0);
+        metrics.record(FrameMetrics.PRESENT, t2 - t1);
+        metrics.recordFrame(t2 - t0);
     }
 
     /**
@@ -363,116 +520,122 @@ public class Game extends Canvas {
      * Es como un bucle o loop en el que se van invocando los diferentes
      * métodos de controladores y vistas para ir actualizando el estado
      * del juego.
+     * <p>
+     * La lógica avanza con el tiempo real transcurrido entre 'tics' (la
+     * fuente {@link FrameClock#real()} del reloj de la simulación), así que
+     * un frame lento produce un salto grande (ver {@link FixedStepLoop}).
+     * Simulación y pintado se hacen uno detrás de otro en el hilo del Timer.
+     * </p>
      * @author José Luis Pérez González
      */
     class GameLoop extends TimerTask {
 
-        /** Tiempo que pasa en ms entre loop y loop */
-        private long delta = 0;
+        /** Instante (System.nanoTime) del 'tic' anterior, para contar los frames por segundo */
+        private long previous = System.nanoTime();
 
         @Override
         public void run() {
-            if(inselection && input.gameMode.wasTyped()) {
-                startGame();
-                return;
+            long now = System.nanoTime();
+            double frame = (now - previous) / 1000000d;
+            previous = now;
+            if(state.getScreen() == GameState.Screen.INGAME)
+                countFrame(frame);
+            if(update()) {
+                publishSnapshot();
+                render(snapshots.acquire(), frame, 1);
             }
-            if(!inselection && !ingame && input.restart.wasTyped()) {
-                inselection = true;
-                return;
-            }
-            if(ingame) {
-                // Las siguientes líneas actualizan el contador de frames por segundo.
-                delta = System.currentTimeMillis() - lastLoopTime;
-                lastLoopTime = System.currentTimeMillis();
-                lastFpsTime += delta;
-                framesTillNow++;
-                if (lastFpsTime >= 1000) {
-                    CURRENT_FPS = framesTillNow;
-                    lastFpsTime = 0;
-                    framesTillNow = 0;
-                }
-
-                ingame = checkForVictory(); // ¿Seguimos jugando?
-
-                // Comprobar colisiones y mover entidades y efectos.
-                entities = collisions.checkCollisions(entities);
-                entities = movement.moveEntities(entities, delta);
-                effects = movement.moveEffects(effects, delta);
-
-                if(input.space.isPressed())
-                    player.fire();
-            }
-            render(delta);
         }
     }
 
     /**
-     * Basado en un ejemplo del libro 'Killer Game Programming in Java'.
-     * Esta clase nos proporciona diversa información del estado del juego.
-     * No influye para nada en el mismo. Imprime los resultados en la consola.
-     * @author Andrew Davison, April 2005, ad@fivedots.coe.psu.ac.th
+     * Bucle de la simulación con paso fijo, en su propio hilo.
+     * <p>
+     * El tiempo real (medido con System.nanoTime) se acumula y se consume en
+     * pasos de exactamente 'period' ms, de modo que la lógica siempre avanza
+     * igual sin importar la velocidad a la que se pinte: si se retrasa, se
+     * ejecutan varios pasos seguidos para recuperar el tiempo perdido (hasta
+     * un máximo, {@link #MAX_FRAME_NANOS}), y ningún misil 'atraviesa' una nave
+     * por dar un salto demasiado grande.
+     * </p>
+     * <p>
+     * Tras cada tanda de pasos se publica una instantánea para el hilo de
+     * pintado ({@link RenderLoop}) y se duerme hasta que toque el siguiente paso.
+     * </p>
+     * @author José Luis Pérez González
      */
-    public class Stats {
-
-        private long MAX_STATS_INTERVAL = 1000L; // Cada segundo
-        private int NUM_FPS = 10;
-        private long frameCount = 0;
-        private long statsInterval = 0L; // En ms
-        private long prevStatsTime;
-        private long totalElapsedTime = 0L;
-        private int period;
-        private double fpsStore[];
-        private long statsCount = 0;
-        private double averageFPS = 0.0;
-        private DecimalFormat df = new DecimalFormat("0.##");  // 2 dp
-        private DecimalFormat timedf = new DecimalFormat("0.####");  // 4 dp
-
-        public Stats(int period) {
-            this.period = period;
-            this.prevStatsTime = System.currentTimeMillis();
-            this.fpsStore = new double[NUM_FPS];
-            for (int i=0; i < NUM_FPS; i++)
-                this.fpsStore[i] = 0.0;
-        }
+    class FixedStepLoop implements Runnable {
 
-        private void reportStats() {
-            frameCount++;
-            statsInterval += this.period;
+        /** Se pone a false para detener el bucle */
+        private volatile boolean running = true;
 
-            if(statsInterval > MAX_STATS_INTERVAL) {
-                long timeNow = System.currentTimeMillis();
-
-                long realElapsedTime = timeNow - prevStatsTime;
-                totalElapsedTime += realElapsedTime;
-                long timingError = realElapsedTime - statsInterval;
-
-                double actualFPS = 0;
-                if(totalElapsedTime > 0)
-                    actualFPS = ((double)frameCount/totalElapsedTime) * 1000;
-
-                fpsStore[ (int)statsCount%NUM_FPS ] = actualFPS;
-                statsCount = statsCount+1;
+        /**
+         * Detiene el bucle al terminar el paso actual.
+         */
+        public void stop() {
+            running = false;
+        }
 
-                double totalFPS = 0.0;
-                for(int i = 0; i<NUM_FPS; i++) {
-                    totalFPS += fpsStore[i];
+        @Override
+        public void run() {
+            long previous = System.nanoTime();
+            long accumulator = 0;
+            while(running) {
+                long now = System.nanoTime();
+                long frame = now - previous;
+                previous = now;
+                if(frame > MAX_FRAME_NANOS)
+                    frame = MAX_FRAME_NANOS;
+                accumulator += frame;
+
+                if(accumulator >= STEP_NANOS) {
+                    while(accumulator >= STEP_NANOS) {
+                        update();
+                        accumulator -= STEP_NANOS;
+                    }
+                    publishSnapshot();
                 }
+                LockSupport.parkNanos(STEP_NANOS - accumulator);
+            }
+        }
+    }
 
-                if(statsCount < NUM_FPS) {
-                    averageFPS = totalFPS/statsCount;
-                } else {
-                    averageFPS = totalFPS/NUM_FPS;
-                }
+    /**
+     * Bucle del hilo de pintado, que acompaña al bucle de paso fijo.
+     * <p>
+     * Pinta tan rápido como permita la pantalla la última instantánea publicada,
+     * interpolando la posición de cada objeto entre los dos últimos pasos según
+     * el tiempo transcurrido desde su publicación. Como no toca las listas de
+     * entidades, la simulación de un paso y el show()/sync() de un frame pueden
+     * ejecutarse a la vez en dos núcleos.
+     * </p>
+     * @author José Luis Pérez González
+     */
+    class RenderLoop implements Runnable {
 
-                System.out.println(timedf.format( (double) statsInterval/1000) + " " +
-                        timedf.format((double) realElapsedTime/1000) + "s " +
-                        df.format(timingError) + "% " +
-                        frameCount + "frames " +
-                        df.format(actualFPS) + "fps " +
-                        df.format(averageFPS) + " afps" );
+        /** Se pone a false para detener el bucle */
+        private volatile boolean running = true;
 
-                prevStatsTime = timeNow;
-                statsInterval = 0L;
+        /**
+         * Detiene el bucle al terminar el frame actual.
+         */
+        public void stop() {
+            running = false;
+        }
+
+        @Override
+        public void run() {
+            long previous = System.nanoTime();
+            while(running) {
+                long now = System.nanoTime();
+                double frame = (now - previous) / 1000000d;
+                previous = now;
+
+                WorldSnapshot snapshot = snapshots.acquire();
+                double alpha = Math.min(1, (double)(now - snapshot.getTime()) / STEP_NANOS);
+                if(snapshot.getScreen() == WorldSnapshot.SCREEN_INGAME)
+                    countFrame(frame);
+                render(snapshot, frame, alpha);
+                Thread.yield();
             }
         }
     }
@@ -0,0 +1,165 @@
+package poo.rtype.controlador;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Estado compartido de una sesión de juego: en qué pantalla está, cuántas
+ * naves enemigas y explosiones quedan, la puntuación y los frames por
+ * segundo.
+ * <p>
+ * Lo escribe sobre todo el hilo de la simulación, pero lo leen también el
+ * hilo de pintado y el de eventos de AWT (el teclado), así que cada dato es
+ * atómico (o volatile): lo que escribe un hilo lo ve enseguida cualquier
+ * otro, sin bloqueos. Los cambios de pantalla son una máquina de estados
+ * ({@link Screen}) y sólo se hacen si se parte de la pantalla esperada.
+ * </p>
+ * <p>
+ * Cada {@link World} tiene el suyo, de modo que en la misma máquina virtual
+ * pueden convivir varias partidas independientes.
+ * </p>
+ * @author José Luis Pérez González
+ */
+public class GameState {
+
+    /**
+     * Pantallas del juego. Se pasa de la selección de nivel a la partida, de
+     * la partida a la pantalla final y de ésta otra vez a la selección.
+     * @author José Luis Pérez González
+     */
+    public enum Screen {
+        /** Pantalla de bienvenida/selección de nivel */
+        SELECTION,
+        /** Pantalla de juego propiamente dicha, con las naves etc. */
+        INGAME,
+        /** Pantalla final, con la puntuación */
+        GAMEOVER
+    }
+
+    /** La pantalla actual */
+    private final AtomicReference<Screen> screen = new AtomicReference<Screen>(Screen.SELECTION);
+    /** Total de naves enemigas restantes */
+    private final AtomicInteger remainingEnemies = new AtomicInteger();
+    /** Total de explosiones activas en este momento */
+    private final AtomicInteger explosions = new AtomicInteger();
+    /** Puntuación parcial, por naves destruidas */
+    private final AtomicInteger partialScore = new AtomicInteger();
+    /** Frames por segundo que se muestran en pantalla */
+    private final AtomicInteger fps = new AtomicInteger();
+    /** Puntuación final de la última partida */
+    private volatile double finalScore;
+
+    /**
+     * @return La pantalla actual.
+     */
+    public Screen getScreen() {
+        return screen.get();
+    }
+
+    /**
+     * Cambia de pantalla sólo si se está en la esperada.
+     * @param from La pantalla desde la que se cambia.
+     * @param to La nueva pantalla.
+     * @return True si se ha cambiado; false si no se estaba en 'from'.
+     */
+    public boolean moveTo(Screen from, Screen to) {
+        return screen.compareAndSet(from, to);
+    }
+
+    /**
+     * Empieza una partida nueva: naves restantes, sin explosiones ni puntos.
+     * @param enemies Número de naves enemigas de la partida.
+     */
+    public void reset(int enemies) {
+        remainingEnemies.set(enemies);
+        explosions.set(0);
+        partialScore.set(0);
+    }
+
+    /**
+     * @return El total de naves enemigas restantes.
+     */
+    public int getRemainingEnemies() {
+        return remainingEnemies.get();
+    }
+
+    /**
+     * Cambia el total de naves enemigas restantes.
+     * @param enemies El nuevo total.
+     */
+    public void setRemainingEnemies(int enemies) {
+        remainingEnemies.set(enemies);
+    }
+
+    /**
+     * Resta una nave destruida del total de naves enemigas restantes.
+     * @return Las naves que quedan.
+     */
+    public int enemyDestroyed() {
+        return remainingEnemies.decrementAndGet();
+    }
+
+    /**
+     * @return El total de explosiones activas.
+     */
+    public int getExplosions() {
+        return explosions.get();
+    }
+
+    /**
+     * Cuenta una explosión que empieza.
+     */
+    public void explosionStarted() {
+        explosions.incrementAndGet();
+    }
+
+    /**
+     * Descuenta una explosión que ha terminado.
+     */
+    public void explosionEnded() {
+        explosions.decrementAndGet();
+    }
+
+    /**
+     * @return La puntuación parcial de la partida.
+     */
+    public int getPartialScore() {
+        return partialScore.get();
+    }
+
+    /**
+     * Suma puntos a la puntuación parcial.
+     * @param points Los puntos obtenidos.
+     */
+    public void addScore(int points) {
+        partialScore.addAndGet(points);
+    }
+
+    /**
+     * @return Los frames por segundo.
+     */
+    public int getFps() {
+        return fps.get();
+    }
+
+    /**
+     * @param fps Los frames por segundo medidos en el último segundo.
+     */
+    public void setFps(int fps) {
+        this.fps.set(fps);
+    }
+
+    /**
+     * @return La puntuación final de la última partida.
+     */
+    public double getFinalScore() {
+        return finalScore;
+    }
+
+    /**
+     * @param score La puntuación final de la partida que acaba de terminar.
+     */
+    public void setFinalScore(double score) {
+        finalScore = score;
+    }
+}
@@ -7,6 +7,7 @@ import java.awt.GraphicsDevice;
 import java.awt.GraphicsEnvironment;
 import java.awt.Image;
 import java.awt.Transparency;
+import java.awt.image.BufferedImage;
 import java.io.IOException;
 
 import javax.imageio.ImageIO;
@@ -24,11 +25,15 @@ public class ImageLoader {
     /**
      * Constructor de la clase.
      * Recogemos el entorno gráfico que usa el sistema y a su vez
-     * la configuración del mismo.
+     * la configuración del mismo. Si no hay pantalla (modo sin pantalla,
+     * java.awt.headless) no hay nada que acelerar y las imágenes se
+     * devuelven tal cual se leen.
      */
     public ImageLoader() {
-        gd = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice();
-        gc = gd.getDefaultConfiguration();
+        if(!GraphicsEnvironment.isHeadless()) {
+            gd = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice();
+            gc = gd.getDefaultConfiguration();
+        }
     }
 
     /**
@@ -38,43 +43,86 @@ public class ImageLoader {
      * @return La imagen contenida en un objeto Image
      */
     public Image LoadImage(String imageSource) {
-        // Cargar imagen
-        try {
-            Image image = ImageIO.read(getClass().getResource(imageSource));
-            image.setAccelerationPriority(1f);
-
-            if(isAccelerated(image)) {
-                if(Game.DEBUG)
-                    System.out.println("La imagen está acelerada.");
-                return image;
-            } else {
-                if(Game.DEBUG) {
-                    System.out.println("La imagen no está acelerada.");
-                    System.out.println("Intentando acelerar la imagen.");
-                }
+        BufferedImage image = readImage(imageSource);
+        return image == null ? null : accelerate(image);
+    }
 
-                // Intento de hacer imagen acelerada
-                Image tmpImage = gc.createCompatibleVolatileImage(image.getWidth(null), image.getHeight(null), Transparency.TRANSLUCENT);
-                Graphics2D g = (Graphics2D) tmpImage.getGraphics();
-                g.setComposite(AlphaComposite.Src); // Componer la imagen de modo que los píxels transparentes 'se vean' transparantes.
-                g.drawImage(image, 0, 0, null);
-                g.dispose();
-                image = tmpImage;
+    /**
+     * Lee un archivo con la imagen, sin acelerarla, para poder acceder a sus píxels.
+     * @param imageSource La ruta hasta el archivo con la imagen.
+     * @return La imagen, o null si no se ha podido leer.
+     */
+    public BufferedImage readImage(String imageSource) {
+        try {
+            return ImageIO.read(getClass().getResource(imageSource));
+        } catch(IOException e) {
+            System.out.println("No se ha podido leer el archivo de imagen: " + imageSource);
+        }
+        return null;
+    }
 
-                if(Game.DEBUG) {
-                    if (isAccelerated(image))
-                        System.out.println("La imagen está ahora acelerada!");
-                    else
-                        System.err.println("Falló un intento de acelerar la imagen!");
-                }
+    /**
+     * Intenta que una imagen ya cargada sea acelerada por la tarjeta gráfica.
+     * <p>
+     * No se copia en una VolatileImage suelta, cuyo contenido podría perderse
+     * sin que nadie lo restaure, sino en una BufferedImage compatible con la
+     * pantalla, que Java2D acelera (y restaura) por su cuenta. Lo que se
+     * dibuja en cada frame desde una superficie acelerada propia usa
+     * {@link #manage(BufferedImage)}.
+     * </p>
+     * @param image La imagen.
+     * @return La misma imagen si ya está acelerada (o si no hay pantalla), o
+     *         una copia suya compatible con la pantalla.
+     */
+    public Image accelerate(BufferedImage image) {
+        if(gc == null)
+            return image;
+        image.setAccelerationPriority(1f);
 
-                return image;
+        if(isAccelerated(image)) {
+            if(Game.DEBUG)
+                System.out.println("La imagen está acelerada.");
+            return image;
+        } else {
+            if(Game.DEBUG) {
+                System.out.println("La imagen no está acelerada.");
+                System.out.println("Intentando acelerar la imagen.");
             }
 
-        } catch(IOException e) {
-            System.out.println("No se ha podido leer el archivo de imagen: " + imageSource);
+            // Intento de hacer imagen acelerada
+            BufferedImage tmpImage = gc.createCompatibleImage(image.getWidth(), image.getHeight(), Transparency.TRANSLUCENT);
+            Graphics2D g = tmpImage.createGraphics();
+            g.setComposite(AlphaComposite.Src); // Componer la imagen de modo que los píxels transparentes 'se vean' transparantes.
+            g.drawImage(image, 0, 0, null);
+            g.dispose();
+            tmpImage.setAccelerationPriority(1f);
+            return tmpImage;
         }
-        return null;
+    }
+
+    /**
+     * Crea una imagen vacía en la que dibujar, compatible con la pantalla
+     * para que Java2D la acelere (y la vuelva a acelerar cuando cambie).
+     * @param width Ancho en píxels.
+     * @param height Alto en píxels.
+     * @param transparency Transparency.OPAQUE o Transparency.TRANSLUCENT.
+     * @return La imagen.
+     */
+    public BufferedImage createImage(int width, int height, int transparency) {
+        if(gc != null)
+            return gc.createCompatibleImage(width, height, transparency);
+        return new BufferedImage(width, height, transparency == Transparency.OPAQUE
+                ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+    }
+
+    /**
+     * Crea una imagen acelerada que se restaura sola si la tarjeta gráfica
+     * pierde su contenido (ver {@link ManagedImage}).
+     * @param image Los píxels de la imagen; no deben modificarse después.
+     * @return La imagen acelerada.
+     */
+    public ManagedImage manage(BufferedImage image) {
+        return new ManagedImage(image, gc);
     }
 
     /**
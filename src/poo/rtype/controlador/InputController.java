@@ -9,6 +9,17 @@ import java.awt.event.KeyListener;
  * @author José Luis Pérez González
  */
 public class InputController implements KeyListener {
+    /** Bit de la tecla arriba en {@link #getKeyMask()} */
+    public static final int KEY_UP = 1;
+    /** Bit de la tecla abajo */
+    public static final int KEY_DOWN = 2;
+    /** Bit de la tecla izquierda */
+    public static final int KEY_LEFT = 4;
+    /** Bit de la tecla derecha */
+    public static final int KEY_RIGHT = 8;
+    /** Bit de la tecla de disparo */
+    public static final int KEY_FIRE = 16;
+
     /** Instancia del controlador principal del juego */
     private Game game;
 
@@ -21,21 +32,35 @@ public class InputController implements KeyListener {
         this.game = game;
     }
 
+    /**
+     * Constructor para una entrada programada, sin teclado ni ventana
+     * (la que usa {@link World}). El estado de cada tecla se cambia
+     * directamente con {@link Key#status(boolean)} o, todas a la vez, con
+     * {@link #setKeyMask(int)}.
+     */
+    public InputController() {
+        this.game = null;
+    }
+
     /**
      * Éste tipo contiene información relevante sobre la tecla que
      * se ha pulsado y se usa desde otras clases/objetos para
      * determinar qué hacer en función de la tecla que se haya pulsado
      * o dejado de pulsar.
+     * <p>
+     * La escribe el hilo de eventos de AWT y la lee el de la simulación,
+     * por eso sus campos son volatile.
+     * </p>
      *
      * @author José Luis Pérez González
      */
     public class Key {
         /** Indica si la tecla presionada en éste momento */
-        private boolean isPressed = false;
+        private volatile boolean isPressed = false;
         /** Indica si la tecla fue 'tecleada' (pulsada y luego soltada) */
-        private boolean wasTyped = false;
+        private volatile boolean wasTyped = false;
         /** Selector del nivel de juego según la tecla pulsada */
-        private int gameMode;
+        private volatile int gameMode;
 
         public boolean isPressed() {
             return isPressed;
@@ -68,9 +93,43 @@ public class InputController implements KeyListener {
     public Key left = new Key();
     public Key right = new Key();
     public Key space = new Key();
+    public Key pause = new Key();
     public Key restart = new Key();
     public Key gameMode = new Key();
 
+    /**
+     * Devuelve las teclas de movimiento y disparo pulsadas en este momento,
+     * un bit por tecla ({@link #KEY_UP}, {@link #KEY_DOWN}, {@link #KEY_LEFT},
+     * {@link #KEY_RIGHT} y {@link #KEY_FIRE}).
+     * @return Las teclas pulsadas.
+     */
+    public int getKeyMask() {
+        int mask = 0;
+        if(up.isPressed())
+            mask |= KEY_UP;
+        if(down.isPressed())
+            mask |= KEY_DOWN;
+        if(left.isPressed())
+            mask |= KEY_LEFT;
+        if(right.isPressed())
+            mask |= KEY_RIGHT;
+        if(space.isPressed())
+            mask |= KEY_FIRE;
+        return mask;
+    }
+
+    /**
+     * Pulsa o suelta las teclas de movimiento y disparo según los bits indicados.
+     * @param mask Las teclas pulsadas (ver {@link #getKeyMask()}).
+     */
+    public void setKeyMask(int mask) {
+        up.status((mask & KEY_UP) != 0);
+        down.status((mask & KEY_DOWN) != 0);
+        left.status((mask & KEY_LEFT) != 0);
+        right.status((mask & KEY_RIGHT) != 0);
+        space.status((mask & KEY_FIRE) != 0);
+    }
+
     /**
      * Se invoca al pulsar un tecla.
      */
@@ -93,7 +152,7 @@ public class InputController implements KeyListener {
      */
     @Override
     public void keyTyped(KeyEvent e) {
-        if(!game.ingame)
+        if(game == null || game.getState().getScreen() != GameState.Screen.INGAME)
             typeKey(e.getKeyChar());
 
         // Si tecleamos la tecla de Escape en cualquier momento, salimos del juego.
@@ -124,6 +183,13 @@ public class InputController implements KeyListener {
         if (keyCode == KeyEvent.VK_SPACE) {
             space.status(pressed);
         }
+        // La pausa cambia al pulsar, no mientras se mantiene pulsada.
+        if ((keyCode == KeyEvent.VK_PAUSE || keyCode == KeyEvent.VK_ENTER) && pressed && !pause.isPressed()) {
+            pause.typed(true);
+        }
+        if (keyCode == KeyEvent.VK_PAUSE || keyCode == KeyEvent.VK_ENTER) {
+            pause.status(pressed);
+        }
     }
 
     /**
@@ -133,20 +199,20 @@ public class InputController implements KeyListener {
      */
     private void typeKey(char keyChar) {
         if(keyChar == '1') {
-            gameMode.typed(true);
             gameMode.setGameMode(1);
+            gameMode.typed(true);
         }
         if(keyChar == '2') {
-            gameMode.typed(true);
             gameMode.setGameMode(2);
+            gameMode.typed(true);
         }
         if(keyChar == '3') {
-            gameMode.typed(true);
             gameMode.setGameMode(3);
+            gameMode.typed(true);
         }
         if(keyChar == '4') {
-            gameMode.typed(true);
             gameMode.setGameMode(4);
+            gameMode.typed(true);
         }
         if(keyChar == 's' || keyChar == 'S')
             restart.typed(true);
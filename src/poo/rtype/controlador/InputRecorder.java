@@ -0,0 +1,163 @@
+package poo.rtype.controlador;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Graba una partida para poder repetirla exactamente con {@link InputReplay}.
+ * <p>
+ * La simulación ({@link World}) es determinista: dados la semilla de sus
+ * números aleatorios, el nivel y, para cada paso, las teclas pulsadas y los
+ * ms simulados, siempre hace lo mismo. Así que basta con grabar eso, y sólo
+ * cuando cambia: cada cambio es el número de pasos que ha durado el estado
+ * anterior (entero de longitud variable, 1 byte para menos de 128 pasos) y un
+ * byte con las teclas, seguido de la nueva duración del paso si también ha
+ * cambiado (bit {@link #DELTA_CHANGED}). Una partida de un minuto con el
+ * teclado muy ocupado ocupa unos cientos de bytes, y grabar un paso sólo
+ * cuesta una comparación mientras no cambie nada.
+ * </p>
+ * <p>
+ * Formato del archivo: número mágico ('RTRP'), versión, semilla (long),
+ * nivel, duración inicial del paso en ms, número de pasos, suma de control
+ * del estado final ({@link World#checksum()}, long), longitud de los cambios
+ * en bytes y los cambios.
+ * </p>
+ * @author José Luis Pérez González
+ */
+public class InputRecorder {
+
+    /** Número mágico del archivo ('RTRP') */
+    static final int MAGIC = 0x52545250;
+    /** Versión del formato */
+    static final int VERSION = 7;
+    /** Bit del byte de teclas que indica que detrás va la nueva duración del paso */
+    static final int DELTA_CHANGED = 0x80;
+
+    /** Semilla de la partida */
+    private final long seed;
+    /** Nivel de la partida */
+    private final int gameMode;
+    /** Duración del paso con la que empieza la grabación */
+    private final int step;
+    /** Cambios grabados hasta ahora */
+    private byte[] events = new byte[256];
+    /** Bytes usados de 'events' */
+    private int size;
+    /** Teclas pulsadas en el último paso grabado */
+    private int lastKeys;
+    /** Duración del último paso grabado */
+    private long lastDelta;
+    /** Pasos seguidos con las mismas teclas y duración */
+    private int run;
+    /** Pasos grabados */
+    private int ticks;
+    /** Suma de control del estado final, una vez terminada la grabación */
+    private long checksum;
+
+    /**
+     * Constructor de la clase.
+     * @param seed Semilla con la que ha empezado la partida.
+     * @param gameMode Nivel de la partida.
+     * @param step Duración habitual del paso en ms.
+     */
+    public InputRecorder(long seed, int gameMode, int step) {
+        this.seed = seed;
+        this.gameMode = gameMode;
+        this.step = step;
+        this.lastDelta = step;
+    }
+
+    /**
+     * Graba un paso. Debe llamarse una vez por paso, antes de simularlo.
+     * @param keys Teclas pulsadas (ver {@link InputController#getKeyMask()}).
+     * @param delta Los ms que se van a simular.
+     */
+    public void record(int keys, long delta) {
+        if(keys != lastKeys || delta != lastDelta) {
+            writeVarint(run);
+            if(delta != lastDelta) {
+                writeByte(keys | DELTA_CHANGED);
+                writeVarint(delta);
+            } else {
+                writeByte(keys);
+            }
+            lastKeys = keys;
+            lastDelta = delta;
+            run = 0;
+        }
+        run++;
+        ticks++;
+    }
+
+    /**
+     * Termina la grabación.
+     * @param checksum Suma de control del estado de la simulación al terminar.
+     */
+    public void finish(long checksum) {
+        this.checksum = checksum;
+    }
+
+    /**
+     * @return El número de pasos grabados.
+     */
+    public int getTicks() {
+        return ticks;
+    }
+
+    /**
+     * @return El tamaño en bytes de los cambios grabados.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Guarda la grabación terminada en un archivo.
+     * @param file Archivo de destino; se sobrescribe si existe.
+     * @throws IOException Si no se puede escribir.
+     */
+    public void save(File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(seed);
+            out.writeInt(gameMode);
+            out.writeInt(step);
+            out.writeInt(ticks);
+            out.writeLong(checksum);
+            out.writeInt(size);
+            out.write(events, 0, size);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Añade un entero no negativo con 7 bits por byte; el bit alto indica que sigue otro byte.
+     * @param value El valor.
+     */
+    private void writeVarint(long value) {
+        while(value >= 0x80) {
+            writeByte((int)(value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        writeByte((int)value);
+    }
+
+    /**
+     * Añade un byte, ampliando el array si hace falta.
+     * @param value El byte.
+     */
+    private void writeByte(int value) {
+        if(size == events.length) {
+            byte[] bigger = new byte[events.length * 2];
+            System.arraycopy(events, 0, bigger, 0, size);
+            events = bigger;
+        }
+        events[size++] = (byte)value;
+    }
+}
@@ -0,0 +1,175 @@
+package poo.rtype.controlador;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Repite una partida grabada con {@link InputRecorder}: da, paso a paso,
+ * las mismas teclas y duraciones con las que se jugó.
+ * <pre>
+ * InputReplay replay = InputReplay.load(file);
+ * world.start(replay.getGameMode(), replay.getSeed());
+ * while(replay.hasNext()) {
+ *     replay.next();
+ *     world.tick(replay.getDelta(), replay.getKeys());
+ * }
+ * boolean same = replay.matches(world);
+ * </pre>
+ * @author José Luis Pérez González
+ */
+public class InputReplay {
+
+    /** Semilla de la partida */
+    private final long seed;
+    /** Nivel de la partida */
+    private final int gameMode;
+    /** Número de pasos grabados */
+    private final int ticks;
+    /** Suma de control del estado final */
+    private final long checksum;
+    /** Cambios grabados */
+    private final byte[] events;
+    /** Posición del siguiente byte a leer de 'events' */
+    private int position;
+    /** Pasos repetidos hasta ahora */
+    private int tick;
+    /** Pasos que quedan con las teclas y duración actuales antes del siguiente cambio */
+    private long remaining;
+    /** Teclas del paso actual */
+    private int keys;
+    /** Duración del paso actual */
+    private long delta;
+
+    /**
+     * Constructor de la clase.
+     * @param seed Semilla de la partida.
+     * @param gameMode Nivel de la partida.
+     * @param step Duración inicial del paso en ms.
+     * @param ticks Número de pasos grabados.
+     * @param checksum Suma de control del estado final.
+     * @param events Cambios grabados.
+     */
+    private InputReplay(long seed, int gameMode, int step, int ticks, long checksum, byte[] events) {
+        this.seed = seed;
+        this.gameMode = gameMode;
+        this.delta = step;
+        this.ticks = ticks;
+        this.checksum = checksum;
+        this.events = events;
+        remaining = position < events.length ? readVarint() : Long.MAX_VALUE;
+    }
+
+    /**
+     * Lee una grabación de un archivo.
+     * @param file El archivo.
+     * @return La grabación, lista para repetirse desde el principio.
+     * @throws IOException Si no se puede leer o no es una grabación válida.
+     */
+    public static InputReplay load(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if(in.readInt() != InputRecorder.MAGIC)
+                throw new IOException(file + " no es una grabación de R-Type");
+            int version = in.readInt();
+            if(version != InputRecorder.VERSION)
+                throw new IOException("Versión de grabación desconocida: " + version);
+            long seed = in.readLong();
+            int gameMode = in.readInt();
+            int step = in.readInt();
+            int ticks = in.readInt();
+            long checksum = in.readLong();
+            byte[] events = new byte[in.readInt()];
+            in.readFully(events);
+            return new InputReplay(seed, gameMode, step, ticks, checksum, events);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @return True si quedan pasos por repetir.
+     */
+    public boolean hasNext() {
+        return tick < ticks;
+    }
+
+    /**
+     * Pasa al siguiente paso; sus teclas y duración quedan en
+     * {@link #getKeys()} y {@link #getDelta()}.
+     */
+    public void next() {
+        while(remaining == 0) {
+            int b = events[position++] & 0xff;
+            keys = b & ~InputRecorder.DELTA_CHANGED;
+            if((b & InputRecorder.DELTA_CHANGED) != 0)
+                delta = readVarint();
+            remaining = position < events.length ? readVarint() : Long.MAX_VALUE;
+        }
+        remaining--;
+        tick++;
+    }
+
+    /**
+     * @return Las teclas pulsadas en el paso actual (ver {@link InputController#getKeyMask()}).
+     */
+    public int getKeys() {
+        return keys;
+    }
+
+    /**
+     * @return Los ms simulados en el paso actual.
+     */
+    public long getDelta() {
+        return delta;
+    }
+
+    /**
+     * @return La semilla con la que empezó la partida.
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * @return El nivel de la partida.
+     */
+    public int getGameMode() {
+        return gameMode;
+    }
+
+    /**
+     * @return El número de pasos grabados.
+     */
+    public int getTicks() {
+        return ticks;
+    }
+
+    /**
+     * Comprueba si la repetición ha llegado exactamente al mismo estado que
+     * la partida grabada: mismo número de pasos y misma suma de control.
+     * @param world La simulación en la que se ha repetido la partida.
+     * @return True si coinciden.
+     */
+    public boolean matches(World world) {
+        return world.getTicks() == ticks && world.checksum() == checksum;
+    }
+
+    /**
+     * Lee un entero con 7 bits por byte (ver {@link InputRecorder}).
+     * @return El valor.
+     */
+    private long readVarint() {
+        long value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = events[position++] & 0xff;
+            value |= (long)(b & 0x7f) << shift;
+            shift += 7;
+        } while((b & 0x80) != 0);
+        return value;
+    }
+}
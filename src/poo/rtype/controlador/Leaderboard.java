@@ -0,0 +1,587 @@
+package poo.rtype.controlador;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Registro de todas las partidas jugadas, con consultas inmediatas de las
+ * mejores puntuaciones y del puesto de una puntuación, en total o por nivel
+ * de dificultad, sin cargar el histórico en memoria.
+ * <p>
+ * Se guarda en dos archivos proyectados en memoria (memory-mapped) en el
+ * directorio del usuario (~/.rtype, o el indicado con la propiedad 'rtype.home'):
+ * </p>
+ * <ul>
+ * <li>leaderboard.dat: el histórico, una cabecera y un registro de tamaño fijo
+ * ({@link #RECORD_SIZE} bytes) por partida, añadidos siempre al final:
+ * puntuación, nivel, suma de comprobación, fecha y enlace a la partida
+ * anterior de la misma posición del índice. El número de registros de la
+ * cabecera se actualiza después de escribir el registro, así que uno a
+ * medio escribir nunca cuenta.</li>
+ * <li>leaderboard.idx: el índice, un árbol de Fenwick (árbol binario indexado)
+ * por nivel y otro para todos, con el número de partidas de cada puntuación
+ * (en unidades de {@link #SCORE_UNIT} puntos), y la última partida de cada
+ * posición, de la que sale la lista enlazada de todas las de esa posición.
+ * Con él, contar cuántas puntuaciones superan a una dada o encontrar la
+ * k-ésima mejor cuesta O(log n) lecturas del archivo, sea cual sea el
+ * número de partidas, más recorrer las partidas de una sola posición para
+ * leer del histórico las puntuaciones exactas.</li>
+ * </ul>
+ * <p>
+ * El índice se puede reconstruir siempre a partir del histórico: al abrirlo
+ * se añaden los registros que falten y, si quedó a medio actualizar, se
+ * rehace entero. Las escrituras van directamente a la memoria proyectada; un
+ * hilo propio se encarga de forzarlas a disco sin detener el bucle del juego.
+ * </p>
+ * <p>
+ * Si el sistema se cae, las páginas proyectadas pueden llegar al disco en
+ * cualquier orden: la cabecera puede contar registros que se quedaron en
+ * ceros. Por eso el hilo de escritura anota en la cabecera cuántos registros
+ * había cuando terminó de forzarlos a disco, y al abrir el histórico sólo
+ * se comprueban (con la suma de cada registro) los posteriores, quitando de
+ * la cuenta el primero que no sea válido y todos los que le siguen.
+ * </p>
+ * @author José Luis Pérez González
+ */
+public class Leaderboard {
+
+    /** Nivel a usar en las consultas para tener en cuenta todos los niveles */
+    public static final int ALL_MODES = -1;
+    /** Número de niveles (0 para las puntuaciones importadas sin nivel, y del 1 al 4) */
+    private static final int MODES = 5;
+    /**
+     * Tamaño de cada registro en bytes: puntuación (double), nivel (int), suma de comprobación (int),
+     * fecha (long), partida anterior de la misma posición del índice (int, su número más uno) y reservado (int)
+     */
+    public static final int RECORD_SIZE = 32;
+    /** Tamaño de cada registro de scores.dat, la tabla de puntuaciones anterior */
+    private static final int LEGACY_RECORD_SIZE = 24;
+    /** Puntos que representa cada posición del índice */
+    public static final int SCORE_UNIT = 10;
+    /**
+     * Posiciones del índice: puntuaciones de 0 a KEYS * SCORE_UNIT. Las mayores van a la última
+     * (y las negativas a la primera), pero las consultas leen del histórico su valor exacto
+     */
+    private static final int KEYS = 1 << 17;
+
+    /** Número mágico del histórico ('RTLB') */
+    private static final int LOG_MAGIC = 0x52544c42;
+    /** Número mágico del índice ('RTLI') */
+    private static final int INDEX_MAGIC = 0x52544c49;
+    /** Versión del formato de los archivos */
+    private static final int VERSION = 2;
+    /** Cabecera del histórico: número mágico, versión, número de registros (long) y registros ya en disco (long) */
+    private static final int LOG_HEADER = 24;
+    /** Cabecera del índice: número mágico, versión, registros indexados (long) y marca de actualización en curso */
+    private static final int INDEX_HEADER = 24;
+    /** Posición del número de registros en la cabecera del histórico */
+    private static final int LOG_COUNT = 8;
+    /** Posición del número de registros que se sabe que están en disco en la cabecera del histórico */
+    private static final int LOG_DURABLE = 16;
+    /** Valor con el que se mezcla la suma de cada registro, para que uno en ceros no sea válido */
+    private static final int CHECK_SEED = 0x5a17c0de;
+    /** Posición del número de registros indexados en la cabecera del índice */
+    private static final int INDEX_COUNT = 8;
+    /** Posición de la marca de actualización en curso en la cabecera del índice */
+    private static final int INDEX_DIRTY = 16;
+    /** Posición de la última partida de cada posición en el índice, tras los árboles */
+    private static final int INDEX_HEADS = INDEX_HEADER + (MODES + 1) * (KEYS + 1) * 8;
+    /** Registros para los que hay sitio al crear el histórico; luego se duplica cuando hace falta */
+    private static final int INITIAL_CAPACITY = 4096;
+    /**
+     * Máximo de registros del histórico: una proyección en memoria no puede pasar de
+     * Integer.MAX_VALUE bytes, y así las posiciones de los registros caben en un int
+     */
+    static final int MAX_RECORDS = (Integer.MAX_VALUE - LOG_HEADER) / RECORD_SIZE;
+
+    /** Archivo del histórico */
+    private final RandomAccessFile logFile;
+    /** Archivo del índice */
+    private final RandomAccessFile indexFile;
+    /** Histórico proyectado en memoria */
+    private MappedByteBuffer log;
+    /** Índice proyectado en memoria */
+    private MappedByteBuffer index;
+    /** Número de registros del histórico */
+    private long count;
+    /** Número de registros para los que hay sitio en la proyección actual del histórico */
+    private long capacity;
+
+    /** Hilo que fuerza las escrituras a disco */
+    private final ExecutorService writer;
+    /** True si hay una escritura a disco pendiente, para no encolar más de una */
+    private final AtomicBoolean pending = new AtomicBoolean();
+
+    /**
+     * Constructor de la clase. Abre (o crea) el histórico y el índice, y pone
+     * el índice al día.
+     * @param directory Directorio donde se guardan los archivos; se crea si no existe.
+     * @throws IOException Si no se pueden abrir los archivos.
+     */
+    public Leaderboard(File directory) throws IOException {
+        directory.mkdirs();
+        File logPath = new File(directory, "leaderboard.dat");
+        boolean created = !logPath.exists() || logPath.length() == 0;
+        logFile = new RandomAccessFile(logPath, "rw");
+        indexFile = new RandomAccessFile(new File(directory, "leaderboard.idx"), "rw");
+        writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "R-Type leaderboard");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+        openLog(created);
+        openIndex();
+        if(created)
+            importLegacy(directory);
+    }
+
+    /**
+     * @return El directorio por defecto: la propiedad 'rtype.home' o ~/.rtype.
+     */
+    public static File defaultDirectory() {
+        String home = System.getProperty("rtype.home");
+        if(home != null)
+            return new File(home);
+        return new File(System.getProperty("user.home"), ".rtype");
+    }
+
+    /**
+     * Proyecta el histórico en memoria, escribiendo la cabecera si es nuevo.
+     * @param created True si el archivo acaba de crearse.
+     * @throws IOException Si el archivo no es un histórico válido o no se puede proyectar.
+     */
+    private void openLog(boolean created) throws IOException {
+        long size = Math.max(logFile.length(), LOG_HEADER + (long)INITIAL_CAPACITY * RECORD_SIZE);
+        mapLog(size);
+        if(created) {
+            log.putInt(0, LOG_MAGIC);
+            log.putInt(4, VERSION);
+            log.putLong(LOG_COUNT, 0);
+            log.putLong(LOG_DURABLE, 0);
+        } else if(log.getInt(0) != LOG_MAGIC || log.getInt(4) != VERSION) {
+            throw new IOException("El archivo de puntuaciones no es válido");
+        }
+        count = log.getLong(LOG_COUNT);
+        if(count < 0 || count > capacity)
+            throw new IOException("El archivo de puntuaciones está dañado");
+        // Los registros posteriores al último forzado a disco pueden haberse perdido en una caída.
+        long durable = Math.max(0, Math.min(count, log.getLong(LOG_DURABLE)));
+        for(long i = durable; i < count; i++) {
+            if(!isValid(i)) {
+                count = i;
+                log.putLong(LOG_COUNT, count);
+                break;
+            }
+        }
+    }
+
+    /**
+     * @param i El número de un registro.
+     * @return Su posición en bytes dentro del histórico.
+     */
+    private static int record(long i) {
+        return (int)(LOG_HEADER + i * RECORD_SIZE);
+    }
+
+    /**
+     * @param score La puntuación de una partida.
+     * @param gameMode Su nivel.
+     * @param date Su fecha.
+     * @return La suma de comprobación de su registro.
+     */
+    private static int check(double score, int gameMode, long date) {
+        long bits = Double.doubleToLongBits(score);
+        int h = (int)(bits ^ (bits >>> 32));
+        h = h * 31 + gameMode;
+        h = h * 31 + (int)(date ^ (date >>> 32));
+        return h ^ CHECK_SEED;
+    }
+
+    /**
+     * @param i El número de un registro.
+     * @return True si su suma de comprobación coincide con su contenido.
+     */
+    private boolean isValid(long i) {
+        int offset = record(i);
+        return log.getInt(offset + 12) == check(log.getDouble(offset), log.getInt(offset + 8), log.getLong(offset + 16));
+    }
+
+    /**
+     * (Re)proyecta el histórico con el tamaño indicado, ampliando el archivo si es necesario.
+     * @param size Tamaño en bytes.
+     * @throws IOException Si no se puede proyectar.
+     */
+    private void mapLog(long size) throws IOException {
+        if(size > LOG_HEADER + (long)MAX_RECORDS * RECORD_SIZE)
+            throw new IOException("El archivo de puntuaciones es demasiado grande (" + size + " bytes)");
+        log = logFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        capacity = (size - LOG_HEADER) / RECORD_SIZE;
+    }
+
+    /**
+     * Proyecta el índice en memoria y lo pone al día con el histórico: si no
+     * existe, no es válido o quedó a medio actualizar, se reconstruye entero;
+     * si le faltan registros, se añaden.
+     * @throws IOException Si no se puede proyectar.
+     */
+    private void openIndex() throws IOException {
+        long size = INDEX_HEADS + (long)KEYS * 4;
+        boolean valid = indexFile.length() == size;
+        index = indexFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        valid = valid && index.getInt(0) == INDEX_MAGIC && index.getInt(4) == VERSION
+                && index.getInt(INDEX_DIRTY) == 0 && index.getLong(INDEX_COUNT) <= count;
+        long indexed = valid ? index.getLong(INDEX_COUNT) : 0;
+        if(!valid) {
+            for(long offset = INDEX_HEADER; offset < size; offset += 8)
+                index.putLong((int)offset, 0);
+            index.putInt(0, INDEX_MAGIC);
+            index.putInt(4, VERSION);
+        }
+        index.putInt(INDEX_DIRTY, 1);
+        for(long i = indexed; i < count; i++)
+            addToIndex(i);
+        index.putLong(INDEX_COUNT, count);
+        index.putInt(INDEX_DIRTY, 0);
+    }
+
+    /**
+     * Añade una partida al histórico y al índice, y programa su escritura en disco.
+     * @param score La puntuación.
+     * @param gameMode El nivel de dificultad en el que se ha obtenido.
+     */
+    public synchronized void add(double score, int gameMode) {
+        try {
+            if(count == capacity) {
+                // No se pasa nunca de MAX_RECORDS: la posición de cada registro debe caber en un int.
+                if(capacity >= MAX_RECORDS)
+                    throw new IOException("El histórico de puntuaciones está lleno (" + count + " partidas)");
+                mapLog(LOG_HEADER + Math.min(capacity * 2, MAX_RECORDS) * RECORD_SIZE);
+            }
+        } catch(IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        int offset = record(count);
+        long date = System.currentTimeMillis();
+        log.putDouble(offset, score);
+        log.putInt(offset + 8, gameMode);
+        log.putInt(offset + 12, check(score, gameMode, date));
+        log.putLong(offset + 16, date);
+        log.putInt(offset + 28, 0);
+        count++;
+        log.putLong(LOG_COUNT, count);
+
+        index.putInt(INDEX_DIRTY, 1);
+        addToIndex(count - 1);
+        index.putLong(INDEX_COUNT, count);
+        index.putInt(INDEX_DIRTY, 0);
+        scheduleForce();
+    }
+
+    /**
+     * Cuenta una partida del histórico en el árbol de su nivel y en el de
+     * todos, y la enlaza con las demás de su posición.
+     * @param i El número de su registro.
+     */
+    private void addToIndex(long i) {
+        int offset = record(i);
+        int key = key(log.getDouble(offset));
+        increment(tree(ALL_MODES), key);
+        increment(tree(log.getInt(offset + 8)), key);
+        log.putInt(offset + 24, head(key));
+        index.putInt(INDEX_HEADS + key * 4, (int)(i + 1));
+    }
+
+    /**
+     * @param key Una posición del índice (0..KEYS-1).
+     * @return El número más uno de la última partida de esa posición, o 0 si no hay ninguna.
+     */
+    private int head(int key) {
+        return index.getInt(INDEX_HEADS + key * 4);
+    }
+
+    /**
+     * @param link El número más uno de una partida.
+     * @return El de la partida anterior de su misma posición del índice, o 0 si no hay ninguna.
+     */
+    private int next(int link) {
+        return log.getInt(record(link - 1) + 24);
+    }
+
+    /**
+     * @param tree Un árbol del índice.
+     * @param gameMode El nivel de una partida.
+     * @return True si la partida cuenta en ese árbol.
+     */
+    private static boolean inTree(int tree, int gameMode) {
+        return tree == tree(ALL_MODES) || tree == tree(gameMode);
+    }
+
+    /**
+     * @param mode Un nivel o ALL_MODES.
+     * @return El árbol del índice correspondiente (los niveles desconocidos cuentan como 0).
+     */
+    private static int tree(int mode) {
+        if(mode == ALL_MODES)
+            return 0;
+        if(mode < 0 || mode >= MODES)
+            mode = 0;
+        return mode + 1;
+    }
+
+    /**
+     * @param score Una puntuación.
+     * @return Su posición (0..KEYS-1) en el índice.
+     */
+    private static int key(double score) {
+        long key = (long)(score / SCORE_UNIT);
+        if(key < 0)
+            return 0;
+        return (int)Math.min(KEYS - 1, key);
+    }
+
+    /**
+     * @param tree El árbol.
+     * @param i Posición dentro del árbol (1..KEYS).
+     * @return La posición en bytes dentro del índice.
+     */
+    private static int offset(int tree, int i) {
+        return INDEX_HEADER + (tree * (KEYS + 1) + i) * 8;
+    }
+
+    /**
+     * Suma una partida en la posición indicada de un árbol.
+     * @param tree El árbol.
+     * @param key La posición (0..KEYS-1).
+     */
+    private void increment(int tree, int key) {
+        for(int i = key + 1; i <= KEYS; i += i & -i) {
+            int offset = offset(tree, i);
+            index.putLong(offset, index.getLong(offset) + 1);
+        }
+    }
+
+    /**
+     * @param tree El árbol.
+     * @param keys Número de posiciones a sumar desde la primera.
+     * @return El número de partidas en las posiciones 0..keys-1.
+     */
+    private long prefix(int tree, int keys) {
+        long sum = 0;
+        for(int i = keys; i > 0; i -= i & -i)
+            sum += index.getLong(offset(tree, i));
+        return sum;
+    }
+
+    /**
+     * @param gameMode Un nivel o ALL_MODES.
+     * @return El número de partidas registradas.
+     */
+    public synchronized long size(int gameMode) {
+        return prefix(tree(gameMode), KEYS);
+    }
+
+    /**
+     * Devuelve el puesto que ocupa una puntuación: uno más que el número de
+     * partidas con una puntuación mayor.
+     * @param score La puntuación.
+     * @param gameMode Un nivel o ALL_MODES.
+     * @return El puesto, empezando en 1.
+     */
+    public synchronized long rank(double score, int gameMode) {
+        int tree = tree(gameMode);
+        int key = key(score);
+        long greater = prefix(tree, KEYS) - prefix(tree, key + 1);
+        // Las de su misma posición del índice se comparan con su valor exacto.
+        for(int link = head(key); link != 0; link = next(link)) {
+            int offset = record(link - 1);
+            if(inTree(tree, log.getInt(offset + 8)) && log.getDouble(offset) > score)
+                greater++;
+        }
+        return greater + 1;
+    }
+
+    /**
+     * Copia las mejores puntuaciones, de mayor a menor, en un array. Si hay
+     * menos partidas que posiciones pedidas, el resto se rellena con ceros.
+     * @param gameMode Un nivel o ALL_MODES.
+     * @param into El array de destino.
+     * @param offset Posición del array donde se copia la primera.
+     * @param n Número de puntuaciones a copiar.
+     * @return El número de puntuaciones copiadas (sin contar los ceros de relleno).
+     */
+    public synchronized int top(int gameMode, double[] into, int offset, int n) {
+        int tree = tree(gameMode);
+        long total = prefix(tree, KEYS);
+        int found = 0;
+        long k = 1;
+        while(found < n && k <= total) {
+            // El índice dice en qué posición está la k-ésima mejor; sus valores exactos salen del histórico.
+            int key = select(tree, total - k + 1);
+            long games = prefix(tree, key + 1) - prefix(tree, key);
+            int wanted = (int)Math.min(n - found, games);
+            int base = offset + found;
+            int kept = 0;
+            for(int link = head(key); link != 0; link = next(link)) {
+                int record = record(link - 1);
+                if(!inTree(tree, log.getInt(record + 8)))
+                    continue;
+                double score = log.getDouble(record);
+                if(kept == wanted && score <= into[base + kept - 1])
+                    continue;
+                // Inserción ordenada de mayor a menor entre las 'wanted' mejores de la posición.
+                int j = kept < wanted ? kept++ : kept - 1;
+                while(j > 0 && into[base + j - 1] < score) {
+                    into[base + j] = into[base + j - 1];
+                    j--;
+                }
+                into[base + j] = score;
+            }
+            found += kept;
+            k += games;
+        }
+        Arrays.fill(into, offset + found, offset + n, 0);
+        return found;
+    }
+
+    /**
+     * Busca la posición de la k-ésima menor puntuación de un árbol,
+     * bajando por potencias de dos.
+     * @param tree El árbol.
+     * @param k El orden, entre 1 y el número de partidas del árbol.
+     * @return La posición (0..KEYS-1).
+     */
+    private int select(int tree, long k) {
+        int pos = 0;
+        for(int step = KEYS; step > 0; step >>= 1) {
+            if(pos + step <= KEYS) {
+                long value = index.getLong(offset(tree, pos + step));
+                if(value < k) {
+                    pos += step;
+                    k -= value;
+                }
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * Encola una escritura a disco si no hay ya una pendiente.
+     */
+    private void scheduleForce() {
+        if(!pending.compareAndSet(false, true))
+            return;
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                pending.set(false);
+                MappedByteBuffer l, i;
+                long forced;
+                synchronized(Leaderboard.this) {
+                    l = log;
+                    i = index;
+                    forced = count;
+                }
+                l.force();
+                i.force();
+                // Los registros anteriores a 'forced' ya están en disco: al abrir no hace falta comprobarlos.
+                synchronized(Leaderboard.this) {
+                    log.putLong(LOG_DURABLE, forced);
+                }
+            }
+        });
+    }
+
+    /**
+     * Espera a que terminen las escrituras a disco pendientes.
+     */
+    public void flush() {
+        try {
+            writer.submit(new Runnable() {
+                @Override
+                public void run() {}
+            }).get();
+        } catch(Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Importa la tabla de puntuaciones anterior: scores.dat si existe (registros
+     * de {@link #LEGACY_RECORD_SIZE} bytes tras una cabecera de 12 bytes) o, si
+     * no, /poo/rtype/scores.txt (una puntuación por línea).
+     * @param directory El directorio de los archivos.
+     */
+    private void importLegacy(File directory) {
+        File scores = new File(directory, "scores.dat");
+        if(scores.exists()) {
+            RandomAccessFile raf = null;
+            try {
+                raf = new RandomAccessFile(scores, "r");
+                ByteBuffer buffer = ByteBuffer.allocate((int)raf.length());
+                raf.readFully(buffer.array());
+                if(buffer.remaining() >= 12 && buffer.getInt() == 0x52545343) {
+                    buffer.getInt();
+                    int n = buffer.getInt();
+                    for(int i = 0; i < n && buffer.remaining() >= LEGACY_RECORD_SIZE; i++) {
+                        double score = buffer.getDouble();
+                        int mode = buffer.getInt();
+                        buffer.getInt();
+                        buffer.getLong();
+                        if(score > 0)
+                            add(score, mode);
+                    }
+                }
+            } catch(IOException e) {
+                e.printStackTrace();
+            } finally {
+                try {
+                    if(raf != null) raf.close();
+                } catch(IOException e2) {
+                    e2.printStackTrace();
+                }
+            }
+            return;
+        }
+
+        InputStream input = null;
+        BufferedReader br = null;
+        try {
+            input = Leaderboard.class.getResourceAsStream("/poo/rtype/scores.txt");
+            if(input == null)
+                return;
+            br = new BufferedReader(new InputStreamReader(input));
+            String line;
+            while((line = br.readLine()) != null) {
+                line = line.trim();
+                if(line.length() > 0)
+                    add(Double.parseDouble(line), 0);
+            }
+        } catch(Exception e) {
+            e.printStackTrace();
+        } finally {
+            try {
+                if(br != null) br.close();
+                if(input != null) input.close();
+            } catch(Exception e2) {
+                e2.printStackTrace();
+            }
+        }
+    }
+}
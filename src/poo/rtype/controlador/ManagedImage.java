@@ -0,0 +1,196 @@
+package poo.rtype.controlador;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Image;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.awt.image.VolatileImage;
+
+/**
+ * Imagen acelerada que no se pierde: una VolatileImage (en la memoria de la
+ * tarjeta gráfica) con una copia de sus píxels en una BufferedImage.
+ * <p>
+ * El contenido de una VolatileImage puede perderse en cualquier momento
+ * (un cambio de modo de pantalla, un reinicio de la tarjeta gráfica, otra
+ * aplicación a pantalla completa...) y entonces se dibuja basura o se pasa
+ * a pintar por software, mucho más despacio. Por eso, antes de pintar cada
+ * frame hay que llamar a {@link #validate()}, que vuelve a copiar la
+ * imagen desde la copia en memoria si hace falta (o crea otra VolatileImage
+ * si la anterior ya no es compatible con la pantalla), y después
+ * comprobar {@link #contentsLost()} para repetir el frame si se ha perdido
+ * mientras tanto.
+ * </p>
+ * <p>
+ * Si no hay pantalla o no se puede crear una superficie acelerada se usa
+ * directamente la copia en memoria (que Java2D también intenta acelerar
+ * por su cuenta). Se vuelve a intentar al cabo de un segundo, y cada vez
+ * que falla se espera el doble, hasta {@link #MAX_ATTEMPTS} intentos
+ * seguidos; después se sigue siempre con la copia en memoria. El aviso de
+ * que no se ha podido acelerar se muestra una sola vez.
+ * </p>
+ * <p>
+ * Sólo debe validarla el hilo de pintado.
+ * </p>
+ * @author José Luis Pérez González
+ */
+public class ManagedImage {
+
+    /** Tiempo en ns que se espera tras el primer intento fallido de crear una superficie acelerada */
+    private static final long RETRY_NANOS = 1000000000L;
+    /** Intentos fallidos seguidos tras los que ya no se intenta más */
+    private static final int MAX_ATTEMPTS = 8;
+    /** True si ya se ha avisado de que no se puede acelerar alguna imagen */
+    private static volatile boolean warned;
+
+    /** Configuración de la pantalla, o null si no hay pantalla */
+    private final GraphicsConfiguration gc;
+    /** Copia de los píxels en memoria */
+    private final BufferedImage backing;
+    /** Superficie acelerada, o null si no la hay */
+    private volatile VolatileImage surface;
+    /** Momento (System.nanoTime) del último intento fallido de acelerarla */
+    private long lastAttempt;
+    /** Intentos fallidos seguidos de acelerarla */
+    private int failures;
+    /** Veces que se ha vuelto a copiar o a crear la superficie acelerada (sólo la cambia el hilo de pintado) */
+    private volatile int restores;
+
+    /**
+     * Constructor de la clase. Crea la superficie acelerada si hay pantalla.
+     * @param backing Los píxels de la imagen; no deben modificarse después.
+     * @param gc Configuración de la pantalla, o null si no hay pantalla.
+     */
+    public ManagedImage(BufferedImage backing, GraphicsConfiguration gc) {
+        this.backing = backing;
+        this.gc = gc;
+        if(gc != null)
+            surface = create();
+    }
+
+    /**
+     * @return Lo que se dibuja: la superficie acelerada o, si no la hay, la copia en memoria.
+     */
+    public Image getImage() {
+        VolatileImage image = surface;
+        return image != null ? image : backing;
+    }
+
+    /**
+     * @return La copia de los píxels en memoria.
+     */
+    public BufferedImage getBacking() {
+        return backing;
+    }
+
+    /**
+     * Comprueba que la superficie acelerada sigue siendo válida para la
+     * pantalla y, si no, restaura su contenido desde la copia en memoria o
+     * crea otra. Se llama antes de dibujar cada frame.
+     * @return True si se ha restaurado o vuelto a crear la superficie (la
+     *         imagen se ha vuelto a acelerar).
+     */
+    public boolean validate() {
+        if(gc == null)
+            return false;
+        VolatileImage image = surface;
+        if(image == null) {
+            // Tras cada intento fallido se espera el doble que tras el anterior.
+            if(failures >= MAX_ATTEMPTS
+                    || System.nanoTime() - lastAttempt < RETRY_NANOS << Math.max(failures - 1, 0))
+                return false;
+            surface = create();
+            return surface != null && restored();
+        }
+        switch(image.validate(gc)) {
+            case VolatileImage.IMAGE_OK:
+                return false;
+            case VolatileImage.IMAGE_RESTORED:
+                copy(image);
+                return restored();
+            default:
+                // Ya no sirve para esta pantalla. No se libera: quizá la use todavía
+                // alguna instantánea ya publicada, hasta la siguiente.
+                surface = create();
+                return surface != null && restored();
+        }
+    }
+
+    /**
+     * @return True si el contenido de la superficie acelerada se ha perdido
+     *         desde la última validación (hay que repetir el frame).
+     */
+    public boolean contentsLost() {
+        VolatileImage image = surface;
+        return image != null && image.contentsLost();
+    }
+
+    /**
+     * @return Las veces que se ha vuelto a copiar o a crear la superficie acelerada.
+     */
+    public int getRestores() {
+        return restores;
+    }
+
+    /**
+     * Libera la superficie acelerada. La imagen se sigue pudiendo dibujar desde la copia en memoria.
+     */
+    public void flush() {
+        VolatileImage image = surface;
+        surface = null;
+        if(image != null)
+            image.flush();
+    }
+
+    /**
+     * Cuenta una restauración.
+     * @return Siempre true.
+     */
+    private boolean restored() {
+        restores++;
+        return true;
+    }
+
+    /**
+     * Crea una superficie acelerada con el contenido de la copia en memoria.
+     * @return La superficie, o null si no se ha podido crear acelerada.
+     */
+    private VolatileImage create() {
+        VolatileImage image = gc.createCompatibleVolatileImage(backing.getWidth(), backing.getHeight(),
+                Transparency.TRANSLUCENT);
+        if(image == null || !image.getCapabilities().isAccelerated()
+                || image.validate(gc) == VolatileImage.IMAGE_INCOMPATIBLE) {
+            if(image != null)
+                image.flush();
+            failed();
+            return null;
+        }
+        failures = 0;
+        copy(image);
+        return image;
+    }
+
+    /**
+     * Apunta un intento fallido de acelerar la imagen y avisa, sólo la primera vez.
+     */
+    private void failed() {
+        lastAttempt = System.nanoTime();
+        failures++;
+        if(Game.DEBUG && !warned) {
+            warned = true;
+            System.err.println("No se ha podido acelerar una imagen; se pinta desde memoria.");
+        }
+    }
+
+    /**
+     * Copia la imagen en memoria en la superficie acelerada.
+     * @param image La superficie.
+     */
+    private void copy(VolatileImage image) {
+        Graphics2D g = image.createGraphics();
+        g.setComposite(AlphaComposite.Src); // Los píxels transparentes se copian transparentes.
+        g.drawImage(backing, 0, 0, null);
+        g.dispose();
+    }
+}
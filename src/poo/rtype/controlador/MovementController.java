@@ -2,58 +2,278 @@ package poo.rtype.controlador;
 
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.Random;
 
+import poo.rtype.modelo.Explosion;
 import poo.rtype.modelo.Player;
 import poo.rtype.modelo.interfaces.EffectIF;
-import poo.rtype.modelo.interfaces.EntityIF;
 
 /**
  * Controlador para actualizar las posiciones (mover) los diferentes
  * objetos que se sitúan en la pantalla de juego.
+ * <p>
+ * Las entidades (jugador, naves enemigas y misiles) se mueven todas a la vez
+ * sobre las columnas de su {@link EntityStore}, en dos pasadas: primero las
+ * reglas de cada tipo de entidad (límites de la pantalla, fin de la
+ * aceleración o el frenado, cambios de dirección), que deciden cuánto debe
+ * avanzar cada una en este paso, y después la integración de todas las
+ * posiciones en un único bucle sin ramas.
+ * </p>
+ * <p>
+ * Las naves enemigas dormidas (muy a la derecha de la pantalla, ver
+ * {@link EntityStore#isDormant(int)}) no pasan por las reglas: en la primera
+ * pasada sólo avanzan en horizontal, y la segunda ya no las mueve.
+ * </p>
+ * <p>
+ * Las dos pasadas se pueden repartir entre varios hilos (ver
+ * {@link ParallelSweep}): cada entidad sólo modifica su propia fila, y los
+ * cambios de dirección aleatorios se apuntan y se aplican después en orden,
+ * así que el resultado es el mismo que en un solo hilo.
+ * </p>
  *
  * @author José Luis Pérez González
  */
 public class MovementController {
 
+    /** Almacén al que vuelven las explosiones que han terminado su animación */
+    private ObjectPool<Explosion> explosionPool;
+    /** Estado de la sesión, donde se descuentan las explosiones que terminan */
+    private GameState state;
+    /** Recorre las filas del almacén, en uno o varios hilos */
+    private final ParallelSweep sweep = new ParallelSweep();
+    /** Naves enemigas que deben cambiar aleatoriamente de dirección, por tramo */
+    private ParallelSweep.IntList[] turns = new ParallelSweep.IntList[0];
+    /** Naves enemigas dormidas en el último paso, por tramo */
+    private int[] dormant = new int[0];
+    /** Entidades en el último paso, y cuántas de ellas estaban dormidas */
+    private int lastSize, lastDormant;
+
+    /** Almacén de las entidades del paso actual */
+    private EntityStore store;
+    /** Ms simulados en el paso actual */
+    private long delta;
+    /** Hora de la simulación en el paso actual */
+    private long now;
+
+    /** Primera pasada: reglas de movimiento de cada tipo de entidad */
+    private final ParallelSweep.Body rules = new ParallelSweep.Body() {
+        @Override
+        public void sweep(int chunk, int from, int to) {
+            dormant[chunk] = applyRules(store, from, to, delta, now, turns[chunk]);
+        }
+    };
+
+    /** Segunda pasada: integración de las posiciones */
+    private final ParallelSweep.Body integration = new ParallelSweep.Body() {
+        @Override
+        public void sweep(int chunk, int from, int to) {
+            integrate(store, from, to);
+        }
+    };
+
     /**
-     * Constructor de la clase, nada que hacer.
+     * Constructor de la clase.
+     * @param explosionPool Almacén de explosiones reutilizables.
+     * @param state Estado de la sesión.
      */
-    public MovementController() {}
+    public MovementController(ObjectPool<Explosion> explosionPool, GameState state) {
+        this.explosionPool = explosionPool;
+        this.state = state;
+    }
 
     /**
      * Actualizar las posiciones de las diferentes entidades que
      * pueden 'interactuar' entre ellas (Jugador, Naves enemigas y Misiles).
-     * @param entities Contenedor de las entidades.
-     * @param delta El tiempo que ha pasado desde la última actualización.
-     * @return El contenedor de las entidades con las posiciones actualizadas.
-     */
-    public ArrayList<EntityIF> moveEntities(ArrayList<EntityIF> entities, long delta) {
-        for(EntityIF entity: entities) {
-            if(entity instanceof Player) {
-                ArrayList<EntityIF> missiles = ((Player) entity).getMissiles();
-                missiles = moveEntities(missiles, delta);
+     * @param store Almacén de las entidades.
+     * @param clock El reloj de la simulación, con el tiempo que ha pasado desde la última actualización.
+     * @param random Generador de números aleatorios de la partida, para cambiar la dirección de las naves enemigas.
+     */
+    public void moveEntities(EntityStore store, FrameClock clock, Random random) {
+        moveEntities(store, clock, random, false);
+    }
+
+    /**
+     * Como {@link #moveEntities(EntityStore, FrameClock, Random)}, repartiendo
+     * las filas entre varios hilos si se pide. El resultado es el mismo.
+     * @param store Almacén de las entidades.
+     * @param clock El reloj de la simulación, con el tiempo que ha pasado desde la última actualización.
+     * @param random Generador de números aleatorios de la partida, para cambiar la dirección de las naves enemigas.
+     * @param parallel True para usar varios hilos.
+     */
+    public void moveEntities(EntityStore store, FrameClock clock, Random random, boolean parallel) {
+        int size = store.size();
+        int chunks = ParallelSweep.chunks(size);
+        this.store = store;
+        this.delta = clock.getDelta();
+        this.now = clock.getTime();
+        turns = ParallelSweep.IntList.forChunks(turns, chunks);
+        if(dormant.length < chunks)
+            dormant = new int[Math.max(chunks, dormant.length * 2)];
+        try {
+            sweep.run(size, rules, parallel);
+            lastSize = size;
+            lastDormant = 0;
+            for(int c = 0; c < chunks; c++)
+                lastDormant += dormant[c];
+            // Los cambios de dirección aleatorios, en orden de fila, como si se hubieran hecho en un solo hilo.
+            for(int c = 0; c < chunks; c++) {
+                for(int t = 0; t < turns[c].size(); t++)
+                    store.setRandomDirection(turns[c].get(t), random);
+            }
+            sweep.run(size, integration, parallel);
+        } finally {
+            this.store = null;
+        }
+    }
+
+    /**
+     * Aplica a cada entidad de un tramo las reglas de movimiento de su tipo y
+     * apunta en la columna 'step' los ms que debe avanzar en este paso.
+     * @param store Almacén de las entidades.
+     * @param from Primera fila del tramo.
+     * @param to Fila siguiente a la última del tramo.
+     * @param delta Los ms simulados en este paso.
+     * @param now La hora de la simulación.
+     * @param turns Donde apuntar las naves que deben cambiar aleatoriamente de dirección.
+     * @return El número de naves dormidas del tramo.
+     */
+    private static int applyRules(EntityStore store, int from, int to, long delta, long now,
+            ParallelSweep.IntList turns) {
+        byte[] kind = store.kind;
+        double[] step = store.step;
+        int dormant = 0;
+        for(int i = from; i < to; i++) {
+            step[i] = delta;
+            switch(kind[i]) {
+                case EntityStore.PLAYER:
+                    ((Player) store.handle[i]).steer();
+                    break;
+                case EntityStore.MISSILE:
+                    // El misil que sale por la derecha de la pantalla deja de ser visible y se retira.
+                    if(Math.round(store.x[i]) > Game.P_WIDTH)
+                        store.flags[i] &= ~EntityStore.VISIBLE;
+                    break;
+                case EntityStore.ENEMY:
+                    if(store.isDormant(i)) {
+                        // Dormida: sólo avanza en horizontal, aquí mismo; la integración ya no la mueve.
+                        store.x[i] += (delta * store.dx[i]) / 1000;
+                        step[i] = 0;
+                        dormant++;
+                    } else if(!moveEnemy(store, i, delta, now, turns))
+                        step[i] = 0;
+                    break;
             }
-            entity.move(delta);
         }
-        return entities;
+        return dormant;
+    }
+
+    /**
+     * Reglas de movimiento de una nave enemiga.
+     * @param store Almacén de las entidades.
+     * @param i La fila de la nave.
+     * @param delta Los ms simulados en este paso.
+     * @param now La hora de la simulación.
+     * @param turns Donde apuntar la nave si debe cambiar aleatoriamente de dirección.
+     * @return False si la nave se ha recolocado y no debe avanzar en este paso.
+     */
+    private static boolean moveEnemy(EntityStore store, int i, long delta, long now, ParallelSweep.IntList turns) {
+        int flags = store.flags[i];
+        // Si está acelerando y ha pasado el tiempo indicado, restablecer su velocidad horizontal.
+        if((flags & EntityStore.BOOSTING) != 0 && (now - store.boostTime[i]) > 1500) {
+            store.dx[i] *= 0.8;
+            flags &= ~EntityStore.BOOSTING;
+        }
+        // Si está frenando y ha pasado el tiempo indicado, restablecer su velocidad horizontal.
+        if((flags & EntityStore.BRAKING) != 0 && (now - store.brakeTime[i]) > 1000) {
+            store.dx[i] /= 0.7;
+            flags &= ~EntityStore.BRAKING;
+        }
+        store.flags[i] = flags;
+
+        // Si el enemigo desaparece por la parte izquierda de la ventana, recolocarlo a la derecha de la misma.
+        if(Math.round(store.x[i]) < -store.width[i]) {
+            store.setX(i, Game.P_WIDTH);
+            return false;
+        }
+        // Si el enemigo alcanza o sobrepasa el límite superior o inferior de la ventana, recolocarlo,
+        // cambiar su dirección vertical y resetear la distancia vertical recorrida.
+        long y = Math.round(store.y[i]);
+        if(y < 10) {
+            store.setY(i, 10);
+            store.changeDirection(i);
+            return false;
+        }
+        int bottom = Game.P_HEIGHT - store.height[i] - 5;
+        if(y > bottom) {
+            store.setY(i, bottom);
+            store.changeDirection(i);
+            return false;
+        }
+        // Si el enemigo es del tipo 1 (se mueve verticalmente), actualizar la distancia vertical
+        // recorrida con cada movimiento y, si supera los 150 píxels, cambiar su dirección aleatoriamente.
+        if(store.enemyType[i] == 1) {
+            store.verticalDistance[i] += delta * Math.abs(store.dy[i]) / 1000;
+            if(store.verticalDistance[i] > 150)
+                turns.add(i);
+        }
+        return true;
+    }
+
+    /**
+     * Avanza la posición de las filas de un tramo lo que indica su columna
+     * 'step', guardando la anterior para interpolar al dibujar. Sólo son
+     * operaciones aritméticas sobre arrays, sin ramas.
+     * <p>
+     * Visible en el paquete para poder medirlo (ver benchmarks).
+     * </p>
+     * @param store Almacén de las entidades.
+     * @param from Primera fila a avanzar.
+     * @param to Fila siguiente a la última.
+     */
+    static void integrate(EntityStore store, int from, int to) {
+        double[] x = store.x, y = store.y, prevX = store.prevX, prevY = store.prevY;
+        double[] dx = store.dx, dy = store.dy, step = store.step;
+        for(int i = from; i < to; i++) {
+            prevX[i] = x[i];
+            prevY[i] = y[i];
+            x[i] += (step[i] * dx[i]) / 1000;
+            y[i] += (step[i] * dy[i]) / 1000;
+        }
+    }
+
+    /**
+     * @return El número de entidades movidas en el último paso con todas sus reglas.
+     */
+    public int getUpdated() {
+        return lastSize - lastDormant;
+    }
+
+    /**
+     * @return El número de naves enemigas dormidas en el último paso.
+     */
+    public int getDormant() {
+        return lastDormant;
     }
 
     /**
      * Actualizar las posiciones de las diferentes entidades que no 'interactuan'
-     * con el resto, los efectos del juego (Estrellas y Explosiones).
+     * con el resto, los efectos del juego (Explosiones).
+     * Las explosiones que han terminado se retiran y vuelven a su almacén.
      * @param effects Contenedor de los efectos.
-     * @param delta El tiempo que ha pasado desde la última actualización.
+     * @param clock El reloj de la simulación, con el tiempo que ha pasado desde la última actualización.
      * @return El contenedor de los efectos con las posiciones actualizadas.
      */
-    public ArrayList<EffectIF> moveEffects(ArrayList<EffectIF> effects, long delta) {
+    public ArrayList<EffectIF> moveEffects(ArrayList<EffectIF> effects, FrameClock clock) {
         Iterator<EffectIF> it = effects.iterator();
         while(it.hasNext()) {
             EffectIF effect = it.next();
             if(effect.isVisible())
-                effect.move(delta);
+                effect.move(clock);
             else {
                 it.remove();
-                Game.CURRENT_EXPLOSIONS--;
+                if(effect instanceof Explosion)
+                    explosionPool.release((Explosion) effect);
+                state.explosionEnded();
             }
         }
         return effects;
@@ -0,0 +1,111 @@
+package poo.rtype.controlador;
+
+/**
+ * Almacén de objetos reutilizables de capacidad fija.
+ * <p>
+ * Los objetos que se crean y destruyen continuamente durante la partida
+ * (misiles, explosiones) se sacan de aquí con {@link #obtain()} y se devuelven
+ * con {@link #release(Object)} cuando dejan de ser visibles, en lugar de
+ * crear uno nuevo cada vez. Sólo si la lista de libres está vacía se crea uno
+ * nuevo (un 'fallo'); si está llena, el objeto devuelto se descarta.
+ * </p>
+ * <p>
+ * Los contadores de aciertos y fallos sirven para ajustar la capacidad: en una
+ * partida normal, con el almacén bien dimensionado, los fallos deben quedarse
+ * en cero después de la precarga.
+ * </p>
+ * @param <T> El tipo de objeto que se almacena.
+ * @author José Luis Pérez González
+ */
+public abstract class ObjectPool<T> {
+
+    /** Lista de objetos libres */
+    private final Object[] free;
+    /** Número de objetos libres */
+    private int size;
+    /** Veces que obtain() ha devuelto un objeto reutilizado */
+    private long hits;
+    /** Veces que obtain() ha tenido que crear un objeto nuevo */
+    private long misses;
+    /** Veces que release() ha descartado un objeto por estar lleno el almacén */
+    private long discarded;
+
+    /**
+     * Constructor de la clase.
+     * @param capacity Número máximo de objetos libres que se guardan.
+     */
+    public ObjectPool(int capacity) {
+        free = new Object[capacity];
+    }
+
+    /**
+     * Crea un objeto nuevo cuando no queda ninguno libre.
+     * @return El objeto creado.
+     */
+    protected abstract T create();
+
+    /**
+     * Llena el almacén hasta su capacidad para que durante la partida
+     * no haga falta crear ningún objeto.
+     */
+    public synchronized void fill() {
+        while(size < free.length)
+            free[size++] = create();
+    }
+
+    /**
+     * Saca un objeto libre del almacén, o crea uno si no queda ninguno.
+     * El objeto devuelto debe reinicializarse antes de usarlo.
+     * @return Un objeto listo para reutilizarse.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized T obtain() {
+        if(size > 0) {
+            hits++;
+            T object = (T) free[--size];
+            free[size] = null;
+            return object;
+        }
+        misses++;
+        return create();
+    }
+
+    /**
+     * Devuelve un objeto que ya no se usa al almacén.
+     * @param object El objeto a devolver. No debe seguir referenciado desde ningún otro sitio.
+     */
+    public synchronized void release(T object) {
+        if(size < free.length)
+            free[size++] = object;
+        else
+            discarded++;
+    }
+
+    /**
+     * @return Las veces que se ha reutilizado un objeto.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return Las veces que se ha tenido que crear un objeto nuevo.
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return Las veces que se ha descartado un objeto por estar lleno el almacén.
+     */
+    public synchronized long getDiscarded() {
+        return discarded;
+    }
+
+    /**
+     * @return El número de objetos libres en este momento.
+     */
+    public synchronized int getFree() {
+        return size;
+    }
+}
@@ -0,0 +1,189 @@
+package poo.rtype.controlador;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Recorre las filas de un {@link EntityStore} por tramos de tamaño fijo
+ * ({@link #CHUNK} filas), en el hilo que llama o repartidos entre los hilos
+ * de un ForkJoinPool compartido por todas las partidas.
+ * <p>
+ * Los tramos son siempre los mismos, haya los hilos que haya, y cada uno
+ * sabe su número: quien recorre apunta por tramo lo que no puede hacer sobre
+ * su propia fila (destruir otra entidad, sumar puntos, pedir un número
+ * aleatorio) y luego lo aplica él solo recorriendo los tramos en orden. Así
+ * el resultado es exactamente el mismo en paralelo que en un único hilo.
+ * </p>
+ * <p>
+ * Las tareas se reutilizan de un paso a otro, así que un recorrido en
+ * paralelo no genera basura.
+ * </p>
+ * @author José Luis Pérez González
+ */
+public class ParallelSweep {
+
+    /**
+     * Lo que se hace con cada tramo de filas.
+     * @author José Luis Pérez González
+     */
+    public interface Body {
+        /**
+         * Recorre un tramo. Puede ejecutarse a la vez que otros tramos.
+         * @param chunk Número del tramo, de 0 a {@link ParallelSweep#chunks(int)} - 1.
+         * @param from Primera fila del tramo.
+         * @param to Fila siguiente a la última del tramo.
+         */
+        void sweep(int chunk, int from, int to);
+    }
+
+    /**
+     * Lista de enteros de un tramo, donde se apunta durante el recorrido lo
+     * que se aplicará después en orden. Se vacía y se reutiliza en cada paso.
+     * @author José Luis Pérez González
+     */
+    public static class IntList {
+        /** Los enteros */
+        private int[] values = new int[16];
+        /** Número de enteros */
+        private int size;
+
+        public void add(int value) {
+            if(size == values.length)
+                values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+
+        public int get(int i) {
+            return values[i];
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public void clear() {
+            size = 0;
+        }
+
+        /**
+         * Asegura que hay una lista por tramo, todas vacías.
+         * @param lists Las listas del recorrido anterior.
+         * @param chunks Número de tramos.
+         * @return Las listas, en el mismo array si caben.
+         */
+        public static IntList[] forChunks(IntList[] lists, int chunks) {
+            if(lists.length < chunks) {
+                int old = lists.length;
+                lists = Arrays.copyOf(lists, Math.max(chunks, old * 2));
+                for(int c = old; c < lists.length; c++)
+                    lists[c] = new IntList();
+            }
+            for(int c = 0; c < chunks; c++)
+                lists[c].clear();
+            return lists;
+        }
+    }
+
+    /** Filas por tramo */
+    public static final int CHUNK = 512;
+
+    /** Hilos para los recorridos en paralelo, se crean al hacer falta por primera vez */
+    private static ForkJoinPool pool;
+
+    /** Tarea raíz, reparte los tramos */
+    private final Root root = new Root();
+    /** Tarea de cada tramo */
+    private Part[] parts = new Part[0];
+    /** Lo que se hace en el recorrido actual */
+    private Body body;
+    /** Filas del recorrido actual */
+    private int size;
+
+    /**
+     * @param size Número de filas.
+     * @return El número de tramos en que se dividen.
+     */
+    public static int chunks(int size) {
+        return (size + CHUNK - 1) / CHUNK;
+    }
+
+    /**
+     * Recorre las filas de 0 a size - 1, tramo a tramo, y vuelve cuando han
+     * terminado todos.
+     * @param size Número de filas.
+     * @param body Lo que se hace con cada tramo.
+     * @param parallel True para repartir los tramos entre los hilos del pool;
+     *                 false para recorrerlos en orden en el hilo que llama.
+     */
+    public void run(int size, Body body, boolean parallel) {
+        int chunks = chunks(size);
+        if(!parallel || chunks < 2) {
+            for(int c = 0; c < chunks; c++)
+                body.sweep(c, c * CHUNK, Math.min(size, (c + 1) * CHUNK));
+            return;
+        }
+        if(parts.length < chunks) {
+            int old = parts.length;
+            parts = Arrays.copyOf(parts, Math.max(chunks, old * 2));
+            for(int c = old; c < parts.length; c++)
+                parts[c] = new Part(c);
+        }
+        this.body = body;
+        this.size = size;
+        root.chunks = chunks;
+        root.reinitialize();
+        try {
+            pool().invoke(root);
+        } finally {
+            this.body = null;
+        }
+    }
+
+    /**
+     * @return El pool compartido.
+     */
+    private static synchronized ForkJoinPool pool() {
+        if(pool == null)
+            pool = new ForkJoinPool();
+        return pool;
+    }
+
+    /**
+     * Tarea raíz: lanza un tramo por tarea, hace el primero ella misma y espera al resto.
+     */
+    private class Root extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        /** Número de tramos del recorrido */
+        int chunks;
+
+        @Override
+        protected void compute() {
+            for(int c = 1; c < chunks; c++) {
+                parts[c].reinitialize();
+                parts[c].fork();
+            }
+            parts[0].compute();
+            for(int c = chunks - 1; c > 0; c--)
+                parts[c].join();
+        }
+    }
+
+    /**
+     * Tarea de un tramo.
+     */
+    private class Part extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        /** Número del tramo */
+        private final int chunk;
+
+        Part(int chunk) {
+            this.chunk = chunk;
+        }
+
+        @Override
+        protected void compute() {
+            body.sweep(chunk, chunk * CHUNK, Math.min(size, (chunk + 1) * CHUNK));
+        }
+    }
+}
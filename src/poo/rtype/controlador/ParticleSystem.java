@@ -0,0 +1,180 @@
+package poo.rtype.controlador;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Sistema de partículas: puntos decorativos (las estrellas del fondo y, en
+ * el futuro, restos o chispas) que se mueven en línea recta y no
+ * interactúan con nada.
+ * <p>
+ * No hay un objeto por partícula: como en el {@link EntityStore}, cada
+ * atributo es un array de tipos primitivos y la partícula 'i' es la fila
+ * 'i' de todos ellos. Se mueven todas en un único bucle
+ * ({@link #update(long)}) y la instantánea copia los arrays de golpe
+ * ({@link WorldSnapshot#setParticles(ParticleSystem)}), de modo que el
+ * hilo de pintado las dibuja todas juntas, sin una llamada a Graphics por
+ * partícula.
+ * </p>
+ * <p>
+ * Una partícula con vida negativa es permanente y, al salir por la
+ * izquierda, vuelve a entrar por la derecha a otra altura (las estrellas).
+ * Las demás desaparecen al acabarse su vida o al salir de la pantalla, y su
+ * fila la ocupa la última.
+ * </p>
+ * <p>
+ * Tiene su propio generador de números aleatorios: no es parte de la
+ * partida y no debe alterar lo que ésta genera (ver {@link InputRecorder}).
+ * </p>
+ * @author José Luis Pérez González
+ */
+public final class ParticleSystem {
+
+    /** Capas de profundidad del campo de estrellas, de la más lejana a la más cercana */
+    public static final int STAR_LAYERS = 3;
+    /** Velocidad en píxels/segundo de las estrellas de cada capa */
+    private static final double[] STAR_SPEED = {-15, -40, -90};
+    /** Color (RGB) de las estrellas de cada capa: las lejanas, más oscuras */
+    private static final int[] STAR_COLOR = {0x707070, 0xAAAAAA, 0xE1E1E1};
+    /** Proporción de las estrellas que va a cada capa (hay más cuanto más lejos) */
+    private static final int[] STAR_WEIGHT = {4, 2, 1};
+    /** Margen en píxels arriba y abajo de la pantalla en el que no se recolocan estrellas */
+    private static final int STAR_MARGIN = 30;
+
+    /** Número de partículas; sólo son válidas las primeras 'count' filas de los arrays */
+    int count;
+    /** Posición antes del último paso, para interpolar al dibujar */
+    double[] prevX = new double[64], prevY = new double[64];
+    /** Posición actual */
+    double[] x = new double[64], y = new double[64];
+    /** Velocidad en píxels/segundo */
+    private double[] dx = new double[64], dy = new double[64];
+    /** Vida restante en ms, negativa si es permanente */
+    private double[] life = new double[64];
+    /** Color (RGB) */
+    int[] color = new int[64];
+    /** Generador de las posiciones de las partículas */
+    private final Random random;
+
+    /**
+     * Constructor de la clase. El sistema empieza vacío.
+     * @param seed Semilla del generador de posiciones.
+     */
+    public ParticleSystem(long seed) {
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Añade una partícula.
+     * @param x Posición horizontal.
+     * @param y Posición vertical.
+     * @param dx Velocidad horizontal en píxels/segundo.
+     * @param dy Velocidad vertical en píxels/segundo.
+     * @param color Color (RGB).
+     * @param life Vida en ms, negativa para que sea permanente.
+     * @return Su fila.
+     */
+    public int add(double x, double y, double dx, double dy, int color, double life) {
+        if(count == this.x.length)
+            grow();
+        int i = count++;
+        this.prevX[i] = this.x[i] = x;
+        this.prevY[i] = this.y[i] = y;
+        this.dx[i] = dx;
+        this.dy[i] = dy;
+        this.color[i] = color;
+        this.life[i] = life;
+        return i;
+    }
+
+    /**
+     * Añade un campo de estrellas repartidas por la pantalla en
+     * {@link #STAR_LAYERS} capas: las lejanas más lentas, más oscuras y más
+     * numerosas que las cercanas.
+     * @param stars Número de estrellas.
+     */
+    public void addStarfield(int stars) {
+        int weights = 0;
+        for(int w : STAR_WEIGHT)
+            weights += w;
+        int layer = 0, limit = stars * STAR_WEIGHT[0] / weights;
+        for(int i = 0; i < stars; i++) {
+            while(i >= limit && layer < STAR_LAYERS - 1) {
+                layer++;
+                limit += stars * STAR_WEIGHT[layer] / weights;
+            }
+            add(random.nextInt(Game.P_WIDTH), random.nextInt(Game.P_HEIGHT), STAR_SPEED[layer], 0,
+                    STAR_COLOR[layer], -1);
+        }
+    }
+
+    /**
+     * Mueve todas las partículas.
+     * @param delta Los ms transcurridos desde el último paso.
+     */
+    public void update(long delta) {
+        for(int i = 0; i < count; i++) {
+            prevX[i] = x[i];
+            prevY[i] = y[i];
+            x[i] += (delta * dx[i]) / 1000;
+            y[i] += (delta * dy[i]) / 1000;
+            if(life[i] < 0) {
+                if(x[i] < 0) {
+                    // Vuelve a entrar por la derecha, sin pasar (interpolada) por en medio de la pantalla.
+                    x[i] += Game.P_WIDTH;
+                    y[i] = random.nextInt(Game.P_HEIGHT - 2 * STAR_MARGIN) + STAR_MARGIN;
+                    prevX[i] = x[i];
+                    prevY[i] = y[i];
+                }
+            } else if((life[i] -= delta) < 0 || x[i] < 0 || x[i] >= Game.P_WIDTH
+                    || y[i] < 0 || y[i] >= Game.P_HEIGHT) {
+                remove(i--);
+            }
+        }
+    }
+
+    /**
+     * Quita una partícula, ocupando su fila con la última.
+     * @param i La fila.
+     */
+    private void remove(int i) {
+        int last = --count;
+        prevX[i] = prevX[last];
+        prevY[i] = prevY[last];
+        x[i] = x[last];
+        y[i] = y[last];
+        dx[i] = dx[last];
+        dy[i] = dy[last];
+        life[i] = life[last];
+        color[i] = color[last];
+    }
+
+    /**
+     * Quita todas las partículas.
+     */
+    public void clear() {
+        count = 0;
+    }
+
+    /**
+     * Duplica la capacidad de los arrays.
+     */
+    private void grow() {
+        int size = x.length * 2;
+        prevX = Arrays.copyOf(prevX, size);
+        prevY = Arrays.copyOf(prevY, size);
+        x = Arrays.copyOf(x, size);
+        y = Arrays.copyOf(y, size);
+        dx = Arrays.copyOf(dx, size);
+        dy = Arrays.copyOf(dy, size);
+        life = Arrays.copyOf(life, size);
+        color = Arrays.copyOf(color, size);
+    }
+
+    /**
+     * @return El número de partículas.
+     */
+    public int size() {
+        return count;
+    }
+}
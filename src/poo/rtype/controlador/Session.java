@@ -0,0 +1,220 @@
+package poo.rtype.controlador;
+
+import java.util.Random;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Una de las partidas que ejecuta un {@link SessionHost}: su propia
+ * simulación ({@link World}), quien pulsa las teclas y las estadísticas de
+ * puntualidad de sus pasos.
+ * <p>
+ * Cada paso tiene una hora (System.nanoTime) a la que le toca ejecutarse;
+ * el host ejecuta siempre primero la sesión cuyo paso lleva más tiempo
+ * esperando (por eso implementa {@link Delayed}). Al terminar una partida
+ * empieza otra en el mismo nivel con la siguiente semilla.
+ * </p>
+ * <p>
+ * Una sesión sólo la ejecuta un hilo cada vez; sus contadores se pueden
+ * leer desde cualquier otro.
+ * </p>
+ * @author José Luis Pérez González
+ */
+public class Session implements Delayed {
+
+    /** Identificador de la sesión en su host */
+    private final int id;
+    /** La simulación */
+    private final World world;
+    /** Quien pulsa las teclas */
+    private final SessionHost.Pilot pilot;
+    /** Nivel de las partidas */
+    private final int gameMode;
+    /** Semillas de las partidas sucesivas */
+    private final Random seeds;
+
+    /** Hora (System.nanoTime) a la que toca el siguiente paso */
+    private volatile long due;
+    /** True si se ha retirado del host */
+    private volatile boolean removed;
+
+    /** Pasos ejecutados */
+    private volatile long ticks;
+    /** Pasos ejecutados con más de un paso de retraso */
+    private volatile long lateTicks;
+    /** Pasos descartados por ir demasiado retrasada */
+    private volatile long skippedTicks;
+    /** Mayor retraso de un paso en ns */
+    private volatile long maxLateness;
+    /** Tiempo en ns dedicado a la sesión */
+    private volatile long busyNanos;
+    /** Partidas terminadas */
+    private volatile int matches;
+    /** Partidas ganadas */
+    private volatile int wins;
+
+    /**
+     * Constructor de la clase. Empieza la primera partida.
+     * @param id Identificador de la sesión en su host.
+     * @param gameMode Nivel de las partidas, de 1 a 4.
+     * @param seed Semilla de la que salen las semillas de las partidas.
+     * @param pilot Quien pulsa las teclas.
+     * @param step Duración en ms de cada paso.
+     */
+    Session(int id, int gameMode, long seed, SessionHost.Pilot pilot, int step) {
+        this.id = id;
+        this.gameMode = gameMode;
+        this.pilot = pilot;
+        this.seeds = new Random(seed);
+        world = new World();
+        // Por encima de unas pocas sesiones los hilos del host ya están todos ocupados.
+        world.setParallelThreshold(Integer.MAX_VALUE);
+        world.getClock().setSource(FrameClock.fixed(step));
+        world.start(gameMode, seeds.nextLong());
+    }
+
+    /**
+     * Simula un paso y, si la partida ha terminado, empieza otra.
+     * Sólo lo llama el hilo del host que tiene la sesión.
+     * @param now Hora actual (System.nanoTime).
+     * @param period Duración en ns de cada paso.
+     */
+    void tick(long now, long period) {
+        long lateness = now - due;
+        if(lateness > period)
+            lateTicks++;
+        if(lateness > maxLateness)
+            maxLateness = lateness;
+        world.tick(pilot.keys(world));
+        ticks++;
+        due += period;
+        if(world.isOver()) {
+            matches++;
+            if(world.isPlayerAlive())
+                wins++;
+            world.start(gameMode, seeds.nextLong());
+        }
+    }
+
+    /**
+     * Descarta los pasos que la sesión lleva de retraso, para que deje de
+     * intentar recuperarlos. Sólo lo llama el hilo del host que la tiene.
+     * @param now Hora actual (System.nanoTime).
+     * @param period Duración en ns de cada paso.
+     */
+    void skip(long now, long period) {
+        long behind = (now - due) / period;
+        skippedTicks += behind;
+        due += behind * period;
+    }
+
+    /**
+     * Suma tiempo dedicado a la sesión.
+     * @param nanos Los ns.
+     */
+    void addBusy(long nanos) {
+        busyNanos += nanos;
+    }
+
+    /**
+     * @param due Hora (System.nanoTime) del siguiente paso.
+     */
+    void setDue(long due) {
+        this.due = due;
+    }
+
+    /**
+     * @return Hora (System.nanoTime) del siguiente paso.
+     */
+    long getDue() {
+        return due;
+    }
+
+    /**
+     * Marca la sesión como retirada; el host deja de ejecutarla.
+     */
+    void remove() {
+        removed = true;
+    }
+
+    /**
+     * @return True si se ha retirado del host.
+     */
+    public boolean isRemoved() {
+        return removed;
+    }
+
+    @Override
+    public long getDelay(TimeUnit unit) {
+        return unit.convert(due - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public int compareTo(Delayed other) {
+        long d = due - ((Session) other).due;
+        return d < 0 ? -1 : d > 0 ? 1 : id - ((Session) other).id;
+    }
+
+    /**
+     * @return El identificador de la sesión.
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * @return La simulación. Sólo debe consultarse cuando el host está detenido.
+     */
+    public World getWorld() {
+        return world;
+    }
+
+    /**
+     * @return Los pasos ejecutados.
+     */
+    public long getTicks() {
+        return ticks;
+    }
+
+    /**
+     * @return Los pasos ejecutados con más de un paso de retraso.
+     */
+    public long getLateTicks() {
+        return lateTicks;
+    }
+
+    /**
+     * @return Los pasos descartados por ir demasiado retrasada.
+     */
+    public long getSkippedTicks() {
+        return skippedTicks;
+    }
+
+    /**
+     * @return El mayor retraso de un paso, en ns.
+     */
+    public long getMaxLateness() {
+        return maxLateness;
+    }
+
+    /**
+     * @return El tiempo en ns que el host ha dedicado a la sesión.
+     */
+    public long getBusyNanos() {
+        return busyNanos;
+    }
+
+    /**
+     * @return Las partidas terminadas.
+     */
+    public int getMatches() {
+        return matches;
+    }
+
+    /**
+     * @return Las partidas ganadas.
+     */
+    public int getWins() {
+        return wins;
+    }
+}
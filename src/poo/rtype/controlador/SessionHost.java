@@ -0,0 +1,232 @@
+package poo.rtype.controlador;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ejecuta muchas partidas independientes ({@link Session}) en la misma
+ * máquina virtual, con un número fijo de hilos compartidos por todas.
+ * <p>
+ * Cada sesión avanza a paso fijo ({@link Game#getPeriod()} ms por paso) y
+ * espera en una cola ordenada por la hora de su siguiente paso. Los hilos
+ * sacan siempre la sesión más atrasada, le dan un turno y la vuelven a
+ * poner en la cola, de modo que ninguna se queda sin ejecutar aunque haya
+ * más sesiones de las que se pueden atender a tiempo: todas se retrasan por
+ * igual.
+ * </p>
+ * <p>
+ * Un turno ejecuta como mucho {@link #MAX_TICKS_PER_TURN} pasos seguidos de
+ * la misma sesión (los que tenga pendientes) y nunca más de
+ * {@link #TURN_BUDGET} ns, para que una sesión atrasada no acapare el hilo.
+ * Si una sesión llega a ir más de {@link #MAX_LAG} ms atrasada se
+ * descartan los pasos pendientes y se cuentan como perdidos.
+ * </p>
+ * <p>
+ * Una sesión retirada ({@link #remove(Session)}) termina como mucho el paso
+ * que tenga a medias y no vuelve a la cola.
+ * </p>
+ * @author José Luis Pérez González
+ */
+public class SessionHost {
+
+    /**
+     * Quien decide las teclas pulsadas en cada paso de una sesión.
+     * @author José Luis Pérez González
+     */
+    public interface Pilot {
+        /**
+         * @param world La simulación de la sesión, antes de su siguiente paso.
+         * @return Las teclas pulsadas (las constantes KEY_* de {@link InputController}).
+         */
+        int keys(World world);
+    }
+
+    /** Pasos que se ejecutan como mucho de una sesión en cada turno */
+    public static final int MAX_TICKS_PER_TURN = 4;
+    /** Tiempo máximo de un turno en ns */
+    public static final long TURN_BUDGET = 2000000L;
+    /** Retraso máximo de una sesión en ms antes de descartar pasos */
+    public static final long MAX_LAG = 250;
+
+    /** Las sesiones, ordenadas por la hora de su siguiente paso */
+    private final DelayQueue<Session> queue = new DelayQueue<Session>();
+    /** Todas las sesiones del host */
+    private final List<Session> sessions = new CopyOnWriteArrayList<Session>();
+    /** Número de hilos */
+    private final int threads;
+    /** Duración de cada paso en ms */
+    private final int step;
+    /** Los hilos, mientras el host está en marcha */
+    private final List<Thread> workers = new ArrayList<Thread>();
+    /** Identificador de la siguiente sesión */
+    private int nextId;
+    /** True mientras el host está en marcha */
+    private volatile boolean running;
+
+    /**
+     * Constructor de la clase.
+     * @param threads Número de hilos que ejecutan las sesiones.
+     */
+    public SessionHost(int threads) {
+        this(threads, Game.getPeriod());
+    }
+
+    /**
+     * Constructor de la clase.
+     * @param threads Número de hilos que ejecutan las sesiones.
+     * @param step Duración de cada paso en ms.
+     */
+    public SessionHost(int threads, int step) {
+        if(threads < 1 || step < 1)
+            throw new IllegalArgumentException("threads=" + threads + ", step=" + step);
+        this.threads = threads;
+        this.step = step;
+    }
+
+    /**
+     * Añade una sesión, que empieza a ejecutarse enseguida si el host está en marcha.
+     * @param gameMode Nivel de las partidas, de 1 a 4.
+     * @param seed Semilla de las partidas.
+     * @param pilot Quien pulsa las teclas.
+     * @return La sesión.
+     */
+    public synchronized Session add(int gameMode, long seed, Pilot pilot) {
+        Session session = new Session(nextId++, gameMode, seed, pilot, step);
+        session.setDue(System.nanoTime());
+        sessions.add(session);
+        queue.add(session);
+        return session;
+    }
+
+    /**
+     * Retira una sesión. Si la está ejecutando algún hilo termina su turno
+     * y ya no vuelve a la cola.
+     * @param session La sesión.
+     */
+    public void remove(Session session) {
+        // Con el mismo cerrojo con el que work() la devuelve a la cola: o la
+        // devuelve antes y aquí se saca, o ya la ve retirada y no la devuelve.
+        synchronized(session) {
+            session.remove();
+            queue.remove(session);
+        }
+        sessions.remove(session);
+    }
+
+    /**
+     * Pone en marcha los hilos.
+     */
+    public synchronized void start() {
+        if(running)
+            return;
+        running = true;
+        long now = System.nanoTime();
+        long period = step * 1000000L;
+        int i = 0;
+        // Lo que haya esperado cada sesión con el host parado no cuenta como retraso, y sus
+        // pasos se reparten a lo largo del periodo en vez de tocar todos a la vez.
+        for(Session session : sessions) {
+            synchronized(session) {
+                queue.remove(session);
+                session.setDue(now + period * i++ / sessions.size());
+                if(!session.isRemoved())
+                    queue.add(session);
+            }
+        }
+        for(i = 0; i < threads; i++) {
+            Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    work();
+                }
+            }, "SessionHost-" + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+    }
+
+    /**
+     * Detiene los hilos y espera a que terminen su turno. Las sesiones se
+     * quedan donde estaban y se pueden consultar.
+     */
+    public synchronized void stop() {
+        running = false;
+        for(Thread worker : workers)
+            worker.interrupt();
+        for(Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        workers.clear();
+    }
+
+    /**
+     * Bucle de cada hilo: saca la sesión más atrasada cuando le toca, le da
+     * un turno y la devuelve a la cola.
+     */
+    private void work() {
+        long period = step * 1000000L;
+        long maxLag = MAX_LAG * 1000000L;
+        while(running) {
+            Session session;
+            try {
+                session = queue.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ex) {
+                break;
+            }
+            if(session == null || session.isRemoved())
+                continue;
+            long start = System.nanoTime();
+            long now = start;
+            if(now - session.getDue() > maxLag)
+                session.skip(now, period);
+            int ticks = 0;
+            do {
+                session.tick(now, period);
+                ticks++;
+                now = System.nanoTime();
+            } while(ticks < MAX_TICKS_PER_TURN && session.getDue() <= now && now - start < TURN_BUDGET
+                    && !session.isRemoved());
+            session.addBusy(now - start);
+            synchronized(session) {
+                if(!session.isRemoved())
+                    queue.add(session);
+            }
+        }
+    }
+
+    /**
+     * @return Las sesiones del host.
+     */
+    public List<Session> getSessions() {
+        return sessions;
+    }
+
+    /**
+     * @return El número de hilos.
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * @return La duración de cada paso en ms.
+     */
+    public int getStep() {
+        return step;
+    }
+
+    /**
+     * @return True si el host está en marcha.
+     */
+    public boolean isRunning() {
+        return running;
+    }
+}
@@ -0,0 +1,62 @@
+package poo.rtype.controlador;
+
+/**
+ * Triple búfer de instantáneas entre la simulación y el hilo de pintado.
+ * <p>
+ * La simulación rellena siempre la instantánea que devuelve {@link #beginWrite()}
+ * y la publica con {@link #publish(long)}; el hilo de pintado se queda con la
+ * última publicada mediante {@link #acquire()}. Cada hilo trabaja sobre su propia
+ * instantánea y sólo se sincronizan para intercambiar referencias, de modo que
+ * ninguno espera a que el otro termine: mientras se pinta un frame (incluidos
+ * BufferStrategy.show() y Toolkit.sync()) la simulación puede seguir avanzando.
+ * </p>
+ * @author José Luis Pérez González
+ */
+public final class SnapshotBuffer {
+
+    /** Instantánea que está rellenando la simulación */
+    private WorldSnapshot writing = new WorldSnapshot();
+    /** Última instantánea publicada */
+    private WorldSnapshot ready = new WorldSnapshot();
+    /** Instantánea que está pintando el hilo de pintado */
+    private WorldSnapshot reading = new WorldSnapshot();
+    /** True si 'ready' contiene una publicación que aún no ha recogido el hilo de pintado */
+    private boolean fresh;
+
+    /**
+     * Devuelve la instantánea que debe rellenar la simulación. Sólo
+     * debe usarla el hilo de la simulación, y hasta llamar a publish().
+     * @return La instantánea a rellenar.
+     */
+    public WorldSnapshot beginWrite() {
+        return writing;
+    }
+
+    /**
+     * Publica la instantánea rellenada, que pasa a ser la que recibirá el
+     * hilo de pintado la próxima vez que llame a acquire().
+     * @param time El momento (System.nanoTime) de la publicación.
+     */
+    public synchronized void publish(long time) {
+        writing.setTime(time);
+        WorldSnapshot tmp = ready;
+        ready = writing;
+        writing = tmp;
+        fresh = true;
+    }
+
+    /**
+     * Devuelve la última instantánea publicada. Si no se ha publicado nada
+     * nuevo desde la última llamada, devuelve la misma que entonces.
+     * @return La instantánea que debe pintarse.
+     */
+    public synchronized WorldSnapshot acquire() {
+        if(fresh) {
+            WorldSnapshot tmp = reading;
+            reading = ready;
+            ready = tmp;
+            fresh = false;
+        }
+        return reading;
+    }
+}
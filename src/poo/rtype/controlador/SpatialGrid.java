@@ -0,0 +1,243 @@
+package poo.rtype.controlador;
+
+import java.util.Arrays;
+
+/**
+ * Rejilla uniforme (spatial hash) para la fase 'amplia' de la detección de
+ * colisiones.
+ * <p>
+ * El plano se divide en celdas cuadradas de lado 2^cellShift píxels y cada
+ * entidad (su fila en el {@link EntityStore}) se registra en todas las celdas
+ * que ocupan sus límites. Al consultar un rectángulo sólo se devuelven las
+ * entidades registradas en las celdas que éste toca, de modo que las
+ * comprobaciones precisas se hacen únicamente sobre los candidatos cercanos
+ * y no sobre todas las entidades.
+ * </p>
+ * <p>
+ * Las celdas no se guardan en una matriz (las naves pueden estar a miles de
+ * píxels fuera de la pantalla) sino en una tabla hash con listas enlazadas de
+ * enteros, que sólo se amplía si hay muchas más entidades que cubos. Los
+ * arrays sólo crecen cuando hace falta y se reutilizan de un 'tick' a otro,
+ * así que reconstruir la rejilla no genera basura.
+ * </p>
+ * <p>
+ * Una vez llena, varios hilos pueden consultarla a la vez, cada uno con su
+ * propio {@link Cursor} (ver {@link ParallelSweep}).
+ * </p>
+ * @author José Luis Pérez González
+ */
+public class SpatialGrid {
+
+    /**
+     * Estado de una consulta: los candidatos encontrados y las marcas que
+     * evitan devolver dos veces la misma entidad. Cada hilo que consulta la
+     * rejilla necesita el suyo.
+     * @author José Luis Pérez González
+     */
+    public static class Cursor {
+        /** Última consulta en la que se devolvió cada entidad */
+        private int[] itemStamp = new int[32];
+        /** Identificador de la consulta actual */
+        private int queryStamp;
+        /** Resultado de la última consulta */
+        private int[] results = new int[32];
+        /** Número de entidades en el resultado de la última consulta */
+        private int resultCount;
+
+        /**
+         * Devuelve uno de los candidatos de la última consulta.
+         * @param i Índice del candidato, entre 0 y el valor devuelto por query() - 1.
+         * @return La entidad candidata (su fila).
+         */
+        public int get(int i) {
+            return results[i];
+        }
+    }
+
+    /** Marca de fin de lista dentro de las listas enlazadas de la tabla */
+    private static final int EMPTY = -1;
+
+    /** Desplazamiento en bits que define el tamaño de la celda (6 -> 64 píxels) */
+    private final int cellShift;
+    /** Máscara para obtener el índice del cubo a partir del hash de la celda */
+    private int bucketMask;
+    /** Primera entrada de cada cubo de la tabla hash */
+    private int[] head;
+    /** Siguiente entrada dentro del mismo cubo */
+    private int[] next;
+    /** Índice del elemento al que hace referencia cada entrada */
+    private int[] entryItem;
+    /** Número de entradas ocupadas */
+    private int entryCount;
+
+    /** Entidades (filas) registradas en la rejilla */
+    private int[] items;
+    /** Número de entidades registradas */
+    private int itemCount;
+
+    /** Consulta de {@link #query(int, int, int, int, int)} */
+    private final Cursor cursor = new Cursor();
+
+    /**
+     * Constructor de la clase.
+     * @param cellShift Tamaño de la celda expresado como potencia de dos (6 = 64 píxels).
+     * @param buckets Número aproximado de cubos de la tabla hash (se redondea a potencia de dos).
+     */
+    public SpatialGrid(int cellShift, int buckets) {
+        this.cellShift = cellShift;
+        int size = Integer.highestOneBit(Math.max(buckets, 16) - 1) << 1;
+        this.bucketMask = size - 1;
+        this.head = new int[size];
+        this.next = new int[64];
+        this.entryItem = new int[64];
+        this.items = new int[32];
+        clear();
+    }
+
+    /**
+     * Vacía la rejilla y, si se van a registrar muchas entidades, amplía la
+     * tabla hash para que cada cubo siga teniendo pocas entradas.
+     * @param items Número de entidades que se van a registrar.
+     */
+    public void clear(int items) {
+        if(items * 2 > head.length) {
+            int size = Integer.highestOneBit(items * 2 - 1) << 1;
+            head = new int[size];
+            bucketMask = size - 1;
+        }
+        clear();
+    }
+
+    /**
+     * Vacía la rejilla. Se llama al inicio de cada 'tick' antes de volver a
+     * registrar las entidades con sus posiciones actualizadas.
+     */
+    public void clear() {
+        for(int i = 0; i < head.length; i++)
+            head[i] = EMPTY;
+        entryCount = 0;
+        itemCount = 0;
+        cursor.resultCount = 0;
+    }
+
+    /**
+     * Registra una entidad en todas las celdas que ocupan sus límites,
+     * ampliados en 'margin' píxels por cada lado.
+     * @param id La entidad a registrar (su fila).
+     * @param x Posición horizontal de la entidad.
+     * @param y Posición vertical de la entidad.
+     * @param width Ancho de la entidad.
+     * @param height Alto de la entidad.
+     * @param margin Píxels extra alrededor de los límites de la entidad.
+     */
+    public void insert(int id, int x, int y, int width, int height, int margin) {
+        if(itemCount == items.length)
+            items = Arrays.copyOf(items, itemCount * 2);
+        int item = itemCount++;
+        items[item] = id;
+
+        int cx0 = (x - margin) >> cellShift;
+        int cy0 = (y - margin) >> cellShift;
+        int cx1 = (x + width + margin) >> cellShift;
+        int cy1 = (y + height + margin) >> cellShift;
+        for(int cx = cx0; cx <= cx1; cx++) {
+            for(int cy = cy0; cy <= cy1; cy++) {
+                if(entryCount == next.length) {
+                    next = Arrays.copyOf(next, entryCount * 2);
+                    entryItem = Arrays.copyOf(entryItem, entryCount * 2);
+                }
+                int bucket = bucket(cx, cy);
+                entryItem[entryCount] = item;
+                next[entryCount] = head[bucket];
+                head[bucket] = entryCount;
+                entryCount++;
+            }
+        }
+    }
+
+    /**
+     * Busca las entidades registradas en las celdas que toca el rectángulo
+     * indicado (ampliado en 'margin' píxels). El resultado se recoge con {@link #get(int)}.
+     * <p>
+     * Dos celdas distintas pueden compartir cubo, por lo que el resultado puede
+     * contener alguna entidad que no está realmente cerca; es una fase amplia y
+     * la comprobación precisa la sigue haciendo el {@link CollisionsController}.
+     * </p>
+     * @param x Posición horizontal del rectángulo.
+     * @param y Posición vertical del rectángulo.
+     * @param width Ancho del rectángulo.
+     * @param height Alto del rectángulo.
+     * @param margin Píxels extra alrededor del rectángulo.
+     * @return El número de candidatos encontrados.
+     */
+    public int query(int x, int y, int width, int height, int margin) {
+        return query(cursor, x, y, width, height, margin);
+    }
+
+    /**
+     * Como {@link #query(int, int, int, int, int)}, pero deja el resultado en
+     * el cursor indicado, que se recoge con {@link Cursor#get(int)}. No
+     * modifica la rejilla, así que varios hilos pueden consultarla a la vez
+     * si cada uno usa su propio cursor.
+     * @param c El cursor.
+     * @param x Posición horizontal del rectángulo.
+     * @param y Posición vertical del rectángulo.
+     * @param width Ancho del rectángulo.
+     * @param height Alto del rectángulo.
+     * @param margin Píxels extra alrededor del rectángulo.
+     * @return El número de candidatos encontrados.
+     */
+    public int query(Cursor c, int x, int y, int width, int height, int margin) {
+        if(c.itemStamp.length < itemCount)
+            c.itemStamp = new int[items.length];
+        // Marca nueva; si da la vuelta, empezar de cero para no confundirla con una antigua.
+        if(++c.queryStamp == 0) {
+            Arrays.fill(c.itemStamp, 0);
+            c.queryStamp = 1;
+        }
+        int stamp = c.queryStamp;
+        int[] itemStamp = c.itemStamp;
+        int[] results = c.results;
+        int resultCount = 0;
+
+        int cx0 = (x - margin) >> cellShift;
+        int cy0 = (y - margin) >> cellShift;
+        int cx1 = (x + width + margin) >> cellShift;
+        int cy1 = (y + height + margin) >> cellShift;
+        for(int cx = cx0; cx <= cx1; cx++) {
+            for(int cy = cy0; cy <= cy1; cy++) {
+                for(int e = head[bucket(cx, cy)]; e != EMPTY; e = next[e]) {
+                    int item = entryItem[e];
+                    if(itemStamp[item] == stamp)
+                        continue;
+                    itemStamp[item] = stamp;
+                    if(resultCount == results.length)
+                        results = Arrays.copyOf(results, resultCount * 2);
+                    results[resultCount++] = items[item];
+                }
+            }
+        }
+        c.results = results;
+        c.resultCount = resultCount;
+        return resultCount;
+    }
+
+    /**
+     * Devuelve uno de los candidatos de la última consulta.
+     * @param i Índice del candidato, entre 0 y el valor devuelto por query() - 1.
+     * @return La entidad candidata (su fila).
+     */
+    public int get(int i) {
+        return cursor.results[i];
+    }
+
+    /**
+     * Calcula el cubo de la tabla hash que corresponde a una celda.
+     * @param cx Columna de la celda.
+     * @param cy Fila de la celda.
+     * @return El índice del cubo.
+     */
+    private int bucket(int cx, int cy) {
+        return ((cx * 73856093) ^ (cy * 19349663)) & bucketMask;
+    }
+}
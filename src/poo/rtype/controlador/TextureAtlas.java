@@ -0,0 +1,335 @@
+package poo.rtype.controlador;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.GraphicsEnvironment;
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Atlas de texturas: todas las imágenes del juego (naves, misiles, las
+ * tiras de frames de las explosiones y el fondo) empaquetadas en una o unas
+ * pocas imágenes grandes (páginas), aceleradas por la tarjeta gráfica.
+ * <p>
+ * Cada imagen ocupa una región de una página. Las regiones se identifican
+ * por un número y se guardan en una tabla de enteros (página, x, y, ancho y
+ * alto de cada una). Una tira de frames es una única región y el frame
+ * 'i' empieza en la columna getX(región) + i * ancho del frame. Todo se
+ * dibuja así desde la misma imagen de origen, con el drawImage de 10
+ * argumentos, en vez de cambiar de imagen con cada objeto.
+ * </p>
+ * <p>
+ * Las imágenes se colocan al cargarlas, por estantes: filas de la altura de
+ * la imagen más alta, de izquierda a derecha y de arriba abajo, y cuando no
+ * caben en la página se empieza otra. Lo que se añade después ocupa el
+ * hueco que queda, sin mover lo que ya estaba, de modo que el número, la
+ * página y la posición de una región no cambian nunca. Conviene añadir
+ * todas las imágenes de golpe ({@link #add(String...)}, de mayor a menor
+ * altura) en la fase de precarga; cada página se vuelve a acelerar cada vez
+ * que se le añade algo.
+ * </p>
+ * <p>
+ * Cada página es una {@link ManagedImage}, que guarda una copia de sus
+ * píxels y se restaura sola si la tarjeta gráfica pierde su contenido,
+ * siempre que el hilo de pintado llame a {@link #validate()} antes de cada
+ * frame. Las páginas sustituidas al volver a acelerarlas se liberan en esa
+ * misma llamada, cuando el hilo de pintado ya no puede estar dibujando con
+ * ellas.
+ * </p>
+ * @author José Luis Pérez González
+ */
+public final class TextureAtlas {
+
+    /** Ancho de cada página en píxels */
+    public static final int PAGE_WIDTH = 2048;
+    /** Altura máxima de cada página en píxels */
+    public static final int PAGE_HEIGHT = 2048;
+    /** Píxels transparentes entre una región y la siguiente */
+    private static final int PADDING = 1;
+
+    /** Posición de cada campo de una región en la tabla */
+    private static final int PAGE = 0, X = 1, Y = 2, WIDTH = 3, HEIGHT = 4;
+    /** Enteros por región en la tabla */
+    private static final int FIELDS = 5;
+
+    /** Cargador con el que se leen las imágenes y se aceleran las páginas */
+    private final ImageLoader loader;
+    /** Número de región de cada imagen, indexado por la ruta del archivo */
+    private final Map<String, Integer> regions = new HashMap<String, Integer>();
+    /** Tabla de regiones, FIELDS enteros por región */
+    private volatile int[] table = new int[FIELDS * 16];
+    /** Número de regiones */
+    private int count;
+    /** Píxels de cada página, de donde se copian las páginas aceleradas */
+    private final List<BufferedImage> backing = new ArrayList<BufferedImage>();
+    /** Páginas aceleradas, lo que se dibuja */
+    private volatile ManagedImage[] pages = new ManagedImage[0];
+    /** Páginas aceleradas sustituidas, pendientes de liberar en el siguiente {@link #validate()} */
+    private final List<ManagedImage> retired = new ArrayList<ManagedImage>();
+    /** True si hay páginas sustituidas pendientes de liberar */
+    private volatile boolean retiring;
+    /** Estante actual de la última página: fila superior, altura y primera columna libre */
+    private int shelfY, shelfHeight, shelfX;
+
+    /**
+     * Constructor de la clase. El atlas empieza vacío.
+     * @param loader Cargador con el que leer las imágenes y acelerar las páginas.
+     */
+    public TextureAtlas(ImageLoader loader) {
+        this.loader = loader;
+    }
+
+    /**
+     * Añade una imagen al atlas, si no estaba ya.
+     * @param imageSource La ruta hasta el archivo con la imagen.
+     * @return El número de su región, o -1 si no se ha podido leer.
+     */
+    public synchronized int add(String imageSource) {
+        add(new String[] {imageSource});
+        return getRegion(imageSource);
+    }
+
+    /**
+     * Añade varias imágenes al atlas (las que no estaban ya), de mayor a
+     * menor altura, y vuelve a acelerar las páginas que han cambiado.
+     * @param imageSources Las rutas hasta los archivos con las imágenes.
+     */
+    public synchronized void add(String... imageSources) {
+        final Map<String, BufferedImage> images = new HashMap<String, BufferedImage>();
+        for(String source : imageSources) {
+            if(regions.containsKey(source) || images.containsKey(source))
+                continue;
+            BufferedImage image = loader.readImage(source);
+            if(image != null)
+                images.put(source, image);
+        }
+        if(images.isEmpty())
+            return;
+        List<String> sources = new ArrayList<String>(images.keySet());
+        Collections.sort(sources, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                int h = images.get(b).getHeight() - images.get(a).getHeight();
+                return h != 0 ? h : a.compareTo(b);
+            }
+        });
+
+        int firstDirty = Integer.MAX_VALUE;
+        for(String source : sources) {
+            int page = place(source, images.get(source));
+            firstDirty = Math.min(firstDirty, page);
+        }
+        ManagedImage[] accelerated = Arrays.copyOf(pages, backing.size());
+        for(int page = firstDirty; page < backing.size(); page++)
+            accelerated[page] = loader.manage(backing.get(page));
+        ManagedImage[] replaced = pages;
+        pages = accelerated;
+        // El hilo de pintado puede estar dibujando todavía con las anteriores.
+        for(int page = firstDirty; page < replaced.length; page++)
+            retired.add(replaced[page]);
+        retiring = !retired.isEmpty();
+        if(Game.DEBUG && !GraphicsEnvironment.isHeadless())
+            System.out.println("Atlas: " + count + " regiones en " + pages.length + " página(s).");
+    }
+
+    /**
+     * Busca sitio para una imagen, la copia en su página y añade su región a la tabla.
+     * @param source La ruta del archivo de la imagen.
+     * @param image La imagen.
+     * @return El número de la página donde se ha colocado.
+     */
+    private int place(String source, BufferedImage image) {
+        int w = image.getWidth(), h = image.getHeight();
+        int page = backing.size() - 1;
+        int x, y;
+        if(w > PAGE_WIDTH || h > PAGE_HEIGHT) {
+            // No cabe en una página normal: página propia, del tamaño de la imagen.
+            backing.add(new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB));
+            page = backing.size() - 1;
+            x = 0;
+            y = 0;
+            // Lo siguiente ya no va en esta página.
+            shelfY = PAGE_HEIGHT;
+            shelfHeight = 0;
+            shelfX = PAGE_WIDTH;
+        } else {
+            if(page < 0 || shelfX + w > PAGE_WIDTH || h > shelfHeight) {
+                // Nuevo estante debajo del actual o, si no cabe, en una página nueva.
+                int top = shelfY + shelfHeight + (shelfHeight > 0 ? PADDING : 0);
+                if(page < 0 || top + h > PAGE_HEIGHT) {
+                    backing.add(new BufferedImage(PAGE_WIDTH, h, BufferedImage.TYPE_INT_ARGB));
+                    page = backing.size() - 1;
+                    top = 0;
+                }
+                shelfY = top;
+                shelfHeight = h;
+                shelfX = 0;
+            }
+            x = shelfX;
+            y = shelfY;
+            shelfX += w + PADDING;
+            grow(page, y + h);
+            writable(page);
+        }
+
+        Graphics2D g = backing.get(page).createGraphics();
+        g.setComposite(AlphaComposite.Src);
+        g.drawImage(image, x, y, null);
+        g.dispose();
+
+        if(table.length < (count + 1) * FIELDS)
+            table = Arrays.copyOf(table, table.length * 2);
+        int base = count * FIELDS;
+        table[base + PAGE] = page;
+        table[base + X] = x;
+        table[base + Y] = y;
+        table[base + WIDTH] = w;
+        table[base + HEIGHT] = h;
+        regions.put(source, count);
+        count++;
+        return page;
+    }
+
+    /**
+     * @param imageSource La ruta hasta el archivo con la imagen.
+     * @return El número de su región, o -1 si no está en el atlas.
+     */
+    public synchronized int getRegion(String imageSource) {
+        Integer region = regions.get(imageSource);
+        return region == null ? -1 : region;
+    }
+
+    /**
+     * @param region Número de la región.
+     * @return La página (acelerada) en la que está la región.
+     */
+    public Image getPage(int region) {
+        return pages[table[region * FIELDS + PAGE]].getImage();
+    }
+
+    /**
+     * @param region Número de la región.
+     * @return Columna de la página donde empieza la región.
+     */
+    public int getX(int region) {
+        return table[region * FIELDS + X];
+    }
+
+    /**
+     * @param region Número de la región.
+     * @return Fila de la página donde empieza la región.
+     */
+    public int getY(int region) {
+        return table[region * FIELDS + Y];
+    }
+
+    /**
+     * @param region Número de la región.
+     * @return Ancho de la región, el de la imagen original.
+     */
+    public int getWidth(int region) {
+        return table[region * FIELDS + WIDTH];
+    }
+
+    /**
+     * @param region Número de la región.
+     * @return Alto de la región, el de la imagen original.
+     */
+    public int getHeight(int region) {
+        return table[region * FIELDS + HEIGHT];
+    }
+
+    /**
+     * @return El número de regiones.
+     */
+    public synchronized int getRegionCount() {
+        return count;
+    }
+
+    /**
+     * @return El número de páginas.
+     */
+    public int getPageCount() {
+        return pages.length;
+    }
+
+    /**
+     * Comprueba que las páginas aceleradas siguen siendo válidas y restaura
+     * las que no (ver {@link ManagedImage#validate()}), y libera las páginas
+     * sustituidas desde la última llamada. Sólo debe llamarlo el hilo de
+     * pintado, antes de dibujar cada frame.
+     * @return El número de páginas que se han vuelto a acelerar.
+     */
+    public int validate() {
+        if(retiring)
+            flushRetired();
+        int restored = 0;
+        for(ManagedImage page : pages)
+            if(page.validate())
+                restored++;
+        return restored;
+    }
+
+    /**
+     * Libera las superficies aceleradas de las páginas sustituidas.
+     */
+    private synchronized void flushRetired() {
+        for(ManagedImage page : retired)
+            page.flush();
+        retired.clear();
+        retiring = false;
+    }
+
+    /**
+     * @return True si alguna página acelerada ha perdido su contenido desde
+     *         la última validación (hay que repetir el frame).
+     */
+    public boolean contentsLost() {
+        for(ManagedImage page : pages)
+            if(page.contentsLost())
+                return true;
+        return false;
+    }
+
+    /**
+     * Asegura que se puede dibujar en una página: si ya está publicada (su
+     * ManagedImage la usa como copia en memoria) se sigue con una copia suya.
+     * @param page La página.
+     */
+    private void writable(int page) {
+        if(page < pages.length && backing.get(page) == pages[page].getBacking())
+            resize(page, backing.get(page).getHeight());
+    }
+
+    /**
+     * Alarga una página para que tenga al menos la altura indicada.
+     * @param page La página.
+     * @param height La altura necesaria.
+     */
+    private void grow(int page, int height) {
+        if(backing.get(page).getHeight() < height)
+            resize(page, height);
+    }
+
+    /**
+     * Sustituye una página por una copia suya con otra altura.
+     * @param page La página.
+     * @param height La nueva altura.
+     */
+    private void resize(int page, int height) {
+        BufferedImage old = backing.get(page);
+        BufferedImage image = new BufferedImage(old.getWidth(), height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        g.setComposite(AlphaComposite.Src);
+        g.drawImage(old, 0, 0, null);
+        g.dispose();
+        backing.set(page, image);
+    }
+}
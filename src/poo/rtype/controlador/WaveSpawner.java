@@ -0,0 +1,113 @@
+package poo.rtype.controlador;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import poo.rtype.modelo.Enemy;
+
+/**
+ * Hace aparecer las naves enemigas de una partida poco antes de que entren
+ * en la pantalla, en lugar de crearlas todas al empezar.
+ * <p>
+ * Las naves pendientes se guardan en un calendario compacto (posición
+ * horizontal, vertical y tipo en arrays de primitivos, ordenados por la
+ * posición horizontal). Con cada paso avanza la distancia recorrida por el
+ * 'frente' de naves, a la velocidad base de las naves enemigas, y cada nave
+ * cuya posición inicial menos esa distancia queda a menos de {@link #LEAD}
+ * píxels del borde derecho de la pantalla se crea en ese punto y se añade a
+ * las entidades. Hasta entonces no se mueve ni se comprueba ninguna colisión
+ * con ella, y las entidades activas son sólo las que están (casi) en pantalla.
+ * </p>
+ * @author José Luis Pérez González
+ */
+public class WaveSpawner {
+
+    /** Distancia en píxels a la derecha de la pantalla a la que aparecen las naves */
+    private static final int LEAD = 64;
+    /** Imagen de las naves de tipo 0 */
+    private static final String IMAGE_TYPE_0 = "/poo/rtype/enemyB.png";
+    /** Imagen de las naves de tipo 1 */
+    private static final String IMAGE_TYPE_1 = "/poo/rtype/enemyA.png";
+    /** Máscara de colisión de las naves enemigas */
+    private static final String MASK = "/poo/rtype/enemy_mask.png";
+
+    /** Posición horizontal inicial de cada nave del calendario, en orden creciente */
+    private int[] x = new int[0];
+    /** Posición vertical de cada nave del calendario */
+    private int[] y = new int[0];
+    /** Tipo de cada nave del calendario */
+    private byte[] type = new byte[0];
+    /** Número de naves del calendario */
+    private int count;
+    /** Índice de la siguiente nave que debe aparecer */
+    private int next;
+    /** Distancia en píxels que ha avanzado el frente de naves desde el inicio */
+    private double distance;
+    /** Velocidad base de las naves enemigas en píxels/s */
+    private double speed;
+    /** Generador de números aleatorios de la partida, para las naves que se crean */
+    private final Random random;
+
+    /**
+     * Constructor de la clase.
+     * @param random Generador de números aleatorios de la partida.
+     */
+    public WaveSpawner(Random random) {
+        this.random = random;
+    }
+
+    /**
+     * Prepara el calendario de una partida nueva, descartando lo que
+     * quedara pendiente de la anterior.
+     * @param positions Posición inicial (x, y) de cada nave, como si todas existieran desde el principio.
+     * @param types Tipo de cada nave.
+     * @param speed Velocidad base de las naves enemigas en píxels/s.
+     */
+    public void schedule(int[][] positions, byte[] types, double speed) {
+        count = positions.length;
+        next = 0;
+        distance = 0;
+        this.speed = speed;
+        if(x.length < count) {
+            x = new int[count];
+            y = new int[count];
+            type = new byte[count];
+        }
+
+        // Ordenar por posición horizontal sin crear objetos: posición en los 32 bits altos, índice en los bajos.
+        long[] order = new long[count];
+        for(int i = 0; i < count; i++)
+            order[i] = ((long)positions[i][0] << 32) | i;
+        Arrays.sort(order);
+        for(int i = 0; i < count; i++) {
+            int index = (int)order[i];
+            x[i] = positions[index][0];
+            y[i] = positions[index][1];
+            type[i] = types[index];
+        }
+    }
+
+    /**
+     * Avanza el frente de naves y añade a las entidades las que deben aparecer.
+     * @param delta El tiempo en ms que debe simularse.
+     * @param store El almacén de entidades de la partida.
+     */
+    public void update(long delta, EntityStore store) {
+        distance += delta * speed / 1000;
+        while(next < count && x[next] - distance <= Game.P_WIDTH + LEAD) {
+            int spawnX = (int)Math.round(x[next] - distance);
+            if(type[next] == 0)
+                store.add(new Enemy(spawnX, y[next], IMAGE_TYPE_0, MASK, type[next], speed, random));
+            else
+                store.add(new Enemy(spawnX, y[next], IMAGE_TYPE_1, MASK, type[next], speed, random));
+            next++;
+        }
+    }
+
+    /**
+     * @return El número de naves que aún no han aparecido.
+     */
+    public int getPending() {
+        return count - next;
+    }
+}
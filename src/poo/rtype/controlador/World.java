@@ -0,0 +1,485 @@
+package poo.rtype.controlador;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import poo.rtype.modelo.*;
+import poo.rtype.modelo.interfaces.*;
+
+/**
+ * La simulación de una partida: jugador, naves enemigas, misiles y efectos,
+ * junto con los controladores de colisiones y movimiento que los actualizan.
+ * <p>
+ * No depende de ninguna ventana ni de ningún Canvas: con cada paso recibe
+ * las teclas pulsadas (ver {@link InputController#getKeyMask()}), que se
+ * mantienen durante todo el paso. El juego ({@link Game}) la avanza con cada
+ * paso de su bucle y la pinta; el modo sin pantalla
+ * ({@link poo.rtype.start.HeadlessLauncher}) la avanza tan rápido como puede
+ * con una entrada programada.
+ * </p>
+ * <p>
+ * Es determinista: todo lo aleatorio sale de un único generador que se
+ * inicializa con la semilla de la partida, y la hora es la de su propio
+ * reloj ({@link FrameClock}), que avanza exactamente lo simulado en cada
+ * paso. Con la misma semilla, nivel, y teclas y ms de cada paso, dos
+ * partidas son idénticas, así que se pueden grabar ({@link InputRecorder}) y
+ * repetir ({@link InputReplay}).
+ * </p>
+ * <pre>
+ * World world = new World();
+ * world.start(2, seed);
+ * while(!world.isOver())
+ *     world.tick(keys);
+ * </pre>
+ * @author José Luis Pérez González
+ */
+public class World {
+
+    /** Velocidad base a la que se mueven las naves en pixels/s */
+    private static final double moveSpeed = 150;
+    /** Capacidad del almacén de misiles (con un disparo cada 150 ms caben en pantalla unos 20) */
+    private static final int MISSILE_POOL_SIZE = 32;
+    /** Capacidad del almacén de explosiones */
+    private static final int EXPLOSION_POOL_SIZE = 16;
+    /** Entidades a partir de las cuales se usan varios hilos por defecto (propiedad rtype.parallel.threshold) */
+    private static final int PARALLEL_THRESHOLD = Integer.getInteger("rtype.parallel.threshold", 4096);
+
+    /** Indicador del modo de juego */
+    private int gameMode;
+    /** Naves restantes, explosiones, puntuación y pantalla de la sesión */
+    private final GameState state = new GameState();
+    /** Generador de números aleatorios de la partida (posiciones y movimientos de naves enemigas) */
+    private Random randGenerator = new Random();
+    /** Semilla con la que empezó la partida */
+    private long seed;
+    /** Pasos simulados desde el inicio de la partida */
+    private int ticks;
+    /** Reloj de la simulación; por defecto avanza 'period' ms por paso */
+    private FrameClock clock = new FrameClock(FrameClock.fixed(Game.getPeriod()));
+    /** Donde se graban las teclas de cada paso, o null */
+    private InputRecorder recorder;
+    /** Entidades a partir de las cuales las colisiones y el movimiento se reparten entre varios hilos */
+    private int parallelThreshold = PARALLEL_THRESHOLD;
+
+    /** Teclas pulsadas durante el paso actual */
+    private InputController input = new InputController();
+    /** Donde se registra el tiempo de cada fase del paso, o null */
+    private FrameMetrics metrics;
+    /** Controlador de la posición en la ventana de los diferentes objetos */
+    private MovementController movement;
+    /** Controlador para manejar las colisiones entre objetos */
+    private CollisionsController collisions;
+    /** Hace aparecer las naves enemigas poco antes de que entren en la pantalla */
+    private WaveSpawner spawner = new WaveSpawner(randGenerator);
+    /** Almacén de misiles reutilizables, para no crear un objeto nuevo con cada disparo */
+    private ObjectPool<Missile> missilePool;
+    /** Almacén de explosiones reutilizables */
+    private ObjectPool<Explosion> explosionPool;
+    /** Almacén de las entidades que pueden 'interaccionar' (jugador, enemigos y misiles) */
+    private EntityStore store = new EntityStore(64);
+    /** Contenedor de efectos, entidades que no interaccionan con ninguna otra (explosiones) */
+    private ArrayList<EffectIF> effects = new ArrayList<EffectIF>();
+    /** Instancia del objeto que representa al jugador, estará a su vez contenida en 'store' pero tenerla accesible
+     * por separado facilitará ciertas operaciones */
+    private Player player;
+
+    /**
+     * Constructor de la clase, sin medición de tiempos.
+     */
+    public World() {
+        this(null);
+    }
+
+    /**
+     * Constructor de la clase.
+     * @param metrics Donde registrar el tiempo de las fases de colisiones y movimiento, o null.
+     */
+    public World(FrameMetrics metrics) {
+        this.metrics = metrics;
+
+        // Misiles y explosiones se reutilizan: se crean todos ahora y durante la partida
+        // sólo se sacan y se devuelven a su almacén.
+        missilePool = new ObjectPool<Missile>(MISSILE_POOL_SIZE) {
+            @Override
+            protected Missile create() {
+                return new Missile();
+            }
+        };
+        explosionPool = new ObjectPool<Explosion>(EXPLOSION_POOL_SIZE) {
+            @Override
+            protected Explosion create() {
+                return new Explosion();
+            }
+        };
+        missilePool.fill();
+        explosionPool.fill();
+        movement = new MovementController(explosionPool, state);
+        collisions = new CollisionsController(this);
+    }
+
+    /**
+     * Empieza una partida nueva en el nivel indicado con una semilla
+     * cualquiera, descartando lo que quedara de la anterior.
+     * @param gameMode El nivel de dificultad, de 1 (Fácil) a 4 (Imposible).
+     */
+    public void start(int gameMode) {
+        start(gameMode, new Random().nextLong());
+    }
+
+    /**
+     * Empieza una partida nueva en el nivel indicado, descartando lo que
+     * quedara de la anterior.
+     * @param gameMode El nivel de dificultad, de 1 (Fácil) a 4 (Imposible).
+     * @param seed Semilla de los números aleatorios de la partida.
+     */
+    public void start(int gameMode, long seed) {
+        // Devolver a sus almacenes los misiles y explosiones que quedaran de la partida anterior.
+        while(store.size() > 0) {
+            Entity entity = store.remove(store.size() - 1);
+            if(entity instanceof Missile) {
+                entity.setVisible(false);
+                missilePool.release((Missile) entity);
+            }
+        }
+        for(EffectIF effect: effects) {
+            if(effect instanceof Explosion)
+                explosionPool.release((Explosion) effect);
+        }
+        effects.clear();
+
+        this.seed = seed;
+        randGenerator.setSeed(seed);
+        clock.reset();
+        ticks = 0;
+        recorder = null;
+
+        this.gameMode = gameMode;
+        switch (gameMode) {
+            case 1:
+                state.reset(10);
+                break;
+            case 2:
+                state.reset(15);
+                break;
+            case 3:
+                state.reset(20);
+                break;
+            case 4:
+                state.reset(30);
+                break;
+        }
+
+        initObjects();
+    }
+
+    /**
+     * Inicializamos diferentes elementos que se mostrarán en la pantalla con su posición
+     * inicial y la velocidad que les corresponda.
+     * <p>
+     * El tipo de nave enemiga, así como sus respectivas coordenadas iniciales
+     * sobre la pantalla, se generan aleatoriamente. Las naves no se crean aquí:
+     * sólo se apuntan en el calendario del {@link WaveSpawner}, que las irá
+     * creando a medida que se acerquen a la pantalla.
+     * </p>
+     */
+    private void initObjects() {
+        // Inicializar Jugador y añadirlo al almacén de entidades.
+        player = new Player((int)moveSpeed, input, missilePool);
+        store.add(player);
+
+        // Calendario de aparición de los enemigos.
+        int[][] pos = makeEnemyPositions(); // Posiciones iniciales de las naves enemigas.
+        byte[] types = new byte[pos.length];
+        for (int i = 0; i<pos.length; i++) {
+            types[i] = (byte)randGenerator.nextInt(2); // ¿De qué tipo es la nave enemiga?
+        }
+        spawner.schedule(pos, types, (double)(moveSpeed * gameMode)/2);
+        spawner.update(0, store); // Las que ya están junto a la pantalla.
+    }
+
+    /**
+     * Crea una matriz con las posiciones iniciales de las naves enemigas
+     * fuera de la pantalla. Las posiciones son aleatorias, repartidas por
+     * toda la zona, y se garantiza que no se superpongan naves entre ellas
+     * (ver {@link EnemyPlacer}).
+     * <p>
+     * Visible en el paquete para poder medirlo (ver benchmarks).
+     * </p>
+     * @return La matriz con las coordenadas para cada nave enemiga.
+     */
+    int[][] makeEnemyPositions() {
+        // Posición horizontal entre WIDTH y 2*WIDTH+500*GAME_MODE, vertical entre 30 y HEIGHT-30.
+        // Cada nave tiene una 'zona de seguridad' de 100x100 a su alrededor en la que no puede posicionarse otra nave.
+        // Si no caben todas, la zona se alarga por la derecha lo justo.
+        int count = state.getRemainingEnemies();
+        int width = Math.max(500 * gameMode + Game.P_WIDTH, EnemyPlacer.minWidth(count, Game.P_HEIGHT - 60, 100));
+        return EnemyPlacer.place(count, Game.P_WIDTH, 30, width, Game.P_HEIGHT - 60, 100, randGenerator);
+    }
+
+    /**
+     * Avanza la partida un paso lo que indique la fuente del reloj
+     * (ver {@link FrameClock#sample()}).
+     * @param keys Las teclas pulsadas durante el paso (ver {@link InputController#getKeyMask()}).
+     */
+    public void tick(int keys) {
+        tick(clock.sample(), keys);
+    }
+
+    /**
+     * Avanza la partida un paso: aparición de enemigos, colisiones, movimiento y disparos.
+     * @param delta El tiempo en ms que debe simularse.
+     * @param keys Las teclas pulsadas durante el paso (ver {@link InputController#getKeyMask()}).
+     */
+    public void tick(long delta, int keys) {
+        clock.advance(delta);
+        input.setKeyMask(keys);
+        if(recorder != null)
+            recorder.record(keys, delta);
+        spawner.update(delta, store);
+
+        // Comprobar colisiones y mover entidades y efectos; con muchas entidades, en varios hilos.
+        boolean parallel = isParallel();
+        long t0 = metrics != null ? System.nanoTime() : 0;
+        collisions.checkCollisions(store, parallel);
+        removeDestroyed();
+        long t1 = metrics != null ? System.nanoTime() : 0;
+        movement.moveEntities(store, clock, randGenerator, parallel);
+        effects = movement.moveEffects(effects, clock);
+        if(metrics != null) {
+            metrics.record(FrameMetrics.COLLISION, t1 - t0);
+            metrics.record(FrameMetrics.MOVEMENT, System.nanoTime() - t1);
+            metrics.recordUpdates(movement.getUpdated(), movement.getDormant());
+        }
+
+        if(input.space.isPressed() && isPlayerAlive()) {
+            Missile missile = player.fire(clock);
+            if(missile != null)
+                store.add(missile);
+        }
+        ticks++;
+    }
+
+    /**
+     * Retira del almacén las entidades que han dejado de ser visibles
+     * (destruidas en este paso, o misiles que han salido de la pantalla); los
+     * misiles vuelven a su almacén. Si el jugador ha sido destruido se retiran
+     * también sus misiles. Cada fila retirada se sustituye por la última, así
+     * que el coste sólo depende del número de entidades vivas.
+     */
+    private void removeDestroyed() {
+        boolean playerAlive = player.isVisible();
+        int i = 0;
+        while(i < store.size()) {
+            byte kind = store.getKind(i);
+            if(store.isVisible(i) && (playerAlive || kind != EntityStore.MISSILE)) {
+                i++;
+                continue;
+            }
+            Entity entity = store.remove(i);
+            if(kind == EntityStore.MISSILE) {
+                entity.setVisible(false);
+                missilePool.release((Missile) entity);
+            }
+        }
+    }
+
+    /**
+     * Calcula una suma de control del estado de la partida (pasos, puntos,
+     * naves restantes y posición de todas las entidades y efectos), para
+     * comprobar que una repetición llega exactamente al mismo estado.
+     * @return La suma de control.
+     */
+    public long checksum() {
+        long h = seed;
+        h = h * 31 + ticks;
+        h = h * 31 + state.getPartialScore();
+        h = h * 31 + state.getRemainingEnemies();
+        h = h * 31 + spawner.getPending();
+        for(int i = 0; i < store.size(); i++) {
+            h = h * 31 + Math.round(store.getX(i));
+            h = h * 31 + Math.round(store.getY(i));
+        }
+        for(EffectIF effect: effects) {
+            h = h * 31 + effect.getX();
+            h = h * 31 + effect.getY();
+        }
+        return h;
+    }
+
+    /**
+     * Graba las teclas de cada paso a partir de ahora. Empezar otra partida
+     * deja de grabar.
+     * @param recorder Donde grabarlas, o null para dejar de grabar.
+     */
+    public void setRecorder(InputRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    /**
+     * Cambia el número de entidades a partir del cual las colisiones y el
+     * movimiento se reparten entre varios hilos (por defecto el de la
+     * propiedad rtype.parallel.threshold, o 4096). El resultado de la
+     * simulación es el mismo con o sin hilos.
+     * @param threshold El número de entidades; Integer.MAX_VALUE para no usar nunca varios hilos.
+     */
+    public void setParallelThreshold(int threshold) {
+        this.parallelThreshold = threshold;
+    }
+
+    /**
+     * @return True si el siguiente paso repartirá las colisiones y el movimiento entre varios hilos.
+     */
+    public boolean isParallel() {
+        return store.size() >= parallelThreshold;
+    }
+
+    /**
+     * @return True si la nave del jugador sigue en juego.
+     */
+    public boolean isPlayerAlive() {
+        return player != null && player.isVisible();
+    }
+
+    /**
+     * Devuelve cierto si la partida ha terminado: el jugador ha sido destruido
+     * o no quedan naves enemigas, y ya no queda ninguna explosión por terminar.
+     * @return True si la partida ha terminado.
+     */
+    public boolean isOver() {
+        return (!isPlayerAlive() || state.getRemainingEnemies() == 0) && state.getExplosions() == 0;
+    }
+
+    /**
+     * Añade una explosión como objeto EffectIF al contenedor de efectos.
+     * La explosión se saca del almacén de explosiones reutilizables.
+     * @param x Posición de la explosión en el eje horizontal.
+     * @param y Posición de la explosión en el eje vertical.
+     * @param imageSource Ubicación del archivo dentro del directorio de la aplicación.
+     * @param frameWidth Anchura de cada frame de la animación de la explosión.
+     * @param frameHeight Altura de cada frame de la animación de la explosión.
+     * @param totalFrames Número total de frames que componen la animación de la explosión.
+     * @param frameTimeStep Cada cuanto tiempo (en milisegundos) debemos actualizar la animación.
+     */
+    public void addExplosion(int x, int y, String imageSource, int frameWidth, int frameHeight, int totalFrames, int frameTimeStep) {
+        Explosion explosion = explosionPool.obtain();
+        explosion.reset(x, y, imageSource, frameWidth, frameHeight, totalFrames, frameTimeStep);
+        effects.add(explosion);
+        state.explosionStarted();
+    }
+
+    /**
+     * Suma puntos a la puntuación parcial.
+     * @param points Los puntos obtenidos.
+     */
+    public void addScore(int points) {
+        state.addScore(points);
+    }
+
+    /**
+     * @return El generador de números aleatorios de la partida.
+     */
+    public Random getRandom() {
+        return randGenerator;
+    }
+
+    /**
+     * @return El reloj de la simulación. Se puede cambiar su fuente para acelerar, frenar o detener la partida.
+     */
+    public FrameClock getClock() {
+        return clock;
+    }
+
+    /**
+     * @return La semilla con la que empezó la partida.
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * @return Los pasos simulados desde el inicio de la partida.
+     */
+    public int getTicks() {
+        return ticks;
+    }
+
+    /**
+     * @return Las entidades movidas con todas sus reglas en el último paso.
+     */
+    public int getUpdated() {
+        return movement.getUpdated();
+    }
+
+    /**
+     * @return Las naves enemigas dormidas (ver {@link EntityStore#isDormant(int)}) en el último paso.
+     */
+    public int getDormant() {
+        return movement.getDormant();
+    }
+
+    /**
+     * @return La puntuación parcial (por naves destruidas) de la partida.
+     */
+    public int getPartialScore() {
+        return state.getPartialScore();
+    }
+
+    /**
+     * @return El estado de la sesión: pantalla, naves restantes, explosiones y puntuación.
+     */
+    public GameState getState() {
+        return state;
+    }
+
+    /**
+     * @return El nivel de dificultad de la partida.
+     */
+    public int getGameMode() {
+        return gameMode;
+    }
+
+    /**
+     * @return El jugador, o null si aún no ha empezado ninguna partida.
+     */
+    public Player getPlayer() {
+        return player;
+    }
+
+    /**
+     * @return El número de naves enemigas que aún no han aparecido.
+     */
+    public int getPendingEnemies() {
+        return spawner.getPending();
+    }
+
+    /**
+     * @return El almacén de las entidades activas (jugador, naves enemigas que ya han aparecido y misiles).
+     *         No debe modificarse.
+     */
+    public EntityStore getStore() {
+        return store;
+    }
+
+    /**
+     * @return Los efectos activos (explosiones). No debe modificarse.
+     */
+    public ArrayList<EffectIF> getEffects() {
+        return effects;
+    }
+
+    /**
+     * Devuelve el almacén de misiles, para consultar sus contadores de aciertos/fallos.
+     * @return El almacén de misiles reutilizables.
+     */
+    public ObjectPool<Missile> getMissilePool() {
+        return missilePool;
+    }
+
+    /**
+     * Devuelve el almacén de explosiones, para consultar sus contadores de aciertos/fallos.
+     * @return El almacén de explosiones reutilizables.
+     */
+    public ObjectPool<Explosion> getExplosionPool() {
+        return explosionPool;
+    }
+}
@@ -0,0 +1,334 @@
+package poo.rtype.controlador;
+
+import java.awt.Image;
+import java.util.Arrays;
+
+/**
+ * Instantánea de todo lo que hay que pintar en un momento dado: la pantalla
+ * en la que estamos, los datos del marcador y, para cada objeto visible, su
+ * imagen, la parte de ella que se dibuja y sus posiciones antes y después del
+ * último paso de la simulación.
+ * <p>
+ * La simulación la rellena al final de cada paso y el hilo de pintado la lee
+ * sin tocar las listas de entidades, que siguen modificándose mientras tanto
+ * (ver {@link SnapshotBuffer}). Los arrays sólo crecen cuando hace falta, así
+ * que reutilizar una instantánea de un paso a otro no genera basura.
+ * </p>
+ * <p>
+ * Lo que queda fuera de la pantalla, tanto antes como después del último
+ * paso (y por tanto en cualquier posición interpolada entre ambos), no se
+ * añade: sólo se cuenta como descartado.
+ * </p>
+ * <p>
+ * Las partículas (ver {@link ParticleSystem}) no se añaden una a una sino
+ * que se copian todas de golpe en sus propios arrays.
+ * </p>
+ * @author José Luis Pérez González
+ */
+public final class WorldSnapshot {
+
+    /** Pantalla de selección de nivel */
+    public static final int SCREEN_SELECTION = 0;
+    /** Pantalla de juego */
+    public static final int SCREEN_INGAME = 1;
+    /** Pantalla de Game Over / You Win */
+    public static final int SCREEN_GAMEOVER = 2;
+
+    /** Pantalla que se debe pintar */
+    private int screen;
+    /** Naves enemigas restantes */
+    private int totalEnemies;
+    /** Puntuación final de la partida */
+    private double score;
+    /** Nivel de dificultad de la partida */
+    private int gameMode;
+    /** Momento (System.nanoTime) en el que se publicó la instantánea */
+    private long time;
+
+    /** Número de objetos a pintar */
+    private int count;
+    /** Número de objetos descartados por estar fuera de la pantalla */
+    private int culled;
+    /** Imagen de cada objeto, o null si es un punto */
+    private Image[] images = new Image[64];
+    /** Posición de cada objeto antes del último paso */
+    private double[] prevX = new double[64], prevY = new double[64];
+    /** Posición de cada objeto después del último paso */
+    private double[] x = new double[64], y = new double[64];
+    /** Rectángulo de la imagen que se dibuja (ancho negativo = la imagen completa) */
+    private int[] srcX = new int[64], srcY = new int[64], srcWidth = new int[64], srcHeight = new int[64];
+
+    /** Número de partículas */
+    private int particles;
+    /** Posición de cada partícula antes y después del último paso */
+    private double[] particlePrevX = new double[0], particlePrevY = new double[0];
+    private double[] particleX = new double[0], particleY = new double[0];
+    /** Color (RGB) de cada partícula */
+    private int[] particleColor = new int[0];
+
+    /**
+     * Vacía la instantánea para volver a rellenarla.
+     * @param screen La pantalla que se debe pintar (SCREEN_*).
+     * @param totalEnemies Naves enemigas restantes.
+     */
+    public void clear(int screen, int totalEnemies) {
+        this.screen = screen;
+        this.totalEnemies = totalEnemies;
+        for(int i = 0; i < count; i++)
+            images[i] = null;
+        count = 0;
+        culled = 0;
+        particles = 0;
+    }
+
+    /**
+     * Indica la puntuación que se muestra en la pantalla de Game Over.
+     * @param finalScore La puntuación final de la partida.
+     * @param gameMode El nivel de dificultad de la partida.
+     */
+    public void setScore(double finalScore, int gameMode) {
+        this.score = finalScore;
+        this.gameMode = gameMode;
+    }
+
+    /**
+     * Añade una imagen (o una parte de ella) a pintar, si se ve en la pantalla.
+     * @param image La imagen.
+     * @param prevX Posición horizontal antes del último paso.
+     * @param prevY Posición vertical antes del último paso.
+     * @param x Posición horizontal actual.
+     * @param y Posición vertical actual.
+     * @param srcX Columna de la imagen donde empieza la parte a dibujar.
+     * @param srcY Fila de la imagen donde empieza la parte a dibujar.
+     * @param srcWidth Ancho de la parte a dibujar, negativo para dibujar la imagen completa.
+     * @param srcHeight Alto de la parte a dibujar.
+     */
+    public void addSprite(Image image, double prevX, double prevY, double x, double y,
+                          int srcX, int srcY, int srcWidth, int srcHeight) {
+        int w = srcWidth, h = srcHeight;
+        if(image == null)
+            w = h = 1;
+        else if(srcWidth < 0) {
+            w = image.getWidth(null);
+            h = image.getHeight(null);
+        }
+        if(Math.min(prevX, x) >= Game.P_WIDTH || Math.max(prevX, x) + w <= 0
+                || Math.min(prevY, y) >= Game.P_HEIGHT || Math.max(prevY, y) + h <= 0) {
+            culled++;
+            return;
+        }
+        if(count == images.length)
+            grow();
+        int i = count++;
+        this.images[i] = image;
+        this.prevX[i] = prevX;
+        this.prevY[i] = prevY;
+        this.x[i] = x;
+        this.y[i] = y;
+        this.srcX[i] = srcX;
+        this.srcY[i] = srcY;
+        this.srcWidth[i] = srcWidth;
+        this.srcHeight[i] = srcHeight;
+    }
+
+    /**
+     * Añade un punto a pintar.
+     * @param prevX Posición horizontal antes del último paso.
+     * @param prevY Posición vertical antes del último paso.
+     * @param x Posición horizontal actual.
+     * @param y Posición vertical actual.
+     */
+    public void addPoint(double prevX, double prevY, double x, double y) {
+        addSprite(null, prevX, prevY, x, y, 0, 0, 0, 0);
+    }
+
+    /**
+     * Copia las posiciones y los colores de todas las partículas de un sistema.
+     * @param system El sistema de partículas.
+     */
+    public void setParticles(ParticleSystem system) {
+        int n = system.count;
+        if(particleX.length < n) {
+            int size = Math.max(n, particleX.length * 2);
+            particlePrevX = new double[size];
+            particlePrevY = new double[size];
+            particleX = new double[size];
+            particleY = new double[size];
+            particleColor = new int[size];
+        }
+        System.arraycopy(system.prevX, 0, particlePrevX, 0, n);
+        System.arraycopy(system.prevY, 0, particlePrevY, 0, n);
+        System.arraycopy(system.x, 0, particleX, 0, n);
+        System.arraycopy(system.y, 0, particleY, 0, n);
+        System.arraycopy(system.color, 0, particleColor, 0, n);
+        particles = n;
+    }
+
+    /**
+     * Duplica la capacidad de los arrays.
+     */
+    private void grow() {
+        int size = images.length * 2;
+        images = Arrays.copyOf(images, size);
+        prevX = Arrays.copyOf(prevX, size);
+        prevY = Arrays.copyOf(prevY, size);
+        x = Arrays.copyOf(x, size);
+        y = Arrays.copyOf(y, size);
+        srcX = Arrays.copyOf(srcX, size);
+        srcY = Arrays.copyOf(srcY, size);
+        srcWidth = Arrays.copyOf(srcWidth, size);
+        srcHeight = Arrays.copyOf(srcHeight, size);
+    }
+
+    /**
+     * Lo usa SnapshotBuffer al publicar la instantánea.
+     * @param time El momento (System.nanoTime) de la publicación.
+     */
+    void setTime(long time) {
+        this.time = time;
+    }
+
+    /**
+     * @return El momento (System.nanoTime) en el que se publicó la instantánea.
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * @return La pantalla que se debe pintar (SCREEN_*).
+     */
+    public int getScreen() {
+        return screen;
+    }
+
+    /**
+     * @return Naves enemigas restantes.
+     */
+    public int getTotalEnemies() {
+        return totalEnemies;
+    }
+
+    /**
+     * @return La puntuación final de la partida.
+     */
+    public double getScore() {
+        return score;
+    }
+
+    /**
+     * @return El nivel de dificultad de la partida.
+     */
+    public int getGameMode() {
+        return gameMode;
+    }
+
+    /**
+     * @return El número de objetos a pintar.
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @return El número de objetos descartados por estar fuera de la pantalla.
+     */
+    public int getCulled() {
+        return culled;
+    }
+
+    /**
+     * @return El número de partículas.
+     */
+    public int getParticleCount() {
+        return particles;
+    }
+
+    /**
+     * Posición horizontal de una partícula interpolada entre el paso anterior y el actual.
+     * @param i Índice de la partícula.
+     * @param alpha 0 para la posición anterior, 1 para la actual.
+     * @return La posición en píxels.
+     */
+    public int getParticleX(int i, double alpha) {
+        return (int)Math.round(particlePrevX[i] + (particleX[i] - particlePrevX[i]) * alpha);
+    }
+
+    /**
+     * Posición vertical de una partícula interpolada entre el paso anterior y el actual.
+     * @param i Índice de la partícula.
+     * @param alpha 0 para la posición anterior, 1 para la actual.
+     * @return La posición en píxels.
+     */
+    public int getParticleY(int i, double alpha) {
+        return (int)Math.round(particlePrevY[i] + (particleY[i] - particlePrevY[i]) * alpha);
+    }
+
+    /**
+     * @param i Índice de la partícula.
+     * @return Su color (RGB).
+     */
+    public int getParticleColor(int i) {
+        return particleColor[i];
+    }
+
+    /**
+     * @param i Índice del objeto.
+     * @return Su imagen, o null si es un punto.
+     */
+    public Image getImage(int i) {
+        return images[i];
+    }
+
+    /**
+     * Posición horizontal de un objeto interpolada entre el paso anterior y el actual.
+     * @param i Índice del objeto.
+     * @param alpha 0 para la posición anterior, 1 para la actual.
+     * @return La posición en píxels.
+     */
+    public int getX(int i, double alpha) {
+        return (int)Math.round(prevX[i] + (x[i] - prevX[i]) * alpha);
+    }
+
+    /**
+     * Posición vertical de un objeto interpolada entre el paso anterior y el actual.
+     * @param i Índice del objeto.
+     * @param alpha 0 para la posición anterior, 1 para la actual.
+     * @return La posición en píxels.
+     */
+    public int getY(int i, double alpha) {
+        return (int)Math.round(prevY[i] + (y[i] - prevY[i]) * alpha);
+    }
+
+    /**
+     * @param i Índice del objeto.
+     * @return Columna de la imagen donde empieza la parte a dibujar.
+     */
+    public int getSrcX(int i) {
+        return srcX[i];
+    }
+
+    /**
+     * @param i Índice del objeto.
+     * @return Fila de la imagen donde empieza la parte a dibujar.
+     */
+    public int getSrcY(int i) {
+        return srcY[i];
+    }
+
+    /**
+     * @param i Índice del objeto.
+     * @return Ancho de la parte a dibujar (negativo = la imagen completa).
+     */
+    public int getSrcWidth(int i) {
+        return srcWidth[i];
+    }
+
+    /**
+     * @param i Índice del objeto.
+     * @return Alto de la parte a dibujar.
+     */
+    public int getSrcHeight(int i) {
+        return srcHeight[i];
+    }
+}
@@ -2,9 +2,11 @@ package poo.rtype.modelo;
 
 import java.awt.Color;
 import java.awt.Graphics2D;
-import java.awt.Image;
 
-import poo.rtype.controlador.ImageLoader;
+import poo.rtype.controlador.AssetCache;
+import poo.rtype.controlador.FrameClock;
+import poo.rtype.controlador.TextureAtlas;
+import poo.rtype.controlador.WorldSnapshot;
 import poo.rtype.modelo.interfaces.EffectIF;
 
 /**
@@ -24,6 +26,10 @@ public class Effect implements EffectIF {
     private double x;
     /** La posición de la entidad en el eje vertical */
     private double y;
+    /** Posición horizontal antes de la última actualización, para interpolar al dibujar */
+    private double prevX;
+    /** Posición vertical antes de la última actualización, para interpolar al dibujar */
+    private double prevY;
     /** La velocidad horizontal de la entidad (pixels/seg) */
     private double dx;
     /** La velocidad vertical de la entidad (pixels/seg) */
@@ -35,10 +41,12 @@ public class Effect implements EffectIF {
     /** La altura de la imagen */
     private int height;
 
-    /** Objeto Image con la información de la imagen que forma la entidad */
-    private Image image;
-    /** Objeto Image con la información del sprite que forma la entidad */
-    private Image sprite;
+    /** Atlas de texturas del que se dibuja el efecto */
+    private TextureAtlas atlas;
+    /** Región del atlas con la imagen o la tira de frames del efecto, o -1 si no tiene imagen */
+    private int region = -1;
+    /** True si la región es una tira de frames (una animación) */
+    private boolean animated;
     /** Ancho en píxels de cada frame de una animación (la animación será una imagen en forma de sprite) */
     private int frameWidth;
     /** Altura en píxels de cada frame de una animación */
@@ -47,7 +55,7 @@ public class Effect implements EffectIF {
     private int startOffset;
     /** Posición final dentro del sprite, del frame que debe dibujarse */
     private int endOffset;
-    /** Momento en el que se inicia la animación */
+    /** Momento en el que se inicia la animación, o -1 si aún no se ha animado */
     private long initTime;
     /** Cada cuánto tiempo, en milisegundos, sebe actualizarse el frame de la animación */
     private long frameTimeStep;
@@ -58,9 +66,6 @@ public class Effect implements EffectIF {
     /** Frame que se muestra actualmente */
     private int currentFrame;
 
-    /** Nos ayudamos de esta clase para cargar las imágenes de la entidad */
-    private ImageLoader loader = new ImageLoader();
-
     /**
      * Constructor si se trata de una animación (sprite).
      * @param x Posición inicial del efecto en el eje horizontal.
@@ -72,22 +77,7 @@ public class Effect implements EffectIF {
      * @param frameTimeStep Tiempo que debe transcurrir entre frame y frame de la animación.
      */
     public Effect(int x, int y, String imageSource, int frameWidth, int frameHeight, int totalFrames, int frameTimeStep) {
-        this.x = x;
-        this.y = y;
-
-        this.initTime = System.currentTimeMillis();
-        this.frameTimeStep = frameTimeStep;
-        this.timeNextFrame = this.initTime + this.frameTimeStep;
-
-        sprite = loader.LoadImage(imageSource);
-        this.width = sprite.getWidth(null);
-        this.height = sprite.getHeight(null);
-        this.frameWidth = frameWidth;
-        this.frameHeight = frameHeight;
-        this.totalFrames = totalFrames;
-
-        this.currentFrame = 0;
-        setVisible(true);
+        setAnimation(x, y, imageSource, frameWidth, frameHeight, totalFrames, frameTimeStep);
     }
 
     /**
@@ -100,9 +90,12 @@ public class Effect implements EffectIF {
     public Effect(int x, int y, String imageSource) {
         this.x = x;
         this.y = y;
-        image = loader.LoadImage(imageSource);
-        this.width = image.getWidth(null);
-        this.height = image.getHeight(null);
+        this.prevX = x;
+        this.prevY = y;
+        atlas = AssetCache.getAtlas();
+        region = AssetCache.getSprite(imageSource);
+        this.width = atlas.getWidth(region);
+        this.height = atlas.getHeight(region);
         setVisible(true);
     }
 
@@ -114,6 +107,44 @@ public class Effect implements EffectIF {
     public Effect(int x, int y) {
         this.x = x;
         this.y = y;
+        this.prevX = x;
+        this.prevY = y;
+        setVisible(true);
+    }
+
+    /**
+     * (Re)inicia el efecto como una animación que empieza en su primer frame.
+     * Lo usa el constructor y también las subclases que se reutilizan (ver Explosion).
+     * @param x Posición inicial del efecto en el eje horizontal.
+     * @param y Posición inicial del efecto en el eje vertical.
+     * @param imageSource Ruta hasta el archivo con la imagen/sprite.
+     * @param frameWidth Ancho en píxels de cada frame de la animación.
+     * @param frameHeight Alto en píxels de cada frame de la animación.
+     * @param totalFrames Número de frames que contiene la animación.
+     * @param frameTimeStep Tiempo que debe transcurrir entre frame y frame de la animación.
+     */
+    protected void setAnimation(int x, int y, String imageSource, int frameWidth, int frameHeight, int totalFrames, int frameTimeStep) {
+        this.x = x;
+        this.y = y;
+        this.prevX = x;
+        this.prevY = y;
+
+        // La animación empieza con el primer animateEffect(), que ya sabe la hora.
+        this.initTime = -1;
+        this.frameTimeStep = frameTimeStep;
+
+        atlas = AssetCache.getAtlas();
+        region = AssetCache.getSprite(imageSource);
+        animated = true;
+        this.width = atlas.getWidth(region);
+        this.height = atlas.getHeight(region);
+        this.frameWidth = frameWidth;
+        this.frameHeight = frameHeight;
+        this.totalFrames = totalFrames;
+
+        this.currentFrame = 0;
+        this.startOffset = 0;
+        this.endOffset = 0;
         setVisible(true);
     }
 
@@ -122,12 +153,18 @@ public class Effect implements EffectIF {
      * llamar a éste método con cada actualización de estado
      * del juego para comprobar si debe cambiar el frame
      * que se muestra.
+     * @param clock El reloj de la simulación.
      */
-    public void animateEffect() {
-        if(sprite == null)
+    public void animateEffect(FrameClock clock) {
+        if(!animated)
             return;
 
-        if(timeNextFrame <= System.currentTimeMillis()) {
+        long now = clock.getTime();
+        if(initTime < 0) {
+            initTime = now;
+            timeNextFrame = initTime + frameTimeStep;
+        }
+        if(timeNextFrame <= now) {
             currentFrame++;
             if(currentFrame >= totalFrames) {
                 currentFrame = 0;
@@ -135,7 +172,7 @@ public class Effect implements EffectIF {
             }
             startOffset = currentFrame * frameWidth;
             endOffset = startOffset + frameWidth;
-            timeNextFrame = System.currentTimeMillis() + frameTimeStep;
+            timeNextFrame = now + frameTimeStep;
         }
     }
 
@@ -143,7 +180,10 @@ public class Effect implements EffectIF {
      * {@inheritDoc}
      */
     @Override
-    public void move(long delta) {
+    public void move(FrameClock clock) {
+        long delta = clock.getDelta();
+        prevX = x;
+        prevY = y;
         x += (delta * dx) / 1000;
         y += (delta * dy) / 1000;
     }
@@ -168,6 +208,9 @@ public class Effect implements EffectIF {
     @Override
     public void setX(int x) {
         this.x = x;
+        // Una recolocación no se interpola (no queremos ver la nave cruzar la pantalla).
+        this.prevX = this.x;
+        this.prevY = this.y;
     }
 
     /**
@@ -176,6 +219,8 @@ public class Effect implements EffectIF {
     @Override
     public void setY(int y) {
         this.y = y;
+        this.prevX = this.x;
+        this.prevY = this.y;
     }
 
     /**
@@ -254,21 +299,55 @@ public class Effect implements EffectIF {
      */
     @Override
     public void Draw(Graphics2D g2d) {
+        Draw(g2d, 1);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void Draw(Graphics2D g2d, double alpha) {
         if(!isVisible())
             return;
+        int px = (int)Math.round(prevX + (x - prevX) * alpha);
+        int py = (int)Math.round(prevY + (y - prevY) * alpha);
         // Dibujar el frame correspondiente al sprite...
-        if(sprite != null) {
-            g2d.drawImage(sprite, getX(), getY(), getX()+frameWidth, getY()+frameHeight, startOffset, 0, endOffset, frameHeight, null);
+        if(animated) {
+            int sx = atlas.getX(region), sy = atlas.getY(region);
+            g2d.drawImage(atlas.getPage(region), px, py, px+frameWidth, py+frameHeight,
+                    sx+startOffset, sy, sx+endOffset, sy+frameHeight, null);
             return;
         }
         // o dibujar la imagen 'estática'...
-        if(image != null) {
-            g2d.drawImage(image, getX(), getY(), null);
+        if(region >= 0) {
+            int sx = atlas.getX(region), sy = atlas.getY(region);
+            g2d.drawImage(atlas.getPage(region), px, py, px+width, py+height, sx, sy, sx+width, sy+height, null);
             return;
         }
         // o dibujar un puntito.
         g2d.setColor(new Color(225,225,225));
-        g2d.drawLine(getX(), getY(), getX(), getY());
+        g2d.drawLine(px, py, px, py);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Igual que {@link #Draw(Graphics2D, double)}: el frame actual del sprite,
+     * la imagen completa o un punto.
+     * </p>
+     */
+    @Override
+    public void Draw(WorldSnapshot snapshot) {
+        if(!isVisible())
+            return;
+        if(animated)
+            snapshot.addSprite(atlas.getPage(region), prevX, prevY, x, y, atlas.getX(region) + startOffset,
+                    atlas.getY(region), endOffset - startOffset, frameHeight);
+        else if(region >= 0)
+            snapshot.addSprite(atlas.getPage(region), prevX, prevY, x, y, atlas.getX(region), atlas.getY(region),
+                    width, height);
+        else
+            snapshot.addPoint(prevX, prevY, x, y);
     }
 
 }
@@ -1,5 +1,7 @@
 package poo.rtype.modelo;
 
+import java.util.Random;
+
 /**
  * Created by Jose Luis on 01/05/2015.
  */
@@ -13,8 +15,9 @@ public class EnemyA extends Enemy {
      * @param shipMask  La ubicación del archivo con la máscara de la imagen del objeto.
      * @param enemyType El tipo de enmigo: 1 (se mueve verticalmente) ó 0 (no se mueve verticalmente).
      * @param moveSpeed La velocidad a la que se mueve el objeto en píxels/segundo.
+     * @param random    Generador de números aleatorios de la partida.
      */
-    public EnemyA(int x, int y, String shipImage, String shipMask, byte enemyType, double moveSpeed) {
-        super(x, y, shipImage, shipMask, enemyType, moveSpeed);
+    public EnemyA(int x, int y, String shipImage, String shipMask, byte enemyType, double moveSpeed, Random random) {
+        super(x, y, shipImage, shipMask, enemyType, moveSpeed, random);
     }
 }
@@ -1,65 +1,107 @@
 package poo.rtype.modelo;
 
 import java.awt.Graphics2D;
-import java.awt.Image;
 import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
-import java.io.IOException;
 
-import javax.imageio.ImageIO;
-import poo.rtype.controlador.ImageLoader;
+import poo.rtype.controlador.AssetCache;
+import poo.rtype.controlador.EntityStore;
+import poo.rtype.controlador.FrameClock;
+import poo.rtype.controlador.TextureAtlas;
+import poo.rtype.controlador.WorldSnapshot;
 import poo.rtype.modelo.interfaces.CollisionableIF;
 import poo.rtype.modelo.interfaces.EntityIF;
 
 /**
  * Esta clase implementa la interfaz EntityIF y será a su vez extendida
  * por cualquier objeto de tipo Nave o Misil del juego.
+ * <p>
+ * La posición, velocidad, visibilidad y demás estado de la entidad no se
+ * guardan en el objeto sino en una fila de un {@link EntityStore}: el de la
+ * partida mientras la entidad está en ella, o uno propio de una sola fila
+ * mientras no. El objeto conserva la imagen y la máscara.
+ * </p>
  *
  * @author José Luis Pérez González
  */
 public class Entity implements EntityIF {
-    /** La posición de la entidad en el eje horizontal */
-    private double x;
-    /** La posición de la entidad en el eje vertical */
-    private double y;
-    /** La velocidad horizontal de la entidad (pixels/seg) */
-    private double dx;
-    /** La velocidad vertical de la entidad (pixels/seg) */
-    private double dy;
+    /** Almacén propio, donde se guarda el estado mientras la entidad no está en una partida */
+    private final EntityStore home;
+    /** Almacén donde está ahora el estado de la entidad */
+    private EntityStore store;
+    /** Fila de la entidad en 'store' */
+    private int row;
     /** El ancho en píxels de la entidad (definido por su imagen) */
     private int width;
     /** La altura en píxels de la entidad (definido por su imagen) */
     private int height;
-    /** La visibilidad en pantalla de la entidad */
-    private boolean visible;
-    /** Objeto Image con la información de la imagen que forma la entidad */
-    private Image image;
-    /** Un array de enteros que representa la máscara de la entidad, se usa para detectar colisiones precisas */
-    private int[] maskArray;
-
-    /** Se usa esta clase como ayuda para cargar las imágenes correspondientes a la entidad */
-    private ImageLoader loader = new ImageLoader();
+    /** Atlas de texturas del que se dibuja la entidad */
+    private TextureAtlas atlas;
+    /** Región del atlas con la imagen de la entidad */
+    private int sprite;
+    /** La máscara de la entidad (un bit por píxel), se usa para detectar colisiones precisas */
+    private PixelMask mask;
 
     /**
      * Constructor de la Entidad.
+     * <p>
+     * La imagen (una región del atlas de texturas) y la máscara se obtienen de
+     * la caché compartida, de modo que sólo se leen del disco la primera vez
+     * que se crea una entidad de cada tipo.
+     * </p>
      * @param x La posición sobre el eje horizontal.
      * @param y La posición sobre el eje vertical.
      * @param entityImage La ubicación del archivo de imagen de la entidad.
      * @param entityImageMask La ubicación del archivo con la máscara de
      * 						  la imagen de la entidad.
+     * @param kind El tipo de entidad (ver {@link EntityStore#PLAYER}, {@link EntityStore#ENEMY}
+     *             y {@link EntityStore#MISSILE}).
+     */
+    public Entity(int x, int y, String entityImage, String entityImageMask, byte kind) {
+        atlas = AssetCache.getAtlas();
+        sprite = AssetCache.getSprite(entityImage);
+        width = atlas.getWidth(sprite);
+        height = atlas.getHeight(sprite);
+        mask = AssetCache.getMask(entityImageMask);
+        home = new EntityStore(1);
+        store = home;
+        row = home.create(this, kind, x, y, width, height);
+    }
+
+    /**
+     * Cambia la fila en la que está el estado de la entidad. Sólo debe
+     * llamarlo {@link EntityStore} al añadir, retirar o mover filas.
+     * @param store El almacén.
+     * @param row La fila.
+     */
+    public void bind(EntityStore store, int row) {
+        this.store = store;
+        this.row = row;
+    }
+
+    /**
+     * @return El almacén en el que está ahora el estado de la entidad.
+     */
+    public EntityStore getStore() {
+        return store;
+    }
+
+    /**
+     * @return La fila de la entidad en {@link #getStore()}.
+     */
+    public int getRow() {
+        return row;
+    }
+
+    /**
+     * @return El almacén propio de la entidad, de una sola fila.
      */
-    public Entity(int x, int y, String entityImage, String entityImageMask) {
-        image = loader.LoadImage(entityImage);
-        visible = true;
-        this.x = x;
-        this.y = y;
-        width = image.getWidth(null);
-        height = image.getHeight(null);
-        maskArray = makeMaskArray(entityImageMask);
+    public EntityStore getHome() {
+        return home;
     }
 
     /**
-     * Construimos el array que nos servirá para calcular colisiones
+     * Construimos la máscara que nos servirá para calcular colisiones
      * "pixel-perfect", más precisas que si sólo usáramos detección mediante
      * intersects().
      * <p>
@@ -70,55 +112,41 @@ public class Entity implements EntityIF {
      * tenerse en cuenta en los cálculos de la colisión. 
      * </p>
      * <p>
-     * El array que genera éste método contendrá N enteros, donde N es la altura
-     * en píxels de la máscara de la imagen, y cada entero representa cada una de
-     * las filas de la máscara. Este entero es interpretado en binario, de modo
-     * que cada uno de los píxeles de la máscara corresponde con uno
-     * de sus dígitos (1 indica un píxel de color blanco, y 0 un píxel de
-     * color negro). 
+     * Cada fila de la máscara se guarda en una o varias palabras de 64 bits
+     * (long), interpretadas en binario de modo que cada uno de los píxeles de la
+     * máscara corresponde con uno de sus dígitos (1 indica un píxel de color
+     * blanco, y 0 un píxel de color negro). Al usar tantas palabras por fila
+     * como sea necesario no hay límite en el ancho de la imagen.
      * </p>
      * <p>
-     * OJO! Esto nos limita a usar imágenes de 32x32 píxeles de tamaño
-     * máximo. Un valor int es de 32 bits y no podemos por lo tanto representar
-     * imágenes mayores. Se podría implementar para imágenes más grandes
-     * pero se complicaría demasiado el método y para la práctica es suficiente.
+     * Lo invoca {@link AssetCache} una única vez por cada archivo de máscara; la
+     * máscara resultante se comparte entre todas las entidades que la usan.
      * </p>
-     * @param entityImageMask La ubicación del archvio con la máscara de la imagen.
-     * @return El array que representa la máscara.
+     * @param imageMask La imagen con la máscara (se necesita BufferedImage para leer los valores RGB de cada píxel).
+     * @return La máscara de la imagen.
      */
-    private int[] makeMaskArray(String entityImageMask) {
-
-        // Se necesita bufferImage debido a que vamos a recoger una matriz con los valors RGB de cada píxel de la imagen.
-        BufferedImage imageMask = null;
-
-        try {
-            imageMask = ImageIO.read(this.getClass().getResource(entityImageMask));
-        }
-        catch (IOException ex) {
-            System.out.println("Error: no se ha podido leer el archivo de máscara indicado: " + entityImageMask);
-        }
+    public static PixelMask makeMaskArray(BufferedImage imageMask) {
+        int width = imageMask.getWidth();
+        int height = imageMask.getHeight();
+        int words = PixelMask.wordsPerRow(width);
 
         // Array de ancho*alto elementos cada uno de los cuales contiene el valor RGB de cada pixel de la máscara.
         int [] pixels = imageMask.getRGB(0, 0, width, height, null, 0, width);
-        // Array que contendrá un entero por cada fila de la máscara, y este entero en binario representará
+        // Array que contendrá 'words' valores long por cada fila de la máscara, que en binario representarán
         // con un 0 un pixel que no forma parte de la imagen (transparente), y con un 1 un pixel que sí forma
-        // parte de ella, es decir que debe tenerse en cuenta en las colisiones. 
-        int [] mask = new int[this.height];
-        for (int i = 0; i<this.height; i++){
-            for (int j = 0; j<this.width; j++) {
+        // parte de ella, es decir que debe tenerse en cuenta en las colisiones.
+        long [] mask = new long[height * words];
+        for (int i = 0; i<height; i++){
+            for (int j = 0; j<width; j++) {
                 // Eliminar Alpha channel de cada pixel y desplazar los bits 23 veces a la derecha, dejando su valor en 0 o en 1.
                 // Recordatorio: los píxels son de color blanco (FFFFFF) o negro (000000). Nos quedamos con el bit
                 // más significativo de la representación en binario de cada píxel.
-                pixels[i*this.width + j] = (pixels[i*this.width + j] & 0x00FFFFFF) >> 23;
-                // Con cada entrada de un píxel nuevo, se desplaza la fila correspondiente de la máscara
-                // un bit a la izquierda para hacer sitio al que entra.
-                mask[i] = mask[i] << 1;
-                // Añadir la representación del píxel calculado anteriormente a la fila correspondiente de la máscara.
-                mask[i] += pixels[i*this.width + j];
+                long pixel = (pixels[i*width + j] & 0x00FFFFFF) >> 23;
+                // El píxel j de la fila va a la palabra j/64, contando los bits desde el más significativo.
+                mask[i*words + (j >>> 6)] |= pixel << (63 - (j & 63));
             }
         }
-        pixels = null;
-        return mask;
+        return new PixelMask(width, height, mask);
     }
 
     /**
@@ -155,47 +183,9 @@ public class Entity implements EntityIF {
      * @return True si se produce una colisión entre las entidades.
      */
     private boolean checkPixelCollisions(CollisionableIF e) {
-        /** La primera fila de la Entidad 1 en la cual se produce una intersección */
-        int lineEntity1;
-        /** La primera fila de la Entidad 2 en la cual se produce una intersección */
-        int lineEntity2;
-        /** El número total de filas de la máscara que intersectan entre ellas */
-        int intersectedLines;
-        /** Array que representa la máscara de la Entidad 1 */
-        int[] entity1Mask = this.getMaskArray();
-        /** Array que representa la máscara de la Entidad 2 */
-        int[] entity2Mask = e.getMaskArray();
-        /**
-         *  El desplazamiento que hay que aplicar a las máscaras.
-         *  Debemos tener en cuenta que las intersecciones pueden producirse
-         *  siendo la posición sobre el eje horizontal (x) de cada Entidad diferente,
-         *  por lo tanto tendremos que desplazar una de las máscaras para que
-         *  coincidan entre ellas.
-         */
-        int offset;
-
-        if(this.getY() <= e.getY()) {
-            lineEntity1 = e.getY() - this.getY();
-            lineEntity2 = 0;
-            intersectedLines = Math.min(this.getHeight() - lineEntity1, e.getHeight());
-        } else {
-            lineEntity1 = 0;
-            lineEntity2 = this.getY() - e.getY();
-            intersectedLines = Math.min(this.getHeight(), e.getHeight() - lineEntity2);
-        }
-
-        offset = e.getX() - this.getX();
-        for(int i = 0; i<intersectedLines; i++) {
-            long intersectedLineE1 = entity1Mask[i + lineEntity1]; // Al aplicar el offset puede que se salga del rango de int, se necesita long
-            long intersectedLineE2 = entity2Mask[i + lineEntity2]; // Idem
-            if(offset > 0)
-                intersectedLineE2 = intersectedLineE2 << offset;
-            else
-                intersectedLineE1 = intersectedLineE1 << -offset;
-            if((intersectedLineE1 & intersectedLineE2) != 0)
-                return true;
-        }
-        return false;
+        // Posición de la Entidad 2 respecto a la Entidad 1; la máscara se encarga
+        // de desplazar sus filas para que coincidan las columnas de ambas.
+        return this.getMask().intersects(e.getMask(), e.getX() - this.getX(), e.getY() - this.getY());
     }
 
     /**
@@ -203,7 +193,7 @@ public class Entity implements EntityIF {
      */
     @Override
     public int getX() {
-        return (int) Math.round(x);
+        return (int) Math.round(store.getX(row));
     }
 
     /**
@@ -211,7 +201,7 @@ public class Entity implements EntityIF {
      */
     @Override
     public int getY() {
-        return (int) Math.round(y);
+        return (int) Math.round(store.getY(row));
     }
 
     /**
@@ -219,7 +209,8 @@ public class Entity implements EntityIF {
      */
     @Override
     public void setX(int x) {
-        this.x = x;
+        // Una recolocación no se interpola (no queremos ver la nave cruzar la pantalla).
+        store.setX(row, x);
     }
 
     /**
@@ -227,7 +218,7 @@ public class Entity implements EntityIF {
      */
     @Override
     public void setY(int y) {
-        this.y = y;
+        store.setY(row, y);
     }
 
     /**
@@ -250,15 +241,14 @@ public class Entity implements EntityIF {
      * {@inheritDoc}
      */
     public boolean isVisible() {
-        return visible;
+        return store.isVisible(row);
     }
 
     /**
      * {@inheritDoc}
      */
     public void setVisible(boolean visible) {
-        this.visible = visible;
-
+        store.setVisible(row, visible);
     }
 
     /**
@@ -266,24 +256,28 @@ public class Entity implements EntityIF {
      */
     @Override
     public Rectangle getBounds() {
-        return new Rectangle((int)x, (int)y, width, height);
+        return new Rectangle((int)store.getX(row), (int)store.getY(row), width, height);
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    public int[] getMaskArray() {
-        return maskArray;
+    public PixelMask getMask() {
+        return mask;
     }
 
     /**
      * {@inheritDoc}
+     * <p>
+     * Sólo avanza la posición según la velocidad. Lo que cada tipo de entidad
+     * hace además al moverse durante la partida lo hace el
+     * {@link poo.rtype.controlador.MovementController} para todas a la vez.
+     * </p>
      */
     @Override
-    public void move(long delta) {
-        x += (delta * dx) / 1000;
-        y += (delta * dy) / 1000;
+    public void move(FrameClock clock) {
+        store.integrate(row, clock.getDelta());
     }
 
     /**
@@ -291,7 +285,7 @@ public class Entity implements EntityIF {
      */
     @Override
     public void setHorizontalMovement(double dx) {
-        this.dx = dx;
+        store.setDx(row, dx);
     }
 
     /**
@@ -299,7 +293,7 @@ public class Entity implements EntityIF {
      */
     @Override
     public void setVerticalMovement(double dy) {
-        this.dy = dy;
+        store.setDy(row, dy);
     }
 
     /**
@@ -307,7 +301,7 @@ public class Entity implements EntityIF {
      */
     @Override
     public double getHorizontalMovement() {
-        return dx;
+        return store.getDx(row);
     }
 
     /**
@@ -315,7 +309,7 @@ public class Entity implements EntityIF {
      */
     @Override
     public double getVerticalMovement() {
-        return dy;
+        return store.getDy(row);
     }
 
     /**
@@ -323,8 +317,31 @@ public class Entity implements EntityIF {
      */
     @Override
     public void Draw(Graphics2D g2d) {
+        Draw(g2d, 1);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void Draw(Graphics2D g2d, double alpha) {
+        if(!isVisible())
+            return;
+        double x = store.getX(row), y = store.getY(row), prevX = store.getPrevX(row), prevY = store.getPrevY(row);
+        int px = (int)Math.round(prevX + (x - prevX) * alpha);
+        int py = (int)Math.round(prevY + (y - prevY) * alpha);
+        int sx = atlas.getX(sprite), sy = atlas.getY(sprite);
+        g2d.drawImage(atlas.getPage(sprite), px, py, px + width, py + height, sx, sy, sx + width, sy + height, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void Draw(WorldSnapshot snapshot) {
         if(!isVisible())
             return;
-        g2d.drawImage(image, getX(), getY(), null);
+        snapshot.addSprite(atlas.getPage(sprite), store.getPrevX(row), store.getPrevY(row), store.getX(row),
+                store.getY(row), atlas.getX(sprite), atlas.getY(sprite), width, height);
     }
 }
@@ -1,5 +1,7 @@
 package poo.rtype.modelo;
 
+import poo.rtype.controlador.FrameClock;
+
 /**
  * Esta clase extiende Effect y será utilizada por los objetos
  * que sean de 'efectos especiales', concrétamente por las explosiones
@@ -21,16 +23,40 @@ public class Explosion extends Effect {
         super(x, y, imageSource, frameWidth, frameHeight, totalFrames, frameTimeStep);
     }
 
+    /**
+     * Constructor para crear explosiones 'en reserva' dentro de un ObjectPool.
+     * La explosión no es visible hasta que se reinicializa con
+     * {@link #reset(int, int, String, int, int, int, int)}.
+     */
+    public Explosion() {
+        super(0, 0);
+        setVisible(false);
+    }
+
+    /**
+     * Reinicializa una explosión reutilizada para volver a mostrarla desde su primer frame.
+     * @param x Posición de la explosión en el eje horizontal.
+     * @param y Posición de la explosión en el eje horizontal.
+     * @param imageSource Ubicación del archivo con el srpite de la explosión.
+     * @param frameWidth Anchura de cada frame de la animación con la explosión.
+     * @param frameHeight Alto de cada frame de la animación con la explosión.
+     * @param totalFrames Número de frames que componen la animación de la explosión.
+     * @param frameTimeStep Tiempo que se debe mostrar cada frame de la animación.
+     */
+    public void reset(int x, int y, String imageSource, int frameWidth, int frameHeight, int totalFrames, int frameTimeStep) {
+        setAnimation(x, y, imageSource, frameWidth, frameHeight, totalFrames, frameTimeStep);
+    }
+
     /**
      * {@inheritDoc}
      * <p>
      * Las explosiones no se mueven, en su lugar aprovechamos para invocar a
      * animateEffect() y así animar la explosión.
      * </p>
-     * @see #animateEffect()
+     * @see #animateEffect(FrameClock)
      */
     @Override
-    public void move(long delta) {
-        this.animateEffect();
+    public void move(FrameClock clock) {
+        this.animateEffect(clock);
     }
 }
@@ -1,9 +1,11 @@
 package poo.rtype.modelo;
 
-import poo.rtype.controlador.Game;
+import poo.rtype.controlador.EntityStore;
 
 /**
  * Esta clase extiende la clase Entity y representa el objeto Missile.
+ * Al salir por la derecha de la pantalla deja de ser visible (ver
+ * {@link poo.rtype.controlador.MovementController}).
  * @author José Luis Pérez Gonzáles
  */
 public class Missile extends Entity {
@@ -15,23 +17,29 @@ public class Missile extends Entity {
      * @param moveSpeed La velocidad horizontal que debe tener el misil.
      */
     public Missile(int x, int y, int moveSpeed) {
-        super(x, y, "/poo/rtype/missile.png", "/poo/rtype/missile_mask.png");
+        super(x, y, "/poo/rtype/missile.png", "/poo/rtype/missile_mask.png", EntityStore.MISSILE);
         setHorizontalMovement(moveSpeed);
     }
 
     /**
-     * {@inheritDoc}
-     * <p>
-     * Si un misil 'sale' por la derecha de la pantalla cambiamos su estado a
-     * no visible. De este modo, en la próxima actualización del estado del
-     * juego, el controlador de movimiento se encargará de eliminarlo.
-     * </p>
+     * Constructor para crear misiles 'en reserva' dentro de un ObjectPool.
+     * El misil no es visible hasta que se reinicializa con {@link #reset(int, int, int)}.
      */
-    @Override
-    public void move(long delta) {
-        if (this.getX() > Game.P_WIDTH) {
-            this.setVisible(false);
-        }
-        super.move(delta);
+    public Missile() {
+        this(0, 0, 0);
+        setVisible(false);
+    }
+
+    /**
+     * Reinicializa un misil reutilizado para volver a dispararlo.
+     * @param x La posición inicial del objeto sobre el eje horizontal.
+     * @param y La posición inicial del objeto sobre el eje vertical.
+     * @param moveSpeed La velocidad horizontal que debe tener el misil.
+     */
+    public void reset(int x, int y, int moveSpeed) {
+        setX(x);
+        setY(y);
+        setHorizontalMovement(moveSpeed);
+        setVisible(true);
     }
 }
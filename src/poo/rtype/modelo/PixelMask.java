@@ -0,0 +1,143 @@
+package poo.rtype.modelo;
+
+/**
+ * Máscara de colisión de una imagen, con un bit por píxel.
+ * <p>
+ * Cada fila de la máscara ocupa tantos valores long (palabras de 64 bits)
+ * como hagan falta para su ancho, así que no hay límite en el tamaño de la
+ * imagen. Dentro de cada palabra el bit más significativo corresponde al
+ * píxel situado más a la izquierda; los bits sobrantes de la última palabra
+ * de cada fila valen siempre 0.
+ * </p>
+ * <p>
+ * Una vez construida no se modifica, por lo que se comparte entre todas las
+ * entidades que usan la misma imagen.
+ * </p>
+ * @author José Luis Pérez González
+ */
+public final class PixelMask {
+    /** Ancho de la máscara en píxels */
+    private final int width;
+    /** Altura de la máscara en píxels */
+    private final int height;
+    /** Número de palabras de 64 bits que ocupa cada fila */
+    private final int wordsPerRow;
+    /** Los bits de la máscara, fila a fila */
+    private final long[] bits;
+
+    /**
+     * Constructor de la clase.
+     * @param width Ancho de la máscara en píxels.
+     * @param height Altura de la máscara en píxels.
+     * @param bits Las filas de la máscara, con (width + 63) / 64 palabras cada una.
+     */
+    public PixelMask(int width, int height, long[] bits) {
+        this.width = width;
+        this.height = height;
+        this.wordsPerRow = wordsPerRow(width);
+        if(bits.length != wordsPerRow * height)
+            throw new IllegalArgumentException("Tamaño de máscara incorrecto: " + bits.length);
+        this.bits = bits;
+    }
+
+    /**
+     * Devuelve el número de palabras de 64 bits necesarias para una fila.
+     * @param width Ancho de la fila en píxels.
+     * @return El número de palabras.
+     */
+    public static int wordsPerRow(int width) {
+        return (width + 63) >>> 6;
+    }
+
+    /**
+     * @return El ancho de la máscara en píxels.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return La altura de la máscara en píxels.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Devuelve cierto si el píxel indicado forma parte de la imagen.
+     * @param x Columna del píxel.
+     * @param y Fila del píxel.
+     * @return True si el píxel debe tenerse en cuenta en las colisiones.
+     */
+    public boolean get(int x, int y) {
+        if(x < 0 || y < 0 || x >= width || y >= height)
+            return false;
+        return (bits[y * wordsPerRow + (x >>> 6)] & (1L << (63 - (x & 63)))) != 0;
+    }
+
+    /**
+     * Comprueba si esta máscara y otra se solapan en algún píxel.
+     * <p>
+     * Se recorren sólo las filas comunes a las dos máscaras y, de cada fila de
+     * ésta, sus palabras de 64 bits. Para cada palabra se extraen los 64 bits de
+     * la otra máscara que caen en las mismas columnas (desplazando y combinando
+     * dos de sus palabras) y basta un AND para saber si hay colisión en 64
+     * píxels de una vez.
+     * </p>
+     * @param other La otra máscara.
+     * @param dx Posición horizontal de la otra máscara respecto a ésta.
+     * @param dy Posición vertical de la otra máscara respecto a ésta.
+     * @return True si algún píxel de las dos máscaras coincide.
+     */
+    public boolean intersects(PixelMask other, int dx, int dy) {
+        int rowStart = Math.max(0, dy);
+        int rowEnd = Math.min(height, dy + other.height);
+        int colStart = Math.max(0, dx);
+        int colEnd = Math.min(width, dx + other.width);
+        if(rowStart >= rowEnd || colStart >= colEnd)
+            return false;
+
+        int wordStart = colStart >>> 6;
+        int wordEnd = (colEnd - 1) >>> 6;
+        for(int row = rowStart; row < rowEnd; row++) {
+            int base = row * wordsPerRow;
+            int otherRow = row - dy;
+            for(int w = wordStart; w <= wordEnd; w++) {
+                long mine = bits[base + w];
+                // Fuera de las columnas comunes la otra máscara devuelve ceros, no hace falta recortar.
+                if(mine != 0 && (mine & other.window(otherRow, (w << 6) - dx)) != 0)
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Devuelve 64 bits consecutivos de una fila empezando en una columna
+     * cualquiera (no necesariamente múltiplo de 64). Las columnas que quedan
+     * fuera de la máscara valen 0.
+     * @param row La fila.
+     * @param column La columna del primer bit (el más significativo del resultado).
+     * @return Los 64 bits de la fila a partir de esa columna.
+     */
+    private long window(int row, int column) {
+        int word = column >> 6; // Desplazamiento aritmético: redondea hacia abajo también con negativos.
+        int shift = column & 63;
+        long high = word(row, word);
+        if(shift == 0)
+            return high;
+        return (high << shift) | (word(row, word + 1) >>> (64 - shift));
+    }
+
+    /**
+     * Devuelve una palabra de una fila, o 0 si está fuera de la máscara.
+     * @param row La fila.
+     * @param word El índice de la palabra dentro de la fila.
+     * @return La palabra.
+     */
+    private long word(int row, int word) {
+        if(word < 0 || word >= wordsPerRow)
+            return 0;
+        return bits[row * wordsPerRow + word];
+    }
+}
@@ -1,10 +1,10 @@
 package poo.rtype.modelo;
 
+import poo.rtype.controlador.EntityStore;
 import poo.rtype.controlador.Game;
+import poo.rtype.controlador.FrameClock;
 import poo.rtype.controlador.InputController;
-import poo.rtype.modelo.interfaces.EntityIF;
-
-import java.util.ArrayList;
+import poo.rtype.controlador.ObjectPool;
 
 /**
  * Esta clase extiende la clase Entity y representa el objeto Player
@@ -15,12 +15,12 @@ public class Player extends Entity {
     private long lastFiredMissile;
     /** Tiempo en milisegundos que nos indica el intervalo mínimo de tiempo que puede pasar entre dos disparos consecutivos */
     private static final int fireInterval = 150;
-    /** Misiles disparados que se encuentran en pantalla */
-    private ArrayList<EntityIF> missiles;
     /** Velocidad de la nave del jugador en píxels/segundo */
     private int moveSpeed;
     /** El controlador de las entradas del teclado */
     private InputController input;
+    /** Almacén del que se sacan los misiles al disparar y al que vuelven al desaparecer */
+    private ObjectPool<Missile> missilePool;
 
     /**
      * Constructor de la clase Player. La ruta hacia la imagen y su máscara,
@@ -28,47 +28,56 @@ public class Player extends Entity {
      * porque siempre serán lo mismo.
      * @param moveSpeed La velocidad de movimiento de la nave del jugador.
      * @param input Instancia del controlador de las entradas de teclado.
+     * @param missilePool Almacén de misiles reutilizables.
      */
-    public Player(int moveSpeed, InputController input) {
-        super(60, 190, "/poo/rtype/player.png", "/poo/rtype/player_mask.png");
+    public Player(int moveSpeed, InputController input, ObjectPool<Missile> missilePool) {
+        super(60, 190, "/poo/rtype/player.png", "/poo/rtype/player_mask.png", EntityStore.PLAYER);
         this.moveSpeed = moveSpeed;
-        missiles = new ArrayList<EntityIF>();
         lastFiredMissile = 0;
         this.input = input;
-    }
-
-    /**
-     * Devuelve la lista con los misiles disparados que aún se encuentran en
-     * pantalla.
-     * @return La lista de misiles disparados por el Jugador.
-     */
-    public ArrayList<EntityIF> getMissiles() {
-        return missiles;
+        this.missilePool = missilePool;
     }
 
     /**
      * Intenta un disparo. Si han pasado menos de 150 ms desde el último
-     * efectuado, no hacer nada.
+     * efectuado, no hacer nada. El misil se saca del almacén de misiles
+     * reutilizables en lugar de crear uno nuevo; quien dispara lo añade a la
+     * partida y lo devuelve al almacén cuando deja de ser visible.
+     * @param clock El reloj de la simulación.
+     * @return El misil disparado, o null si aún no se puede disparar.
      */
-    public void fire() {
-        if (System.currentTimeMillis() - lastFiredMissile < fireInterval) {
-            return;
+    public Missile fire(FrameClock clock) {
+        if (clock.getTime() - lastFiredMissile < fireInterval) {
+            return null;
         }
-        missiles.add(new Missile(this.getX() + this.getWidth() - 20, this.getY() + this.getHeight()/2, moveSpeed * 2));
-        lastFiredMissile = System.currentTimeMillis();
-        return;
+        Missile missile = missilePool.obtain();
+        missile.reset(this.getX() + this.getWidth() - 20, this.getY() + this.getHeight()/2, moveSpeed * 2);
+        lastFiredMissile = clock.getTime();
+        return missile;
     }
 
     /**
      * {@inheritDoc}
      * <p>
+     * Ver {@link #steer()}.
+     * </p>
+     */
+    @Override
+    public void move(FrameClock clock) {
+        steer();
+        super.move(clock);
+    }
+
+    /**
      * Si se está pulsando alguna de las teclas de dirección, actualizar la velocidad
      * de movimiento corresponsiente. Además la nave no debe sobrepasar los límites
      * de la pantalla, deteniendo su movimiento si llega a alguno de ellos.
+     * <p>
+     * No avanza la posición: durante la partida la avanza el
+     * {@link poo.rtype.controlador.MovementController} junto con la del resto de entidades.
      * </p>
      */
-    @Override
-    public void move(long delta) {
+    public void steer() {
         // Primero asumimos que no hay movimiento. Si alguna de las teclas
         // de movimiento están pulsadas actualizar la velocidad de movimiento
         // que corresponda.
@@ -102,8 +111,6 @@ public class Player extends Entity {
         if ((this.getVerticalMovement() > 0) && (this.getY() > Game.P_HEIGHT - this.getHeight())) {
             this.setY(Game.P_HEIGHT - this.getHeight());
         }
-
-        super.move(delta);
     }
 
 }
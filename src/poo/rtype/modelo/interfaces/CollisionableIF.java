@@ -2,6 +2,8 @@ package poo.rtype.modelo.interfaces;
 
 import java.awt.Rectangle;
 
+import poo.rtype.modelo.PixelMask;
+
 /**
  * Interfaz que debe implementar cualquier objeto que requiera que
  * se detecte si colisiona con otro de los que aparecen en pantalla.
@@ -53,13 +55,12 @@ public interface CollisionableIF {
     public Rectangle getBounds();
 
     /**
-     * Devuelve un array de N enteros donde N es la altura en píxels
-     * de la imagen que forma la entidad. Cada entero representa una fila
-     * diferente de píxeles de la imagen.
+     * Devuelve la máscara de la imagen que forma la entidad, con un bit
+     * por píxel y tantas palabras de 64 bits por fila como sean necesarias.
      * Se utiliza para detectar colisiones "pixel-perfect".
      * @return La máscara de la imagen que forma la entidad.
      */
-    public int[] getMaskArray();
+    public PixelMask getMask();
 
     /**
      * Devuelve cierto si la entidad ha colisionado, atendiendo a sus
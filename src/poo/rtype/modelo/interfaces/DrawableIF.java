@@ -2,6 +2,8 @@ package poo.rtype.modelo.interfaces;
 
 import java.awt.Graphics2D;
 
+import poo.rtype.controlador.WorldSnapshot;
+
 /**
  * Interfaz que debe implementar cualquier objeto que necesite
  * ser pintado en pantalla.
@@ -38,4 +40,19 @@ public interface DrawableIF {
      * @param g2d
      */
     public void Draw(Graphics2D g2d);
+
+    /**
+     * Dibuja la entidad en la pantalla en una posición interpolada entre
+     * la que tenía antes de la última actualización y la actual.
+     * @param g2d
+     * @param alpha 0 para la posición anterior, 1 para la actual.
+     */
+    public void Draw(Graphics2D g2d, double alpha);
+
+    /**
+     * Añade la entidad a una instantánea del mundo, con sus posiciones antes
+     * y después del último paso, para que la pinte el hilo de pintado.
+     * @param snapshot La instantánea que se está rellenando.
+     */
+    public void Draw(WorldSnapshot snapshot);
 }
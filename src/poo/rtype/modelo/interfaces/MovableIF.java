@@ -1,5 +1,7 @@
 package poo.rtype.modelo.interfaces;
 
+import poo.rtype.controlador.FrameClock;
+
 /**
  * Interfaz que debe implementar cualquier objeto que deba
  * moverse por la pantalla.
@@ -9,9 +11,9 @@ public interface MovableIF {
     /**
      * Actualizamos la posición (movemos) la entidad dependiendo
      * del tiempo en milisegundos que haya pasado.
-     * @param delta El tiempo en ms que ha pasado.
+     * @param clock El reloj de la simulación, con la hora y los ms simulados en este paso.
      */
-    public void move(long delta);
+    public void move(FrameClock clock);
 
     /**
      * Devuelve la posición de la entidad en el eje horizontal.
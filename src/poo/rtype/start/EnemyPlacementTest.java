@@ -0,0 +1,119 @@
+package poo.rtype.start;
+
+import java.util.Random;
+
+import poo.rtype.controlador.EnemyPlacer;
+import poo.rtype.controlador.Game;
+
+/**
+ * Prueba de {@link EnemyPlacer}: las naves de cada nivel se reparten por
+ * toda la zona de aparición, no en unas pocas filas fijas, y nunca se
+ * superponen sus zonas de seguridad.
+ * <p>
+ * Coloca las naves de cada nivel con muchas semillas distintas (con los
+ * mismos datos que World.makeEnemyPositions) y comprueba que todas las
+ * franjas de {@link #BAND} píxels de alto de la zona reciben alguna nave.
+ * Después comprueba una zona llena hasta el límite de
+ * {@link EnemyPlacer#minWidth(int, int, int)} y que, si no caben, se lanza
+ * la excepción.
+ * </p>
+ * <pre>
+ * java -cp bin poo.rtype.start.EnemyPlacementTest [semillas]
+ * </pre>
+ * @author José Luis Pérez González
+ */
+public class EnemyPlacementTest {
+
+    /** Lado de la zona de seguridad de cada nave */
+    private static final int SPACING = 100;
+    /** Posición vertical mínima de las naves */
+    private static final int TOP = 30;
+    /** Alto de la zona de aparición */
+    private static final int HEIGHT = Game.P_HEIGHT - 2 * TOP;
+    /** Alto en píxels de cada franja que debe recibir alguna nave */
+    private static final int BAND = 10;
+    /** Naves de cada nivel (ver World.start) */
+    private static final int[] ENEMIES = {10, 15, 20, 30};
+
+    /**
+     * Comprueba que las naves estén dentro de la zona y no se superpongan.
+     * @param pos Las posiciones de las naves.
+     * @param width Ancho de la zona.
+     * @return True si son correctas.
+     */
+    private static boolean isValid(int[][] pos, int width) {
+        for(int i = 0; i < pos.length; i++) {
+            if(pos[i][0] < Game.P_WIDTH || pos[i][0] >= Game.P_WIDTH + width
+                    || pos[i][1] < TOP || pos[i][1] >= TOP + HEIGHT)
+                return false;
+            for(int j = 0; j < i; j++) {
+                if(Math.abs(pos[i][0] - pos[j][0]) < SPACING && Math.abs(pos[i][1] - pos[j][1]) < SPACING)
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Coloca las naves de un nivel con varias semillas.
+     * @param gameMode El nivel.
+     * @param seeds Número de semillas.
+     * @return True si ninguna colocación es incorrecta y todas las franjas reciben alguna nave.
+     */
+    public static boolean spread(int gameMode, int seeds) {
+        int width = 500 * gameMode + Game.P_WIDTH;
+        int[] bands = new int[(HEIGHT + BAND - 1) / BAND];
+        boolean valid = true;
+        for(int seed = 0; seed < seeds; seed++) {
+            int[][] pos = EnemyPlacer.place(ENEMIES[gameMode - 1], Game.P_WIDTH, TOP, width, HEIGHT, SPACING,
+                    new Random(seed));
+            valid = valid && isValid(pos, width);
+            for(int[] p : pos)
+                bands[(p[1] - TOP) / BAND]++;
+        }
+        int empty = 0;
+        for(int band : bands) {
+            if(band == 0)
+                empty++;
+        }
+        System.out.println("Nivel " + gameMode + ": " + (valid ? "" : "posiciones incorrectas, ")
+                + empty + " de " + bands.length + " franjas vacías");
+        return valid && empty == 0;
+    }
+
+    /**
+     * Llena una zona del ancho mínimo y pide una nave más de las que caben.
+     * @param count Número de naves.
+     * @return True si caben todas en el ancho mínimo y la nave de más lanza la excepción.
+     */
+    public static boolean full(int count) {
+        int width = EnemyPlacer.minWidth(count, HEIGHT, SPACING);
+        boolean valid = isValid(EnemyPlacer.place(count, Game.P_WIDTH, TOP, width, HEIGHT, SPACING,
+                new Random(count)), width);
+        int rows = (HEIGHT + SPACING - 1) / SPACING;
+        boolean thrown = false;
+        try {
+            EnemyPlacer.place(count + rows, Game.P_WIDTH, TOP, width, HEIGHT, SPACING, new Random(count));
+        } catch (IllegalArgumentException ex) {
+            thrown = true;
+        }
+        System.out.println(count + " naves en " + width + " píxels: " + (valid ? "ok" : "FALLO")
+                + ", " + (count + rows) + ": " + (thrown ? "no caben" : "FALLO"));
+        return valid && thrown;
+    }
+
+    /**
+     * Ejecuta las pruebas y termina con código 1 si alguna falla.
+     * @param args Semillas por nivel (1000 por defecto).
+     */
+    public static void main(String args[]) {
+        int seeds = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        boolean ok = true;
+        for(int gameMode = 1; gameMode <= ENEMIES.length; gameMode++)
+            ok &= spread(gameMode, seeds);
+        ok &= full(200);
+        System.out.println(ok ? "ok" : "FALLO");
+        if(!ok)
+            System.exit(1);
+    }
+}
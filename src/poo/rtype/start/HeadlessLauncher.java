@@ -0,0 +1,204 @@
+package poo.rtype.start;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import poo.rtype.controlador.Autopilot;
+import poo.rtype.controlador.FrameClock;
+import poo.rtype.controlador.InputRecorder;
+import poo.rtype.controlador.InputReplay;
+import poo.rtype.controlador.World;
+
+/**
+ * Lanzador del juego sin pantalla, para ejecutar partidas en lote (ajuste
+ * de la dificultad, pruebas de regresión) en máquinas sin entorno gráfico.
+ * <p>
+ * Usa la misma simulación que el juego ({@link World}, con sus controladores
+ * de colisiones y movimiento), pero sin ventana, Canvas ni búfer: el reloj
+ * de la simulación ({@link FrameClock}) avanza siempre exactamente un paso,
+ * y las teclas las pulsa un piloto automático muy sencillo ({@link Autopilot}). Así cada partida
+ * se ejecuta tan rápido como permita el procesador, a miles de pasos por
+ * segundo.
+ * </p>
+ * <p>
+ * También graba partidas del piloto automático y repite partidas grabadas
+ * (por el juego o aquí, ver {@link InputRecorder}) a toda velocidad,
+ * comprobando que terminan exactamente igual.
+ * </p>
+ * <pre>
+ * java -cp bin poo.rtype.start.HeadlessLauncher [nivel(0=todos)] [partidas] [pasos máximos]
+ * java -cp bin poo.rtype.start.HeadlessLauncher record archivo [nivel] [semilla]
+ * java -cp bin poo.rtype.start.HeadlessLauncher replay archivo [repeticiones]
+ * </pre>
+ * @author José Luis Pérez González
+ */
+public class HeadlessLauncher {
+
+    /** Duración en ms de cada paso de la simulación (el mismo 'period' que usa el juego) */
+    private static final int STEP = 12;
+
+    static {
+        // Antes de que se cargue cualquier clase de AWT.
+        System.setProperty("java.awt.headless", "true");
+    }
+
+    /** La simulación */
+    private World world = new World();
+    /** Quien pulsa las teclas */
+    private Autopilot pilot = new Autopilot();
+    /** Generador de las semillas de cada partida */
+    private Random seeds = new Random();
+
+    /**
+     * Constructor de la clase.
+     */
+    public HeadlessLauncher() {
+        world.getClock().setSource(FrameClock.fixed(STEP));
+    }
+
+    /**
+     * Juega una partida completa, o hasta agotar el número máximo de pasos.
+     * @param gameMode El nivel de dificultad, de 1 a 4.
+     * @param maxTicks Número máximo de pasos de la partida.
+     * @return El número de pasos que ha durado la partida.
+     */
+    public int play(int gameMode, int maxTicks) {
+        return play(gameMode, seeds.nextLong(), maxTicks, null);
+    }
+
+    /**
+     * Juega una partida completa, o hasta agotar el número máximo de pasos.
+     * @param gameMode El nivel de dificultad, de 1 a 4.
+     * @param seed Semilla de los números aleatorios de la partida.
+     * @param maxTicks Número máximo de pasos de la partida.
+     * @param recorder Donde grabar la partida, o null.
+     * @return El número de pasos que ha durado la partida.
+     */
+    public int play(int gameMode, long seed, int maxTicks, InputRecorder recorder) {
+        world.start(gameMode, seed);
+        world.setRecorder(recorder);
+        int ticks = 0;
+        while(!world.isOver() && ticks < maxTicks) {
+            world.tick(pilot.keys(world));
+            ticks++;
+        }
+        world.setRecorder(null);
+        if(recorder != null)
+            recorder.finish(world.checksum());
+        return ticks;
+    }
+
+    /**
+     * Repite una partida grabada, a toda velocidad.
+     * @param replay La grabación, desde el principio.
+     * @return True si la repetición termina exactamente igual que la partida grabada.
+     */
+    public boolean replay(InputReplay replay) {
+        world.start(replay.getGameMode(), replay.getSeed());
+        while(replay.hasNext()) {
+            replay.next();
+            world.tick(replay.getDelta(), replay.getKeys());
+        }
+        return replay.matches(world);
+    }
+
+    /**
+     * @return La simulación, para consultar el resultado de la última partida.
+     */
+    public World getWorld() {
+        return world;
+    }
+
+    /**
+     * Ejecuta las partidas indicadas y muestra un resumen por nivel, o graba
+     * o repite una partida.
+     * @param args Nivel (0 = todos, por defecto), número de partidas por nivel
+     *             (100 por defecto) y número máximo de pasos por partida (20000 por defecto);
+     *             o 'record', archivo, nivel (1 por defecto) y semilla (aleatoria por defecto);
+     *             o 'replay', archivo y número de repeticiones (1 por defecto).
+     * @throws IOException Si no se puede leer o escribir la grabación.
+     */
+    public static void main(String args[]) throws IOException {
+        if(args.length > 1 && args[0].equals("record")) {
+            record(new File(args[1]), args.length > 2 ? Integer.parseInt(args[2]) : 1,
+                    args.length > 3 ? Long.parseLong(args[3]) : new Random().nextLong());
+            return;
+        }
+        if(args.length > 1 && args[0].equals("replay")) {
+            replay(new File(args[1]), args.length > 2 ? Integer.parseInt(args[2]) : 1);
+            return;
+        }
+        int mode = args.length > 0 ? Integer.parseInt(args[0]) : 0;
+        int games = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int maxTicks = args.length > 2 ? Integer.parseInt(args[2]) : 20000;
+
+        HeadlessLauncher launcher = new HeadlessLauncher();
+        long totalTicks = 0;
+        long start = System.nanoTime();
+        for(int m = 1; m <= 4; m++) {
+            if(mode != 0 && mode != m)
+                continue;
+            int wins = 0, losses = 0, timeouts = 0;
+            long ticks = 0, score = 0;
+            for(int i = 0; i < games; i++) {
+                int played = launcher.play(m, maxTicks);
+                World world = launcher.getWorld();
+                if(!world.isOver())
+                    timeouts++;
+                else if(world.isPlayerAlive())
+                    wins++;
+                else
+                    losses++;
+                ticks += played;
+                score += world.getPartialScore();
+            }
+            totalTicks += ticks;
+            System.out.println(String.format("Nivel %d: %d partidas, %d ganadas, %d perdidas, %d sin terminar, "
+                    + "%.0f pasos/partida, %.0f puntos/partida", m, games, wins, losses, timeouts,
+                    (double) ticks / games, (double) score / games));
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println(String.format("%d pasos en %.2f s (%.0f pasos/s, %.0fx tiempo real)", totalTicks, seconds,
+                totalTicks / seconds, totalTicks * STEP / 1000d / seconds));
+    }
+
+    /**
+     * Graba una partida del piloto automático.
+     * @param file Archivo de destino.
+     * @param gameMode Nivel de la partida.
+     * @param seed Semilla de la partida.
+     * @throws IOException Si no se puede escribir el archivo.
+     */
+    private static void record(File file, int gameMode, long seed) throws IOException {
+        HeadlessLauncher launcher = new HeadlessLauncher();
+        InputRecorder recorder = new InputRecorder(seed, gameMode, STEP);
+        launcher.play(gameMode, seed, Integer.MAX_VALUE, recorder);
+        recorder.save(file);
+        World world = launcher.getWorld();
+        System.out.println(String.format("Nivel %d, semilla %d: %s en %d pasos, %d puntos; %d bytes grabados",
+                gameMode, seed, world.isPlayerAlive() ? "ganada" : "perdida", recorder.getTicks(),
+                world.getPartialScore(), recorder.getSize()));
+    }
+
+    /**
+     * Repite una partida grabada varias veces seguidas.
+     * @param file Archivo de la grabación.
+     * @param times Número de repeticiones.
+     * @throws IOException Si no se puede leer el archivo.
+     */
+    private static void replay(File file, int times) throws IOException {
+        HeadlessLauncher launcher = new HeadlessLauncher();
+        int matches = 0;
+        long ticks = 0;
+        long start = System.nanoTime();
+        for(int i = 0; i < times; i++) {
+            if(launcher.replay(InputReplay.load(file)))
+                matches++;
+            ticks += launcher.getWorld().getTicks();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println(String.format("%d de %d repeticiones idénticas a la grabación; %d pasos en %.2f s "
+                + "(%.0fx tiempo real)", matches, times, ticks, seconds, ticks * STEP / 1000d / seconds));
+    }
+}
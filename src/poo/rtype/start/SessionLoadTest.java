@@ -0,0 +1,180 @@
+package poo.rtype.start;
+
+import java.util.List;
+
+import poo.rtype.controlador.Autopilot;
+import poo.rtype.controlador.FrameClock;
+import poo.rtype.controlador.Session;
+import poo.rtype.controlador.SessionHost;
+import poo.rtype.controlador.World;
+
+/**
+ * Prueba de carga del {@link SessionHost}: averigua cuántas partidas del
+ * piloto automático ({@link Autopilot}) puede mantener a su ritmo un solo
+ * hilo (un núcleo), a un paso cada 12 ms (83 pasos por segundo, el 'period'
+ * del juego).
+ * <p>
+ * Dobla el número de sesiones hasta que el host deja de dar abasto y luego
+ * busca el límite exacto entre el último número que aguantó y el primero
+ * que no. Un número de sesiones se sostiene si durante la medida se ejecutan
+ * al menos el 99% de los pasos que tocaban, no se descarta ninguno y como
+ * mucho el 5% llegan con más de un paso de retraso.
+ * </p>
+ * <pre>
+ * java -cp bin poo.rtype.start.SessionLoadTest [nivel] [segundos por medida] [hilos]
+ * </pre>
+ * @author José Luis Pérez González
+ */
+public class SessionLoadTest {
+
+    /** Duración en ms de cada paso de la simulación (el mismo 'period' que usa el juego) */
+    private static final int STEP = 12;
+    /** Tiempo en ms que se deja correr el host antes de medir */
+    private static final int WARMUP = 1000;
+    /** Pasos que se simulan a toda velocidad antes de empezar */
+    private static final int WARMUP_TICKS = 100000;
+
+    static {
+        // Antes de que se cargue cualquier clase de AWT.
+        System.setProperty("java.awt.headless", "true");
+    }
+
+    /** Nivel de las partidas */
+    private final int gameMode;
+    /** Duración en ms de cada medida */
+    private final int millis;
+    /** Hilos del host */
+    private final int threads;
+    /** Quien pulsa las teclas en todas las sesiones */
+    private final Autopilot pilot = new Autopilot();
+
+    /** Pasos ejecutados en la última medida */
+    private long ticks;
+    /** Pasos retrasados en la última medida */
+    private long late;
+    /** Pasos descartados en la última medida */
+    private long skipped;
+    /** Tiempo de hilo en ns dedicado a las sesiones en la última medida */
+    private long busy;
+
+    /**
+     * Constructor de la clase.
+     * @param gameMode Nivel de las partidas, de 1 a 4.
+     * @param millis Duración en ms de cada medida.
+     * @param threads Hilos del host.
+     */
+    public SessionLoadTest(int gameMode, int millis, int threads) {
+        this.gameMode = gameMode;
+        this.millis = millis;
+        this.threads = threads;
+    }
+
+    /**
+     * Ejecuta un número de sesiones durante una medida.
+     * @param count Número de sesiones.
+     * @return True si el host las sostiene a su ritmo.
+     * @throws InterruptedException Si se interrumpe la espera.
+     */
+    public boolean sustains(int count) throws InterruptedException {
+        SessionHost host = new SessionHost(threads, STEP);
+        for(int i = 0; i < count; i++)
+            host.add(gameMode, i, pilot);
+        host.start();
+        Thread.sleep(WARMUP);
+        List<Session> sessions = host.getSessions();
+        long ticks0 = 0, late0 = 0, skipped0 = 0, busy0 = 0;
+        for(Session session : sessions) {
+            ticks0 += session.getTicks();
+            late0 += session.getLateTicks();
+            skipped0 += session.getSkippedTicks();
+            busy0 += session.getBusyNanos();
+        }
+        long start = System.nanoTime();
+        Thread.sleep(millis);
+        long elapsed = System.nanoTime() - start;
+        ticks = -ticks0;
+        late = -late0;
+        skipped = -skipped0;
+        busy = -busy0;
+        for(Session session : sessions) {
+            ticks += session.getTicks();
+            late += session.getLateTicks();
+            skipped += session.getSkippedTicks();
+            busy += session.getBusyNanos();
+        }
+        host.stop();
+        double expected = count * (elapsed / (STEP * 1e6));
+        // Algún paso retrasado hay siempre, aunque el host esté libre (el planificador del
+        // sistema operativo, el recolector de basura), así que se tolera un 5%.
+        return ticks >= expected * 0.99 && skipped == 0 && late <= ticks * 0.05;
+    }
+
+    /**
+     * Muestra el resultado de la última medida.
+     * @param count Número de sesiones.
+     * @param ok Si se han sostenido.
+     */
+    private void report(int count, boolean ok) {
+        System.out.println(String.format("%5d sesiones: %s; %d pasos, %d retrasados, %d descartados, "
+                + "%.1f us/paso, %.0f%% ocupado", count, ok ? "sí" : "no", ticks, late, skipped,
+                ticks == 0 ? 0 : busy / 1e3 / ticks, busy / (millis * 1e6 * threads) * 100));
+    }
+
+    /**
+     * Juega partidas a toda velocidad para que el compilador JIT haya
+     * optimizado la simulación antes de la primera medida.
+     */
+    private void warmUp() {
+        World world = new World();
+        world.getClock().setSource(FrameClock.fixed(STEP));
+        for(int i = 0; i < WARMUP_TICKS; i++) {
+            if(i == 0 || world.isOver())
+                world.start(gameMode, i);
+            world.tick(pilot.keys(world));
+        }
+    }
+
+    /**
+     * Busca el mayor número de sesiones que sostiene el host.
+     * @return El número de sesiones, 0 si no sostiene ni una.
+     * @throws InterruptedException Si se interrumpe la espera.
+     */
+    public int search() throws InterruptedException {
+        warmUp();
+        int good = 0, bad = 1;
+        while(true) {
+            boolean ok = sustains(bad);
+            report(bad, ok);
+            if(!ok)
+                break;
+            good = bad;
+            bad *= 2;
+        }
+        while(bad - good > 1) {
+            int count = (good + bad) / 2;
+            boolean ok = sustains(count);
+            report(count, ok);
+            if(ok)
+                good = count;
+            else
+                bad = count;
+        }
+        return good;
+    }
+
+    /**
+     * Ejecuta la prueba y muestra el número de sesiones por núcleo.
+     * @param args Nivel (1 por defecto), segundos por medida (3 por defecto)
+     *             e hilos del host (1 por defecto).
+     * @throws InterruptedException Si se interrumpe la espera.
+     */
+    public static void main(String args[]) throws InterruptedException {
+        int mode = args.length > 0 ? Integer.parseInt(args[0]) : 1;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+        SessionLoadTest test = new SessionLoadTest(mode, seconds * 1000, threads);
+        int sessions = test.search();
+        System.out.println(String.format("Nivel %d, %d hilo(s), un paso cada %d ms (%.1f Hz): %d sesiones, "
+                + "%.1f por núcleo", mode, threads, STEP, 1000d / STEP, sessions, (double) sessions / threads));
+    }
+}
@@ -0,0 +1,167 @@
+package poo.rtype.start;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import poo.rtype.controlador.Autopilot;
+import poo.rtype.controlador.Session;
+import poo.rtype.controlador.SessionHost;
+import poo.rtype.controlador.World;
+
+/**
+ * Prueba de {@link SessionHost#remove(Session)}: una sesión retirada no
+ * debe volver a ejecutarse, aunque se retire mientras un hilo del host le
+ * está dando un turno; como mucho termina el paso que tenía a medias.
+ * <p>
+ * Primero retira una sesión a mitad de un paso (su piloto se detiene hasta
+ * que se ha retirado) y después retira sesiones al azar durante unos
+ * segundos, mientras varios hilos las ejecutan a un paso por ms. El piloto
+ * de cada sesión cuenta los pasos que empiezan después de retirarla.
+ * </p>
+ * <pre>
+ * java -cp bin poo.rtype.start.SessionRemoveTest [segundos]
+ * </pre>
+ * @author José Luis Pérez González
+ */
+public class SessionRemoveTest {
+
+    /** Duración en ms de cada paso: lo más corto posible, para que los hilos no paren */
+    private static final int STEP = 1;
+    /** Hilos del host */
+    private static final int THREADS = 4;
+    /** Sesiones que se ejecutan a la vez en la segunda prueba */
+    private static final int SESSIONS = 64;
+    /** Tiempo en ms que se espera antes de comprobar que una sesión retirada no avanza */
+    private static final int SETTLE = 100;
+
+    static {
+        // Antes de que se cargue cualquier clase de AWT.
+        System.setProperty("java.awt.headless", "true");
+    }
+
+    /** Quien pulsa las teclas en todas las sesiones */
+    private static final Autopilot pilot = new Autopilot();
+
+    /**
+     * Piloto que cuenta los pasos que le piden después de retirar su sesión.
+     */
+    private static class CountingPilot implements SessionHost.Pilot {
+        /** True desde que ha terminado SessionHost.remove() */
+        volatile boolean removed;
+        /** Pasos pedidos desde entonces */
+        final AtomicInteger afterRemove = new AtomicInteger();
+
+        @Override
+        public int keys(World world) {
+            if(removed)
+                afterRemove.incrementAndGet();
+            return pilot.keys(world);
+        }
+    }
+
+    /**
+     * Piloto que, en su primer paso, avisa de que ha empezado y espera a que
+     * le dejen seguir.
+     */
+    private static class BlockingPilot extends CountingPilot {
+        /** Se abre al empezar el primer paso */
+        final CountDownLatch entered = new CountDownLatch(1);
+        /** Se abre para dejar terminar el paso */
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public int keys(World world) {
+            if(entered.getCount() == 0)
+                return super.keys(world);
+            // El primer paso: empezó antes de retirar la sesión, no cuenta.
+            entered.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            return pilot.keys(world);
+        }
+    }
+
+    /**
+     * Retira una sesión mientras un hilo del host está a mitad de su paso.
+     * @return True si, terminado ese paso, la sesión no vuelve a ejecutarse.
+     * @throws InterruptedException Si se interrumpe la espera.
+     */
+    public static boolean removeWhileWorking() throws InterruptedException {
+        SessionHost host = new SessionHost(THREADS, STEP);
+        BlockingPilot blocking = new BlockingPilot();
+        Session session = host.add(1, 0, blocking);
+        host.start();
+        blocking.entered.await();
+        host.remove(session);
+        blocking.removed = true;
+        blocking.release.countDown();
+        Thread.sleep(SETTLE);
+        host.stop();
+        return blocking.afterRemove.get() == 0 && !host.getSessions().contains(session);
+    }
+
+    /**
+     * Retira sesiones al azar mientras el host las ejecuta, añadiendo otras en su lugar.
+     * @param millis Duración en ms de la prueba.
+     * @return El número de sesiones retiradas que han empezado algún paso
+     *         después de retirarlas (el que ya estaban empezando no cuenta).
+     * @throws InterruptedException Si se interrumpe la espera.
+     */
+    public static int removeUnderLoad(int millis) throws InterruptedException {
+        SessionHost host = new SessionHost(THREADS, STEP);
+        Random random = new Random(0);
+        List<Session> sessions = new ArrayList<Session>();
+        List<CountingPilot> pilots = new ArrayList<CountingPilot>();
+        for(int i = 0; i < SESSIONS; i++) {
+            CountingPilot counting = new CountingPilot();
+            sessions.add(host.add(1, i, counting));
+            pilots.add(counting);
+        }
+        host.start();
+        List<Session> removed = new ArrayList<Session>();
+        List<CountingPilot> removedPilots = new ArrayList<CountingPilot>();
+        long end = System.currentTimeMillis() + millis;
+        while(System.currentTimeMillis() < end) {
+            int i = random.nextInt(sessions.size());
+            host.remove(sessions.get(i));
+            pilots.get(i).removed = true;
+            removed.add(sessions.get(i));
+            removedPilots.add(pilots.get(i));
+            CountingPilot counting = new CountingPilot();
+            sessions.set(i, host.add(1, random.nextLong(), counting));
+            pilots.set(i, counting);
+            Thread.sleep(random.nextInt(3));
+        }
+        Thread.sleep(SETTLE);
+        host.stop();
+        int failures = 0;
+        for(int i = 0; i < removed.size(); i++) {
+            // Un paso puede haber comprobado la sesión justo antes de retirarla y pedir las teclas justo después.
+            if(removedPilots.get(i).afterRemove.get() > 1 || host.getSessions().contains(removed.get(i)))
+                failures++;
+        }
+        System.out.println(removed.size() + " sesiones retiradas, " + failures + " siguen ejecutándose");
+        return failures;
+    }
+
+    /**
+     * Ejecuta las dos pruebas y termina con código 1 si alguna falla.
+     * @param args Segundos de la segunda prueba (3 por defecto).
+     * @throws InterruptedException Si se interrumpe la espera.
+     */
+    public static void main(String args[]) throws InterruptedException {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        boolean working = removeWhileWorking();
+        System.out.println("Retirada a mitad de un paso: " + (working ? "ok" : "FALLO"));
+        int failures = removeUnderLoad(seconds * 1000);
+        System.out.println("Retiradas con carga: " + (failures == 0 ? "ok" : "FALLO"));
+        if(!working || failures > 0)
+            System.exit(1);
+    }
+}
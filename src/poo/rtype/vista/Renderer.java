@@ -1,22 +1,49 @@
 package poo.rtype.vista;
 
+import java.awt.AlphaComposite;
 import java.awt.Color;
+import java.awt.Composite;
 import java.awt.Font;
 import java.awt.FontMetrics;
 import java.awt.GradientPaint;
 import java.awt.Graphics2D;
 import java.awt.Image;
-import java.util.ArrayList;
+import java.awt.Transparency;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
 
-import poo.rtype.modelo.Player;
 import poo.rtype.controlador.Game;
+import poo.rtype.controlador.AssetCache;
+import poo.rtype.controlador.FrameMetrics;
 import poo.rtype.controlador.ImageLoader;
-import poo.rtype.modelo.interfaces.EffectIF;
-import poo.rtype.modelo.interfaces.EntityIF;
+import poo.rtype.controlador.Leaderboard;
+import poo.rtype.controlador.TextureAtlas;
+import poo.rtype.controlador.WorldSnapshot;
 
 /**
  * Esta clase dibujará en el búfer para que luego éste pueda ser
  * a su vez dibujado en el canvas.
+ * <p>
+ * No accede a las entidades del juego sino a una instantánea
+ * ({@link WorldSnapshot}) que publica la simulación, de modo que puede
+ * ejecutarse en un hilo propio mientras la lógica sigue avanzando.
+ * </p>
+ * <p>
+ * Lo que no cambia de un frame a otro se dibuja una sola vez en imágenes
+ * compatibles con la pantalla (capas) que luego sólo se copian: las
+ * pantallas de selección y de Game Over, con su fondo degradado, y el
+ * marcador de la pantalla de juego, que se vuelve a dibujar únicamente
+ * cuando cambian las naves restantes, el nivel o los FPS. Así, mientras no
+ * cambia nada, pintar un frame no crea ningún objeto.
+ * </p>
+ * <p>
+ * Las partículas (las estrellas, ver {@link poo.rtype.controlador.ParticleSystem})
+ * se juntan en una figura por color, un segmento de longitud cero (un
+ * píxel) por partícula, y se pinta cada figura con una sola llamada:
+ * dibujar miles de partículas no cuesta una llamada a Graphics por cada
+ * una, y las pipelines aceleradas las envían a la tarjeta de una vez.
+ * </p>
  * <pre>
  * Rebderer render = new Renderer(game);
  * render.render();
@@ -24,16 +51,67 @@ import poo.rtype.modelo.interfaces.EntityIF;
  * @author José Luis Pérez González
  */
 public class Renderer {
+    /** Ruta de la imagen de fondo de la pantalla de juego */
+    private static final String BACKGROUND = "/poo/rtype/background.gif";
     /** Instancia del controlador principal del juego */
     private Game game;
-    /** Mensaje a mostrar en la pantalla de Game Over */
-    private String notifyMessage = "";
-    /** Texto con el nivel de dificultad selecciondo */
-    private String gameMode = "";
-    /** Fondo de la pantalla de juego. */
-    private Image background;
+    /** Mensaje a mostrar en la pantalla de Game Over (lo actualiza el hilo de la simulación) */
+    private volatile String notifyMessage = "";
+    /** Texto con el nivel de dificultad selecciondo (lo actualiza el hilo de la simulación) */
+    private volatile String gameMode = "";
+    /** Color de los objetos que se pintan como un punto */
+    private static final Color POINT_COLOR = new Color(225,225,225);
+    /** Color de las barras de la gráfica de tiempos que caben en un paso de la simulación */
+    private static final Color GRAPH_OK = new Color(0, 200, 0, 160);
+    /** Color de las barras de la gráfica de tiempos que no caben en un paso */
+    private static final Color GRAPH_SLOW = new Color(220, 0, 0, 200);
+    /** Píxels de altura de la gráfica por cada ms */
+    private static final int GRAPH_SCALE = 2;
+    /** Altura máxima de la gráfica en píxels */
+    private static final int GRAPH_HEIGHT = 60;
+    /** Número de puntuaciones que se muestran en la pantalla de Game Over */
+    private static final int TOP_SCORES = 10;
+    /** Registro de partidas del que se leen las mejores puntuaciones, o null */
+    private Leaderboard leaderboard;
+    /** Mejores puntuaciones leídas del registro, se reutiliza en cada frame */
+    private double[] topScores = new double[TOP_SCORES];
+    /** Tiempos de los frames a dibujar en la gráfica, o null si no se dibuja */
+    private FrameMetrics frameGraph;
+    /** Atlas de texturas del que se dibujan el fondo y los objetos */
+    private TextureAtlas atlas;
+    /** Región del atlas con el fondo de la pantalla de juego. */
+    private int background;
     /** Posición horizontal del fondo en la pantalla */
     private double bgPos = 0;
+    /** Color (RGB) de las partículas de cada figura */
+    private int[] particleRgb = new int[0];
+    /** Color de las partículas de cada figura */
+    private Color[] particleColors = new Color[0];
+    /** Una figura por color con las partículas de ese color; se vacían y se reutilizan en cada frame */
+    private Path2D.Float[] particlePaths = new Path2D.Float[0];
+    /** Degradado del fondo de las pantallas de selección y de Game Over */
+    private static final GradientPaint GRADIENT = new GradientPaint(0, 0, new Color(100,100,100),
+            0, Game.P_HEIGHT - 50, Color.BLACK);
+    /** Altura de la capa del marcador */
+    private static final int HUD_HEIGHT = 20;
+
+    /** Crea las imágenes de las capas */
+    private ImageLoader loader = new ImageLoader();
+    /** Capa con la pantalla de selección completa, o null si aún no se ha dibujado */
+    private Image selectionLayer;
+    /** Capa con la pantalla de Game Over completa, o null si aún no se ha dibujado */
+    private BufferedImage gameOverLayer;
+    /** Mensaje, puntuación, nivel y número de partidas del registro con los que se dibujó la capa de Game Over */
+    private String gameOverMessage;
+    private double gameOverScore;
+    private int gameOverMode;
+    private long gameOverEntries;
+    /** Capa con el marcador de la pantalla de juego, o null si aún no se ha dibujado */
+    private BufferedImage hudLayer;
+    /** Naves restantes, nivel y FPS con los que se dibujó el marcador */
+    private int hudEnemies;
+    private String hudMode;
+    private int hudFps;
 
     /** Diferentes tipos de fuentes que usaremos. */
     private Font title = new Font("Serif", Font.BOLD | Font.ITALIC, 48);
@@ -50,37 +128,101 @@ public class Renderer {
      */
     public Renderer(Game game) {
         this.game = game;
-        this.background = new ImageLoader().LoadImage("/poo/rtype/background.gif");
+        this.atlas = AssetCache.getAtlas();
+        this.background = AssetCache.getSprite(BACKGROUND);
     }
 
     /**
      * Este método se invoca desde el controlador principal del juego cada vez
-     * que se necesita repintar la pantalla. Pinta el fondo de la misma y luego,
-     * dependiendo de la fase de juego en la que estemos, pintará la pantalla
-     * que corresponda:
+     * que se necesita repintar la pantalla. Dependiendo de la fase de juego
+     * en la que estemos, pintará la pantalla que corresponda:
      * <ul>
-     * <li>Pantalla de selección: {@link #drawInSelection(Graphics2D)}</li>
-     * <li>Pantalla de juego: {@link #drawInGame(Graphics2D, ArrayList, ArrayList, long)}</li>
-     * <li>Pantalla de Game Over: {@link #drawGameOver(Graphics2D)}</li>
+     * <li>Pantalla de selección: {@link #drawInSelection(Graphics2D)}, una sola vez</li>
+     * <li>Pantalla de juego: {@link #drawInGame(Graphics2D, WorldSnapshot, double, double)}</li>
+     * <li>Pantalla de Game Over: {@link #drawGameOver(Graphics2D, String, double, int)}, cuando cambia</li>
      * </ul>
      * @param g Objeto Graphics que encapsula la información necesaria para el pintado.
-     * @param entities Contenedor con las diferentes entidades activas del juego.
-     * @param effects Contenedor con los diferentes efectos especiales activos del juego.
-     */
-    public void render(Graphics2D g, ArrayList<EntityIF> entities, ArrayList<EffectIF> effects, long delta) {
-        // Fondo degradado.
-        Color color1 = new Color(100,100,100);
-        Color color2 = Color.BLACK;
-        GradientPaint gp = new GradientPaint(0, 0, color1, 0, Game.P_HEIGHT - 50, color2);
-        g.setPaint(gp);
+     * @param snapshot Instantánea con la pantalla actual y los objetos a pintar.
+     * @param delta El tiempo en ms que ha pasado desde el último render.
+     * @param alpha Fracción del paso de simulación transcurrida desde la última actualización
+     *              (0 = posición anterior, 1 = posición actual), para interpolar el movimiento.
+     */
+    public void render(Graphics2D g, WorldSnapshot snapshot, double delta, double alpha) {
+        if(snapshot.getScreen() == WorldSnapshot.SCREEN_SELECTION) {
+            if(selectionLayer == null) {
+                BufferedImage layer = loader.createImage(Game.P_WIDTH, Game.P_HEIGHT, Transparency.OPAQUE);
+                Graphics2D lg = layer.createGraphics();
+                drawGradient(lg);
+                drawInSelection(lg);
+                lg.dispose();
+                selectionLayer = layer;
+            }
+            g.drawImage(selectionLayer, 0, 0, null);
+        } else if(snapshot.getScreen() == WorldSnapshot.SCREEN_INGAME) {
+            // El fondo de la pantalla de juego es opaco y la cubre entera, no hace falta el degradado.
+            drawInGame(g, snapshot, delta, alpha);
+        } else {
+            updateGameOverLayer(snapshot.getScore(), snapshot.getGameMode());
+            g.drawImage(gameOverLayer, 0, 0, null);
+        }
+    }
+
+    /**
+     * Pinta el fondo degradado.
+     * @param g Objeto Graphics2D que encapsula la información necesaria para el pintado.
+     */
+    private void drawGradient(Graphics2D g) {
+        g.setPaint(GRADIENT);
         g.fillRect(0, 0, Game.P_WIDTH, Game.P_HEIGHT);
+    }
 
-        if(game.inselection)
-            drawInSelection(g);
-        else if(game.ingame)
-            drawInGame(g, entities, effects, delta);
-        else
-            drawGameOver(g);
+    /**
+     * Vuelve a dibujar la capa de Game Over si ha cambiado algo de lo que
+     * muestra: el mensaje, la puntuación, el nivel o el registro de partidas.
+     * @param finalScore La puntuación de la partida.
+     * @param gameMode El nivel de dificultad de la partida.
+     */
+    private void updateGameOverLayer(double finalScore, int gameMode) {
+        String message = notifyMessage;
+        long entries = leaderboard == null ? 0 : leaderboard.size(Leaderboard.ALL_MODES);
+        if(gameOverLayer != null && message.equals(gameOverMessage) && finalScore == gameOverScore
+                && gameMode == gameOverMode && entries == gameOverEntries)
+            return;
+        if(gameOverLayer == null)
+            gameOverLayer = loader.createImage(Game.P_WIDTH, Game.P_HEIGHT, Transparency.OPAQUE);
+        Graphics2D g = gameOverLayer.createGraphics();
+        drawGradient(g);
+        drawGameOver(g, message, finalScore, gameMode);
+        g.dispose();
+        gameOverMessage = message;
+        gameOverScore = finalScore;
+        gameOverMode = gameMode;
+        gameOverEntries = entries;
+    }
+
+    /**
+     * Vuelve a dibujar la capa del marcador si han cambiado las naves
+     * restantes, el nivel o los FPS.
+     * @param totalEnemies Naves enemigas restantes.
+     */
+    private void updateHudLayer(int totalEnemies) {
+        String mode = gameMode;
+        int fps = game.getState().getFps();
+        if(hudLayer != null && totalEnemies == hudEnemies && mode.equals(hudMode) && fps == hudFps)
+            return;
+        if(hudLayer == null)
+            hudLayer = loader.createImage(Game.P_WIDTH, HUD_HEIGHT, Transparency.TRANSLUCENT);
+        Graphics2D g = hudLayer.createGraphics();
+        // Borrar la capa, dejándola transparente.
+        Composite composite = g.getComposite();
+        g.setComposite(AlphaComposite.Clear);
+        g.fillRect(0, 0, Game.P_WIDTH, HUD_HEIGHT);
+        g.setComposite(composite);
+        drawHud(g, totalEnemies, mode, fps);
+        g.dispose();
+        hudEnemies = totalEnemies;
+        hudMode = mode;
+        hudFps = fps;
     }
 
     /**
@@ -91,6 +233,24 @@ public class Renderer {
         this.notifyMessage = notifyMessage;
     }
 
+    /**
+     * Indica el registro de partidas del que leer las mejores puntuaciones
+     * y el puesto de la última partida en la pantalla de Game Over.
+     * @param leaderboard El registro de partidas.
+     */
+    public void setLeaderboard(Leaderboard leaderboard) {
+        this.leaderboard = leaderboard;
+    }
+
+    /**
+     * Activa la gráfica con la duración de los últimos frames en la
+     * pantalla de juego.
+     * @param metrics Los tiempos a dibujar, o null para no dibujar la gráfica.
+     */
+    public void setFrameGraph(FrameMetrics metrics) {
+        this.frameGraph = metrics;
+    }
+
     /**
      * Actaulizar el texto con el modo de juego seleccionado.
      * Usando esto no nos vemos obligados a buscar el modo con
@@ -151,39 +311,68 @@ public class Renderer {
      * Dibujar la pantalla del juego propiamente dicha, con todos los objetos
      * que la forman.
      * @param g Objeto Graphics2D que encapsula la información necesaria para el pintado.
-     * @param entities Contenedor con las entidades activas del juego.
-     * @param effects Contenedor con los efectos activos del juego.
+     * @param snapshot Instantánea con los efectos y entidades activos del juego, en el orden en que se pintan.
+     * @param delta El tiempo en ms que ha pasado desde el último render.
+     * @param alpha Fracción del paso de simulación para interpolar las posiciones.
      */
-    private void drawInGame(Graphics2D g, ArrayList<EntityIF> entities, ArrayList<EffectIF> effects, long delta) {
-
-        String text;
+    private void drawInGame(Graphics2D g, WorldSnapshot snapshot, double delta, double alpha) {
 
         // Mover y dibujar el fondo
-        if(bgPos + background.getWidth(null) < 0)
+        int bgWidth = atlas.getWidth(background);
+        if(bgPos + bgWidth < 0)
             bgPos = 0;
         bgPos += (delta * -25d)/1000; // El fondo se mueve a 25 píxels/segundo hacia la izquierda de la pantalla
-        g.drawImage(background, (int)Math.round(bgPos), 0, null);
-        if(bgPos + background.getWidth(null) < Game.P_WIDTH)
-            g.drawImage(background, (int)Math.round(bgPos) + background.getWidth(null), 0, null);
-
-        // Dibujar los efectos.
-        for(EffectIF effect: effects) {
-            effect.Draw(g);
+        drawBackground(g, (int)Math.round(bgPos));
+        if(bgPos + bgWidth < Game.P_WIDTH)
+            drawBackground(g, (int)Math.round(bgPos) + bgWidth);
+        int bgHeight = atlas.getHeight(background);
+        if(bgHeight < Game.P_HEIGHT) {
+            // Lo que no cubre el fondo, para que no queden restos del frame anterior.
+            g.setColor(Color.BLACK);
+            g.fillRect(0, bgHeight, Game.P_WIDTH, Game.P_HEIGHT - bgHeight);
         }
 
-        // Dibujar entidades.
-        for(EntityIF entity: entities) {
-            entity.Draw(g);
-            if(entity instanceof Player) {
-                ArrayList<EntityIF> missiles = ((Player) entity).getMissiles();
-                for(EntityIF m: missiles) {
-                    m.Draw(g);
-                }
+        drawParticles(g, snapshot, alpha);
+
+        // Dibujar efectos, entidades y misiles (la simulación los añade en ese orden).
+        for(int i = 0; i < snapshot.getCount(); i++) {
+            Image image = snapshot.getImage(i);
+            int x = snapshot.getX(i, alpha);
+            int y = snapshot.getY(i, alpha);
+            if(image == null) {
+                g.setColor(POINT_COLOR);
+                g.drawLine(x, y, x, y);
+            } else if(snapshot.getSrcWidth(i) < 0) {
+                g.drawImage(image, x, y, null);
+            } else {
+                int sx = snapshot.getSrcX(i);
+                int sy = snapshot.getSrcY(i);
+                int w = snapshot.getSrcWidth(i);
+                int h = snapshot.getSrcHeight(i);
+                g.drawImage(image, x, y, x + w, y + h, sx, sy, sx + w, sy + h, null);
             }
         }
 
         // Información 'relevante' que se dibuja en la zona superior de la pantalla.
-        // Enemigos restantes, Nivel seleccionado y FPS.
+        updateHudLayer(snapshot.getTotalEnemies());
+        g.drawImage(hudLayer, 0, 0, null);
+
+        if(frameGraph != null)
+            drawFrameGraph(g);
+    }
+
+    /**
+     * Dibujar el marcador de la zona superior de la pantalla de juego:
+     * enemigos restantes, nivel seleccionado y FPS.
+     * @param g Objeto Graphics2D que encapsula la información necesaria para el pintado.
+     * @param totalEnemies Naves enemigas restantes.
+     * @param gameMode El texto con el nivel de dificultad.
+     * @param fps Los frames por segundo.
+     */
+    private void drawHud(Graphics2D g, int totalEnemies, String gameMode, int fps) {
+
+        String text;
+
         g.setFont(info);
         g.setColor(Color.WHITE);
         metr = g.getFontMetrics();
@@ -192,7 +381,7 @@ public class Renderer {
         int lastWidth = metr.stringWidth(text)+5;
         g.drawString(text, 5, 15);
         g.setColor(Color.GREEN);
-        text = Integer.toString(Game.TOTAL_ENEMIES).trim();
+        text = Integer.toString(totalEnemies);
         g.drawString(text, lastWidth+5, 15);
         lastWidth = lastWidth + 5 + metr.stringWidth(text);
         g.setColor(Color.WHITE);
@@ -207,15 +396,92 @@ public class Renderer {
         text = "FPS:";
         g.drawString(text, Game.P_WIDTH - 60, 15);
         g.setColor(Color.GREEN);
-        g.drawString(Integer.toString(Game.CURRENT_FPS), Game.P_WIDTH -25, 15);
+        g.drawString(Integer.toString(fps), Game.P_WIDTH -25, 15);
+    }
+
+    /**
+     * Dibuja el fondo desde su región del atlas.
+     * @param g Objeto Graphics2D que encapsula la información necesaria para el pintado.
+     * @param x Posición horizontal del fondo en la pantalla.
+     */
+    private void drawBackground(Graphics2D g, int x) {
+        int sx = atlas.getX(background), sy = atlas.getY(background);
+        int w = atlas.getWidth(background), h = atlas.getHeight(background);
+        g.drawImage(atlas.getPage(background), x, 0, x + w, h, sx, sy, sx + w, sy + h, null);
+    }
+
+    /**
+     * Dibuja las partículas: las junta en una figura por color, un segmento
+     * de longitud cero por partícula, y pinta cada figura con una sola llamada
+     * (sin antialiasing, con el trazo de un píxel, cada segmento es un píxel).
+     * @param g Objeto Graphics2D que encapsula la información necesaria para el pintado.
+     * @param snapshot Instantánea con las partículas.
+     * @param alpha Fracción del paso de simulación para interpolar las posiciones.
+     */
+    private void drawParticles(Graphics2D g, WorldSnapshot snapshot, double alpha) {
+        int paths = particlePaths.length;
+        for(int p = 0; p < paths; p++)
+            particlePaths[p].reset();
+        for(int i = 0; i < snapshot.getParticleCount(); i++) {
+            int x = snapshot.getParticleX(i, alpha);
+            int y = snapshot.getParticleY(i, alpha);
+            if(x < 0 || x >= Game.P_WIDTH || y < 0 || y >= Game.P_HEIGHT)
+                continue;
+            int rgb = snapshot.getParticleColor(i);
+            int p = 0;
+            while(p < paths && particleRgb[p] != rgb)
+                p++;
+            if(p == paths) {
+                // Un color nuevo: su figura se queda para los siguientes frames.
+                paths++;
+                particleRgb = Arrays.copyOf(particleRgb, paths);
+                particleRgb[p] = rgb;
+                particleColors = Arrays.copyOf(particleColors, paths);
+                particleColors[p] = new Color(rgb);
+                particlePaths = Arrays.copyOf(particlePaths, paths);
+                particlePaths[p] = new Path2D.Float(Path2D.WIND_NON_ZERO, 256);
+            }
+            particlePaths[p].moveTo(x, y);
+            particlePaths[p].lineTo(x, y);
+        }
+        for(int p = 0; p < paths; p++) {
+            g.setColor(particleColors[p]);
+            g.draw(particlePaths[p]);
+        }
+    }
+
+    /**
+     * Dibuja en la esquina inferior derecha una barra por cada uno de los
+     * últimos frames, de altura proporcional a su duración (el más reciente
+     * a la derecha). La línea blanca marca la duración de un paso de la
+     * simulación; las barras que la superan se pintan en rojo.
+     * @param g Objeto Graphics2D que encapsula la información necesaria para el pintado.
+     */
+    private void drawFrameGraph(Graphics2D g) {
+        int right = Game.P_WIDTH - 5;
+        int bottom = Game.P_HEIGHT - 5;
+        int budget = Math.min(GRAPH_HEIGHT, Game.getPeriod() * GRAPH_SCALE);
+        for(int age = 0; age < FrameMetrics.GRAPH_SIZE; age++) {
+            double ms = frameGraph.getRecentFrame(age) / 1000000d;
+            int h = Math.min(GRAPH_HEIGHT, (int)Math.round(ms * GRAPH_SCALE));
+            g.setColor(h > budget ? GRAPH_SLOW : GRAPH_OK);
+            g.drawLine(right - age, bottom, right - age, bottom - h);
+        }
+        g.setColor(Color.WHITE);
+        g.drawLine(right - FrameMetrics.GRAPH_SIZE + 1, bottom - budget, right, bottom - budget);
     }
 
     /**
      * Dibujar la pantalla de Game Over con el mensaje apropiado y con las opciones
      * de si seguir jugando o no.
+     * Las mejores puntuaciones y el puesto de la partida se consultan en el
+     * registro de partidas, cuyo índice las da sin recorrer el histórico.
      * @param g Objeto Graphics2D que encapsula la información necesaria para el pintado.
+     * @param notifyMessage El mensaje (You Win o Game Over).
+     * @param finalScore La puntuación de la partida.
+     * @param gameMode El nivel de dificultad de la partida.
      */
-    private void drawGameOver(Graphics2D g) {
+    private void drawGameOver(Graphics2D g, String notifyMessage, double finalScore, int gameMode) {
 
         String text;
 
@@ -230,17 +496,22 @@ public class Renderer {
         metr = g.getFontMetrics();
         int vPos = 90;
         boolean printMyScore = true;
-        for(int i = 1; i < game.finalScore.length; i++) {
+        if(leaderboard != null)
+            leaderboard.top(Leaderboard.ALL_MODES, topScores, 0, TOP_SCORES);
+        for(int i = 0; i < TOP_SCORES; i++) {
             g.setColor(Color.WHITE);
-            if(game.finalScore[0] == game.finalScore[i] && printMyScore) {
+            if(finalScore == topScores[i] && printMyScore) {
                 g.setColor(Color.YELLOW);
                 printMyScore = false;
             }
-            text = String.format("%02d", i) + ".  " + String.format("%06d", (int)game.finalScore[i]);
+            text = String.format("%02d", i + 1) + ".  " + String.format("%06d", (int)topScores[i]);
             g.drawString(text, (Game.P_WIDTH - metr.stringWidth(text)) / 2, vPos);
             vPos += 20;
         }
-        text = "Mi puntuación: " + String.format("%05d", (int)game.finalScore[0]);
+        text = "Mi puntuación: " + String.format("%05d", (int)finalScore);
+        if(leaderboard != null)
+            text += "  Puesto: " + leaderboard.rank(finalScore, Leaderboard.ALL_MODES) + " de " + leaderboard.size(Leaderboard.ALL_MODES)
+                    + " (" + leaderboard.rank(finalScore, gameMode) + " de " + leaderboard.size(gameMode) + " en este nivel)";
         g.drawString(text, (Game.P_WIDTH - metr.stringWidth(text)) / 2, vPos + 10);
 
         // Opciones